@@ -0,0 +1,447 @@
+package com.synaltic.cxf.benchmarks;
+
+import com.synaltic.cxf.logging.AsyncLogSink;
+import com.synaltic.cxf.logging.JournalLogSink;
+import com.synaltic.cxf.logging.LogSink;
+import com.synaltic.cxf.logging.LoggingMetrics;
+import com.synaltic.cxf.logging.Slf4jLogSink;
+import com.synaltic.cxf.logging.SynalticLoggingInterceptor;
+import com.synaltic.cxf.syncope.InterceptorsUtil;
+import com.synaltic.cxf.syncope.SyncopeAuthenticator;
+import com.synaltic.cxf.syncope.SyncopeInterceptor;
+import com.synaltic.cxf.syncope.SyncopeMetrics;
+import com.synaltic.cxf.syncope.SyncopeTokenInterceptor;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.common.util.Base64Utility;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the interceptors, running on localhost only: a CXF JAX-RS endpoint on a bus with the
+ * Syncope and logging interceptors injected as the bundle activators do, authenticating against a stub Syncope server.
+ * Concurrent clients call the endpoint with Basic credentials, and the throughput, latency percentiles, response codes
+ * and number of stub Syncope calls are reported for the measurement period (after the warmup).
+ * <p>
+ * The options are given as key=value arguments:
+ * <ul>
+ * <li>clients (16): number of concurrent clients.</li>
+ * <li>warmup (5) and duration (30): warmup and measurement durations, in seconds.</li>
+ * <li>users (100): number of distinct users (user0..userN).</li>
+ * <li>denied (0): number of distinct users rejected by the stub (denied0..deniedN), added to the users.</li>
+ * <li>payload (1024): size of the XML request payload, in bytes.</li>
+ * <li>logging (true): inject the logging interceptors.</li>
+ * <li>token (false): send back the session token received in the X-Syncope-Token header (requires
+ * syncope.token.enabled=true and syncope.token.key).</li>
+ * <li>stub.version (2): Syncope version emulated by the stub (1 or 2).</li>
+ * <li>stub.nodes (1): number of stub Syncope nodes, all defined in syncope.address.</li>
+ * <li>stub.latency (20): latency of the stub Syncope calls, in milliseconds (comma separated values per node).</li>
+ * <li>stub.errorRate (0): ratio of stub Syncope calls failing with HTTP 500.</li>
+ * <li>stub.threads (64): number of stub Syncope threads.</li>
+ * <li>syncope.*: any Syncope interceptor property (syncope.cache.enabled=true, syncope.async.enabled=true, ...).</li>
+ * <li>logging.*: any logging interceptor property (logging.async.enabled=true, ...).</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    private final static String BUS_ID = "LoadTest-bus-cxf";
+    private final static String ROLE = "loadtest";
+    private final static String TOKEN_HEADER = "X-Syncope-Token";
+
+    private final Properties options;
+
+    private final List<StubSyncopeServer> syncopes = new ArrayList<StubSyncopeServer>();
+    private SyncopeMetrics metrics;
+    private SyncopeAuthenticator authenticator;
+    private final LoggingMetrics loggingMetrics = new LoggingMetrics();
+    private LogSink loggingSink;
+    private JournalLogSink loggingJournal;
+    private Bus bus;
+    private Server server;
+    private String address;
+
+    public LoadTest(Properties options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                System.err.println("Invalid option " + arg + ", expecting key=value");
+                System.exit(1);
+            }
+            options.setProperty(arg.substring(0, index).trim(), arg.substring(index + 1).trim());
+        }
+        LoadTest loadTest = new LoadTest(options);
+        try {
+            loadTest.start();
+            loadTest.run();
+        } finally {
+            loadTest.stop();
+        }
+        System.exit(0);
+    }
+
+    public void start() throws Exception {
+        String[] latencies = options.getProperty("stub.latency", "20").split(",");
+        int nodes = getInt("stub.nodes", 1);
+        for (int i = 0; i < nodes; i++) {
+            StubSyncopeServer syncope = new StubSyncopeServer(options.getProperty("stub.version", "2"),
+                    new String[] { "employee", ROLE },
+                    Long.parseLong(latencies[Math.min(i, latencies.length - 1)].trim()),
+                    Double.parseDouble(options.getProperty("stub.errorRate", "0")));
+            syncope.start(getInt("stub.threads", 64));
+            syncopes.add(syncope);
+        }
+
+        bus = BusFactory.newInstance().createBus();
+        bus.setId(BUS_ID);
+        injectSyncope(bus);
+        if (Boolean.parseBoolean(options.getProperty("logging", "true"))) {
+            injectLogging(bus);
+        }
+
+        address = "http://127.0.0.1:" + freePort() + "/services";
+        JAXRSServerFactoryBean factory = new JAXRSServerFactoryBean();
+        factory.setBus(bus);
+        factory.setAddress(address);
+        factory.setResourceClasses(LoadTestService.class);
+        factory.setResourceProvider(LoadTestService.class, new SingletonResourceProvider(new LoadTestService()));
+        server = factory.create();
+    }
+
+    /**
+     * Inject the Syncope interceptor as the syncope bundle Activator does.
+     */
+    private void injectSyncope(Bus bus) throws Exception {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("syncope.address", syncopeAddress());
+        properties.put("syncope.version", options.getProperty("stub.version", "2"));
+        for (String key : options.stringPropertyNames()) {
+            if (key.startsWith("syncope.")) {
+                properties.put(key, options.getProperty(key));
+            }
+        }
+        properties.put("LoadTest-bus.*", ROLE);
+
+        InterceptorsUtil util = new InterceptorsUtil(properties);
+        metrics = new SyncopeMetrics();
+        authenticator = new SyncopeAuthenticator(util, metrics);
+        metrics.setAuthenticator(authenticator);
+
+        if (util.busDefined(bus.getId())) {
+            SyncopeInterceptor syncopeInterceptor = new SyncopeInterceptor();
+            syncopeInterceptor.setUtil(util);
+            syncopeInterceptor.setBusId(bus.getId());
+            syncopeInterceptor.setAuthenticator(authenticator);
+            syncopeInterceptor.setMetrics(metrics.getBusMetrics(bus.getId()));
+            bus.getInInterceptors().add(syncopeInterceptor);
+            bus.getOutInterceptors().add(new SyncopeTokenInterceptor());
+        }
+    }
+
+    /**
+     * Inject the logging interceptors as the logging bundle Activator does.
+     */
+    private void injectLogging(Bus bus) throws Exception {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        for (String key : options.stringPropertyNames()) {
+            if (key.startsWith("logging.")) {
+                properties.put(key, options.getProperty(key));
+            }
+        }
+        com.synaltic.cxf.logging.InterceptorsUtil util = new com.synaltic.cxf.logging.InterceptorsUtil(properties);
+        loggingJournal = util.isJournalEnabled() ? new JournalLogSink(util, loggingMetrics) : null;
+        LogSink delegate = loggingJournal != null ? loggingJournal : Slf4jLogSink.INSTANCE;
+        loggingSink = util.isAsyncEnabled() ? new AsyncLogSink(util, delegate, loggingMetrics) : delegate;
+        loggingMetrics.setBuffer(loggingSink instanceof AsyncLogSink ? (AsyncLogSink) loggingSink : null);
+
+        String loggerName = "com.synaltic.cxf.logging.loadtest";
+        SynalticLoggingInterceptor inInterceptor = new SynalticLoggingInterceptor(loggerName, "receive");
+        SynalticLoggingInterceptor outInterceptor = new SynalticLoggingInterceptor(loggerName, "pre-stream");
+        for (SynalticLoggingInterceptor interceptor : new SynalticLoggingInterceptor[]{ inInterceptor, outInterceptor }) {
+            interceptor.setConfiguration(loggerName, loggingSink, util);
+            interceptor.setMetrics(loggingMetrics);
+        }
+        bus.getInInterceptors().add(inInterceptor);
+        bus.getOutInterceptors().add(outInterceptor);
+        bus.getOutFaultInterceptors().add(outInterceptor);
+    }
+
+    public void run() throws Exception {
+        int clients = getInt("clients", 16);
+        int users = getInt("users", 100);
+        int denied = getInt("denied", 0);
+        boolean token = Boolean.parseBoolean(options.getProperty("token", "false"));
+        long warmup = TimeUnit.SECONDS.toNanos(getLong("warmup", 5));
+        long duration = TimeUnit.SECONDS.toNanos(getLong("duration", 30));
+        byte[] payload = payload(getInt("payload", 1024));
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(clients);
+        connectionManager.setDefaultMaxPerRoute(clients);
+        CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+
+        System.out.println("Load test on " + address + "/loadtest/echo: " + clients + " clients, " + users + " users, " + denied + " denied users, "
+                + payload.length + " bytes payload, stub Syncope " + syncopeAddress());
+
+        long now = System.nanoTime();
+        long measureStart = now + warmup;
+        long measureEnd = measureStart + duration;
+        CountDownLatch done = new CountDownLatch(clients);
+        List<Client> workers = new ArrayList<Client>();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(httpClient, payload, users, denied, token, measureStart, measureEnd, done);
+            workers.add(client);
+            Thread thread = new Thread(client, "loadtest-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        TimeUnit.NANOSECONDS.sleep(warmup);
+        for (StubSyncopeServer syncope : syncopes) {
+            syncope.reset();
+        }
+        metrics.reset();
+        done.await();
+        httpClient.close();
+
+        report(workers, duration);
+    }
+
+    private void report(List<Client> workers, long duration) {
+        int count = 0;
+        Map<Integer, Long> statuses = new TreeMap<Integer, Long>();
+        long failures = 0;
+        for (Client client : workers) {
+            count += client.count;
+            failures += client.failures;
+            for (Map.Entry<Integer, Long> status : client.statuses.entrySet()) {
+                Long total = statuses.get(status.getKey());
+                statuses.put(status.getKey(), (total == null ? 0 : total) + status.getValue());
+            }
+        }
+        long[] latencies = new long[count];
+        int index = 0;
+        for (Client client : workers) {
+            System.arraycopy(client.latencies, 0, latencies, index, client.count);
+            index += client.count;
+        }
+        Arrays.sort(latencies);
+
+        double seconds = duration / 1e9;
+        System.out.println();
+        System.out.println(String.format("Requests:           %d (%d connection failures)", count, failures));
+        System.out.println(String.format("Throughput:         %.1f req/s", count / seconds));
+        System.out.println(String.format("Latency (ms):       p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 99.9), count > 0 ? latencies[count - 1] / 1e6 : 0));
+        System.out.println("Response codes:     " + statuses);
+        long calls = 0;
+        long errors = 0;
+        List<Long> nodeCalls = new ArrayList<Long>();
+        for (StubSyncopeServer syncope : syncopes) {
+            calls += syncope.getCalls();
+            errors += syncope.getErrors();
+            nodeCalls.add(syncope.getCalls());
+        }
+        System.out.println(String.format("Stub Syncope calls: %d (%d errors, %.1f calls/s, per node %s)",
+                calls, errors, calls / seconds, nodeCalls));
+        System.out.println(String.format("Cache:              %d hits, %d misses, %d entries",
+                metrics.getCacheHits(), metrics.getCacheMisses(), metrics.getCacheSize()));
+        if (loggingSink != null) {
+            System.out.println(String.format("Logging:            %d entries, %d skipped, %d dropped, %d payloads dropped, %d blocked",
+                    loggingMetrics.getEntries(), loggingMetrics.getSkipped(), loggingMetrics.getDroppedEntries(),
+                    loggingMetrics.getDroppedPayloads(), loggingMetrics.getBlocked()));
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.destroy();
+            server = null;
+        }
+        if (bus != null) {
+            bus.shutdown(true);
+            bus = null;
+        }
+        if (authenticator != null) {
+            authenticator.close();
+            authenticator = null;
+        }
+        if (loggingSink != null) {
+            loggingSink.close();
+            loggingSink = null;
+        }
+        if (loggingJournal != null) {
+            loggingJournal.close();
+            loggingJournal = null;
+        }
+        for (StubSyncopeServer syncope : syncopes) {
+            syncope.stop();
+        }
+        syncopes.clear();
+    }
+
+    private String syncopeAddress() {
+        StringBuilder builder = new StringBuilder();
+        for (StubSyncopeServer syncope : syncopes) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(syncope.getAddress());
+        }
+        return builder.toString();
+    }
+
+    private static byte[] payload(int size) throws Exception {
+        StringBuilder builder = new StringBuilder(size + 128);
+        builder.append("<getProjectDetails>");
+        int item = 0;
+        while (builder.length() < size - 64) {
+            builder.append("<project><id>").append(item++).append("</id><name>Project name</name></project>");
+        }
+        builder.append("</getProjectDetails>");
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private static int freePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = options.getProperty(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = options.getProperty(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    /**
+     * Client thread, sending requests until the end of the measurement and recording the latencies measured after the
+     * warmup.
+     */
+    private final class Client implements Runnable {
+
+        private final CloseableHttpClient httpClient;
+        private final byte[] payload;
+        private final String[] authorizations;
+        private final String[] tokens;
+        private final long measureStart;
+        private final long measureEnd;
+        private final CountDownLatch done;
+
+        private long[] latencies = new long[4096];
+        private int count;
+        private long failures;
+        private final Map<Integer, Long> statuses = new TreeMap<Integer, Long>();
+
+        private Client(CloseableHttpClient httpClient, byte[] payload, int users, int denied, boolean token, long measureStart, long measureEnd,
+                       CountDownLatch done) throws Exception {
+            this.httpClient = httpClient;
+            this.payload = payload;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            this.done = done;
+            this.authorizations = new String[users + denied];
+            this.tokens = token ? new String[users + denied] : null;
+            for (int i = 0; i < users; i++) {
+                authorizations[i] = "Basic " + Base64Utility.encode(("user" + i + ":password" + i).getBytes("UTF-8"));
+            }
+            for (int i = 0; i < denied; i++) {
+                authorizations[users + i] = "Basic " + Base64Utility.encode(("denied" + i + ":password" + i).getBytes("UTF-8"));
+            }
+        }
+
+        public void run() {
+            try {
+                String url = address + "/loadtest/echo";
+                long start;
+                while ((start = System.nanoTime()) < measureEnd) {
+                    HttpPost post = new HttpPost(url);
+                    int user = ThreadLocalRandom.current().nextInt(authorizations.length);
+                    post.setHeader("Authorization", authorizations[user]);
+                    if (tokens != null && tokens[user] != null) {
+                        post.setHeader(TOKEN_HEADER, tokens[user]);
+                    }
+                    post.setEntity(new ByteArrayEntity(payload, ContentType.TEXT_XML));
+                    int status;
+                    try {
+                        CloseableHttpResponse response = httpClient.execute(post);
+                        try {
+                            status = response.getStatusLine().getStatusCode();
+                            if (tokens != null && response.containsHeader(TOKEN_HEADER)) {
+                                tokens[user] = response.getFirstHeader(TOKEN_HEADER).getValue();
+                            }
+                            EntityUtils.consume(response.getEntity());
+                        } finally {
+                            response.close();
+                        }
+                    } catch (Exception e) {
+                        status = -1;
+                    }
+                    long end = System.nanoTime();
+                    if (start >= measureStart) {
+                        record(status, end - start);
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void record(int status, long latency) {
+            if (status < 0) {
+                failures++;
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            Long total = statuses.get(status);
+            statuses.put(status, (total == null ? 0 : total) + 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.synaltic.cxf.benchmarks;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * JAX-RS service of the load test, sending back the request payload.
+ */
+@Path("/loadtest")
+public class LoadTestService {
+
+    @POST
+    @Path("/echo")
+    @Consumes({ "text/xml", "application/xml" })
+    @Produces("text/xml")
+    public String echo(String payload) {
+        return payload;
+    }
+
+}
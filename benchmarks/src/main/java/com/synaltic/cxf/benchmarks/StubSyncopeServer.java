@@ -0,0 +1,181 @@
+package com.synaltic.cxf.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.cxf.common.util.Base64Utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stub Syncope server serving /users/self in the Syncope 1.x (XML) or 2.x (JSON) format, bound on the loopback
+ * interface only. Any Basic credentials are accepted (except the users starting with "denied") and the user has
+ * the configured roles.
+ * A latency can be added to each call, and a ratio of the calls can fail with HTTP 500.
+ */
+public class StubSyncopeServer {
+
+    public final static String CONTEXT = "/syncope/cxf";
+
+    private final String version;
+    private final String[] roles;
+    private final long latency;
+    private final double errorRate;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param version the Syncope version to emulate (1 or 2).
+     * @param roles the roles of the users.
+     * @param latency the latency added to each call, in milliseconds.
+     * @param errorRate the ratio of calls failing with HTTP 500 (between 0 and 1).
+     */
+    public StubSyncopeServer(String version, String[] roles, long latency, double errorRate) {
+        this.version = version;
+        this.roles = roles;
+        this.latency = latency;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Start the server on an ephemeral port.
+     *
+     * @param threads the number of threads serving the requests.
+     */
+    public void start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext(CONTEXT + "/users/self", new UsersSelfHandler());
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the Syncope address to use in the syncope.address property.
+     */
+    public String getAddress() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void reset() {
+        calls.set(0);
+        errors.set(0);
+    }
+
+    private byte[] syncope1User(String username) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        builder.append("<user><id>100</id><username>").append(username).append("</username><status>active</status>");
+        builder.append("<memberships>");
+        for (int i = 0; i < roles.length; i++) {
+            builder.append("<membership><id>").append(i).append("</id><roleId>").append(i)
+                    .append("</roleId><roleName>").append(roles[i]).append("</roleName></membership>");
+        }
+        builder.append("</memberships></user>");
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private byte[] syncope2User(String username) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"key\":\"100\",\"username\":\"").append(username).append("\",\"status\":\"active\",\"roles\":[");
+        for (int i = 0; i < roles.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(roles[i]).append('"');
+        }
+        builder.append("],\"memberships\":[]}");
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private static String username(String authorization) throws Exception {
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            return null;
+        }
+        String credentials = new String(Base64Utility.decode(authorization.substring(6).trim()), "UTF-8");
+        int index = credentials.indexOf(':');
+        return index > 0 ? credentials.substring(0, index) : null;
+    }
+
+    private final class UsersSelfHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                calls.incrementAndGet();
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {
+                    // drain the request
+                }
+                if (latency > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latency);
+                }
+                if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    errors.incrementAndGet();
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                String username;
+                try {
+                    username = username(exchange.getRequestHeaders().getFirst("Authorization"));
+                } catch (Exception e) {
+                    username = null;
+                }
+                if (username == null || username.startsWith("denied")) {
+                    exchange.sendResponseHeaders(401, -1);
+                    return;
+                }
+                byte[] body;
+                if (version.equals("2.x") || version.equals("2")) {
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    body = syncope2User(username);
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                    body = syncope1User(username);
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.synaltic.cxf.logging;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SynalticLoggingInterceptor.handleMessage on a synthetic CXF inbound message, for payload sizes from 1 KB to 50 MB,
+ * XML (pretty printed) and non XML.
+ * The payload is read by the benchmark after the interceptor, as the service would. The entry is formatted by a sink
+ * dropping the message: the SLF4J binding of the benchmarks doesn't log, the SLF4J sink wouldn't format anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SynalticLoggingInterceptorBenchmark {
+
+    @Param({ "1024", "65536", "1048576", "52428800" })
+    private int size;
+
+    @Param({ "text/xml", "application/octet-stream" })
+    private String contentType;
+
+    private SynalticLoggingInterceptor interceptor;
+    private FormattingSink sink;
+    private byte[] payload;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        String loggerName = "com.synaltic.cxf.logging.benchmark";
+        interceptor = new SynalticLoggingInterceptor(loggerName, "receive");
+        sink = new FormattingSink();
+        interceptor.setConfiguration(loggerName, sink, new InterceptorsUtil(new Hashtable<String, Object>()));
+        buffer = new byte[8192];
+
+        StringBuilder builder = new StringBuilder(size + 256);
+        if (contentType.contains("xml")) {
+            builder.append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body><getProjectDetails>");
+            int item = 0;
+            while (builder.length() < size - 64) {
+                builder.append("<project><id>").append(item++).append("</id><name>Project name</name></project>");
+            }
+            builder.append("</getProjectDetails></soap:Body></soap:Envelope>");
+        } else {
+            while (builder.length() < size) {
+                builder.append("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ\n");
+            }
+            builder.setLength(size);
+        }
+        payload = builder.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public long handleMessage() throws Exception {
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        exchange.setInMessage(message);
+        message.setExchange(exchange);
+        message.put(Message.ENCODING, "UTF-8");
+        message.put(Message.HTTP_REQUEST_METHOD, "POST");
+        message.put(Message.REQUEST_URI, "/services/GetProjectDetails");
+        message.put(Message.ENDPOINT_ADDRESS, "http://localhost:8181/services/GetProjectDetails");
+        message.put("Content-Type", contentType);
+        message.setContent(InputStream.class, new ByteArrayInputStream(payload));
+
+        interceptor.handleMessage(message);
+
+        // consume the payload as the service would
+        InputStream in = message.getContent(InputStream.class);
+        long read = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            read += n;
+        }
+        in.close();
+        return read + sink.formatted;
+    }
+
+    /**
+     * Format the entries, as the SLF4J sink does when the logger is enabled, without logging them.
+     */
+    private final static class FormattingSink implements LogSink {
+
+        // length of the last formatted message, returned by the benchmark so the formatting is not eliminated
+        private int formatted;
+
+        public void write(LogEntry entry) {
+            formatted = entry.getFormatter().format(entry).length();
+        }
+
+        public void close() {
+        }
+
+    }
+
+}
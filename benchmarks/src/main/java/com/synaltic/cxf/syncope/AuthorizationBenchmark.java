@@ -0,0 +1,75 @@
+package com.synaltic.cxf.syncope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bus lookup and role authorization of InterceptorsUtil, for different numbers of configured bus patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int buses;
+
+    private Hashtable<String, String> properties;
+    private InterceptorsUtil util;
+    private String busId;
+    private List<String> allowedRoles;
+    private List<String> deniedRoles;
+
+    @Setup
+    public void setup() {
+        properties = new Hashtable<String, String>();
+        properties.put("syncope.address", "http://localhost:8080/syncope/cxf");
+        properties.put("syncope.version", "2");
+        for (int i = 0; i < buses; i++) {
+            properties.put("Service" + i + "-bus.*", "usa,france,germany,role-" + i);
+        }
+        util = new InterceptorsUtil(properties);
+        busId = "Service" + (buses - 1) + "-bus-cxf123456";
+        allowedRoles = Arrays.asList("employee", "manager", "Role-" + (buses - 1));
+        deniedRoles = Arrays.asList("employee", "manager", "guest");
+    }
+
+    @Benchmark
+    public boolean authorize() throws Exception {
+        return util.authorize(busId, allowedRoles);
+    }
+
+    @Benchmark
+    public boolean authorizeDenied() throws Exception {
+        return util.authorize(busId, deniedRoles);
+    }
+
+    @Benchmark
+    public boolean busDefined() throws Exception {
+        return util.busDefined(busId);
+    }
+
+    @Benchmark
+    public boolean busDefinedColdSnapshot() throws Exception {
+        // configuration update: the snapshot is rebuilt before the first lookup
+        return new InterceptorsUtil(properties).busDefined(busId);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.synaltic.cxf.syncope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Role extraction from the Syncope 1.x (XML) and 2.x (JSON) /users/self responses, for different membership counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolesExtractionBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int memberships;
+
+    private SyncopeClient client;
+    private byte[] syncope1Response;
+    private byte[] syncope2Response;
+
+    @Setup
+    public void setup() throws Exception {
+        client = new SyncopeClient(new InterceptorsUtil(null));
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+        xml.append("<user><id>100</id><username>bench</username><status>active</status>");
+        xml.append("<attributes><attribute><schema>email</schema><values>bench@example.com</values></attribute></attributes>");
+        xml.append("<memberships>");
+        for (int i = 0; i < memberships; i++) {
+            xml.append("<membership><id>").append(i).append("</id><roleId>").append(i)
+                    .append("</roleId><roleName>role-").append(i).append("</roleName></membership>");
+        }
+        xml.append("</memberships><resources><resource>ldap</resource></resources></user>");
+        syncope1Response = xml.toString().getBytes("UTF-8");
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"key\":\"100\",\"username\":\"bench\",\"status\":\"active\",");
+        json.append("\"plainAttrs\":[{\"schema\":\"email\",\"values\":[\"bench@example.com\"]}],");
+        json.append("\"roles\":[");
+        for (int i = 0; i < memberships; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\"role-").append(i).append('"');
+        }
+        json.append("],\"resources\":[\"ldap\"],\"memberships\":[]}");
+        syncope2Response = json.toString().getBytes("UTF-8");
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public List<String> extractingRolesSyncope1() throws Exception {
+        return client.extractingRolesSyncope1(new ByteArrayInputStream(syncope1Response));
+    }
+
+    @Benchmark
+    public List<String> extractingRolesSyncope2() throws Exception {
+        return client.extractingRolesSyncope2(new ByteArrayInputStream(syncope2Response));
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.configuration.security.AuthorizationPolicy;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SyncopeInterceptor.handleMessage on a synthetic CXF message, the credentials being in the authentication cache
+ * (no Syncope call).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncopeInterceptorBenchmark {
+
+    private final static String BUS_ID = "GetProjectDetails-service-cxf123456";
+
+    private SyncopeAuthenticator authenticator;
+    private SyncopeInterceptor interceptor;
+    private AuthorizationPolicy policy;
+
+    @Setup
+    public void setup() {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("syncope.address", "http://localhost:8080/syncope/cxf");
+        properties.put("syncope.version", "2");
+        properties.put("syncope.cache.enabled", "true");
+        properties.put("syncope.cache.ttl", "3600000");
+        properties.put("GetProjectDetails.*", "usa,france,germany");
+        InterceptorsUtil util = new InterceptorsUtil(properties);
+
+        SyncopeMetrics metrics = new SyncopeMetrics();
+        authenticator = new SyncopeAuthenticator(util, metrics);
+        authenticator.getCache().put(authenticator.key("bench", "secret"), Arrays.asList("employee", "france"));
+
+        interceptor = new SyncopeInterceptor();
+        interceptor.setUtil(util);
+        interceptor.setBusId(BUS_ID);
+        interceptor.setAuthenticator(authenticator);
+        interceptor.setMetrics(metrics.getBusMetrics(BUS_ID));
+
+        policy = new AuthorizationPolicy();
+        policy.setUserName("bench");
+        policy.setPassword("secret");
+    }
+
+    @TearDown
+    public void tearDown() {
+        authenticator.close();
+    }
+
+    @Benchmark
+    public Message handleMessageCached() {
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        exchange.setInMessage(message);
+        message.setExchange(exchange);
+        message.put(AuthorizationPolicy.class, policy);
+        interceptor.handleMessage(message);
+        return message;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.synaltic.cxf.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Callbacks of an exchange answered without going through the out chain: an in interceptor rejecting a request
+ * aborts the chain and writes the response on the back channel, the interceptors waiting for the end of the exchange
+ * (to log the request read so far for instance) are not invoked anymore.
+ * <p>
+ * Those interceptors register a callback in the exchange, and the interceptor aborting the chain runs the callbacks
+ * once the response is sent. The callbacks are stored under a string key, as plain {@link Runnable}s: the bundles
+ * embedding this class share the contract without sharing the class.
+ */
+public final class AbortedExchange {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AbortedExchange.class);
+
+    private final static String CALLBACKS = AbortedExchange.class.getName() + ".callbacks";
+
+    private AbortedExchange() {
+    }
+
+    /**
+     * Register a callback run if the exchange is aborted.
+     *
+     * @param exchange the CXF exchange.
+     * @param callback the callback.
+     */
+    @SuppressWarnings("unchecked")
+    public static void onAbort(Map<String, Object> exchange, Runnable callback) {
+        List<Runnable> callbacks = (List<Runnable>) exchange.get(CALLBACKS);
+        if (callbacks == null) {
+            callbacks = new ArrayList<Runnable>(1);
+            exchange.put(CALLBACKS, callbacks);
+        }
+        callbacks.add(callback);
+    }
+
+    /**
+     * Run (once) the callbacks of an aborted exchange, after its response has been sent.
+     *
+     * @param exchange the CXF exchange.
+     */
+    @SuppressWarnings("unchecked")
+    public static void aborted(Map<String, Object> exchange) {
+        List<Runnable> callbacks = (List<Runnable>) exchange.remove(CALLBACKS);
+        if (callbacks == null) {
+            return;
+        }
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Aborted exchange callback failed", e);
+            }
+        }
+    }
+
+}
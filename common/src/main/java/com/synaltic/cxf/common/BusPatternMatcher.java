@@ -0,0 +1,187 @@
+package com.synaltic.cxf.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Match CXF bus IDs against the bus patterns (regex) of a configuration, and get the value associated with the
+ * matching pattern.
+ * <p>
+ * The patterns are compiled once: the literal patterns (without regex meta characters) are resolved with a hash
+ * lookup, the others are combined in a single regex. The result of each bus ID is memoized, so a bus ID is matched
+ * once for the life of the configuration.
+ * <p>
+ * When several patterns match a bus ID, the precedence is deterministic (it doesn't depend on the order of the
+ * configuration properties): a literal pattern equal to the bus ID first, then the longest regex, then the first
+ * regex in lexical order.
+ *
+ * @param <T> the type of the value associated with a pattern.
+ */
+public final class BusPatternMatcher<T> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(BusPatternMatcher.class);
+
+    private final static int MAX_RESOLVED_BUSES = 10000;
+
+    private final static Pattern LITERAL = Pattern.compile("[\\w\\-:/@#%=~,;!' ]*");
+
+    // a back reference can't be renumbered in the combined regex
+    private final static Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+
+    // marker of a bus ID not matching any pattern in the memoized results
+    private final static Object NONE = new Object();
+
+    private final Map<String, T> literals = new HashMap<String, T>();
+    private final List<String> regexes = new ArrayList<String>();
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    private final List<T> values = new ArrayList<T>();
+    private final List<String> order;
+    // combined regex of all the patterns, the pattern i being the capturing group groups[i]
+    private final Pattern combined;
+    private final int[] groups;
+    private final ConcurrentHashMap<String, Object> resolved = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Compile the bus patterns. The invalid regexes are logged and ignored.
+     *
+     * @param definitions the bus patterns and their (not null) values.
+     */
+    public BusPatternMatcher(Map<String, T> definitions) {
+        List<String> sorted = new ArrayList<String>(definitions.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                if (a.length() != b.length()) {
+                    return b.length() - a.length();
+                }
+                return a.compareTo(b);
+            }
+        });
+        List<String> order = new ArrayList<String>();
+        for (String regex : sorted) {
+            T value = definitions.get(regex);
+            if (LITERAL.matcher(regex).matches()) {
+                literals.put(regex, value);
+                order.add(regex);
+                continue;
+            }
+            try {
+                patterns.add(Pattern.compile(regex));
+                regexes.add(regex);
+                values.add(value);
+            } catch (PatternSyntaxException e) {
+                LOGGER.warn("Invalid CXF bus regex {}, ignoring it", regex, e);
+            }
+        }
+        order.addAll(regexes);
+        this.order = Collections.unmodifiableList(order);
+        this.groups = new int[patterns.size()];
+        this.combined = combine();
+    }
+
+    private Pattern combine() {
+        if (patterns.size() < 2) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        int group = 1;
+        for (int i = 0; i < patterns.size(); i++) {
+            String regex = regexes.get(i);
+            if (BACK_REFERENCE.matcher(regex).find()) {
+                return null;
+            }
+            if (i > 0) {
+                builder.append('|');
+            }
+            builder.append('(').append(regex).append(')');
+            groups[i] = group;
+            group += 1 + patterns.get(i).matcher("").groupCount();
+        }
+        try {
+            return Pattern.compile(builder.toString());
+        } catch (PatternSyntaxException e) {
+            // duplicated named groups for instance, match the patterns one by one
+            LOGGER.debug("Can't combine the CXF bus regexes, matching them one by one", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the value of the pattern matching a bus ID.
+     *
+     * @param busId the CXF bus ID.
+     * @return the value of the matching pattern with the highest precedence, null if no pattern matches.
+     */
+    @SuppressWarnings("unchecked")
+    public T match(String busId) {
+        Object result = resolved.get(busId);
+        if (result == null) {
+            result = resolve(busId);
+            if (result == null) {
+                result = NONE;
+            }
+            if (resolved.size() < MAX_RESOLVED_BUSES) {
+                resolved.put(busId, result);
+            }
+        }
+        return result == NONE ? null : (T) result;
+    }
+
+    /**
+     * Check if a pattern matches a bus ID.
+     *
+     * @param busId the CXF bus ID.
+     * @return true if a pattern matches the bus ID, false else.
+     */
+    public boolean matches(String busId) {
+        return match(busId) != null;
+    }
+
+    private Object resolve(String busId) {
+        T value = literals.get(busId);
+        if (value != null) {
+            LOGGER.debug("CXF bus {} defined", busId);
+            return value;
+        }
+        if (combined != null) {
+            Matcher matcher = combined.matcher(busId);
+            if (matcher.matches()) {
+                // the alternatives are tried in order, the first matching one is the one with the highest precedence
+                for (int i = 0; i < groups.length; i++) {
+                    if (matcher.start(groups[i]) != -1) {
+                        LOGGER.debug("CXF bus {} matches regex {}", busId, regexes.get(i));
+                        return values.get(i);
+                    }
+                }
+            }
+            return null;
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(busId).matches()) {
+                LOGGER.debug("CXF bus {} matches regex {}", busId, regexes.get(i));
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the bus patterns, in precedence order.
+     *
+     * @return the valid bus patterns.
+     */
+    public List<String> getPatterns() {
+        return order;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.synaltic.cxf.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BusPatternMatcherTest {
+
+    @Test
+    public void testLiteralFirst() {
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("cxf.*", "regex");
+        definitions.put("cxf-bus", "literal");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("literal", matcher.match("cxf-bus"));
+        Assert.assertEquals("regex", matcher.match("cxf-other"));
+        Assert.assertNull(matcher.match("other"));
+        Assert.assertFalse(matcher.matches("other"));
+    }
+
+    @Test
+    public void testLongestRegexFirst() {
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("cxf.*", "short");
+        definitions.put("cxf-admin.*", "long");
+        definitions.put(".*", "any");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("long", matcher.match("cxf-admin-1"));
+        Assert.assertEquals("short", matcher.match("cxf-1"));
+        Assert.assertEquals("any", matcher.match("other"));
+    }
+
+    @Test
+    public void testLexicalOrder() {
+        // same length: the first regex in lexical order, whatever the order of the definitions
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("cxf-b.*", "b");
+        definitions.put("cxf-.b*", "a");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("a", matcher.match("cxf-b"));
+
+        definitions = new LinkedHashMap<String, String>();
+        definitions.put("cxf-.b*", "a");
+        definitions.put("cxf-b.*", "b");
+        matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("a", matcher.match("cxf-b"));
+        Assert.assertEquals(Arrays.asList("cxf-.b*", "cxf-b.*"), matcher.getPatterns());
+    }
+
+    @Test
+    public void testUncombinedRegexes() {
+        // a back reference prevents the regexes to be combined, the precedence is the same
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("(cxf)-\\1.*", "back reference");
+        definitions.put("cxf.*", "short");
+        definitions.put("cxf-cxf-admin.*", "long");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("long", matcher.match("cxf-cxf-admin"));
+        Assert.assertEquals("back reference", matcher.match("cxf-cxf"));
+        Assert.assertEquals("short", matcher.match("cxf-other"));
+    }
+
+    @Test
+    public void testGroups() {
+        // the groups of a regex don't shift the alternatives of the combined regex
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("(a|b)(c|d)-(e)+", "groups");
+        definitions.put("[ab].-x", "class");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("groups", matcher.match("ad-ee"));
+        Assert.assertEquals("class", matcher.match("bz-x"));
+    }
+
+    @Test
+    public void testInvalidRegex() {
+        Map<String, String> definitions = new LinkedHashMap<String, String>();
+        definitions.put("cxf-[", "invalid");
+        definitions.put("cxf.*", "valid");
+        BusPatternMatcher<String> matcher = new BusPatternMatcher<String>(definitions);
+        Assert.assertEquals("valid", matcher.match("cxf-["));
+        Assert.assertEquals(Arrays.asList("cxf.*"), matcher.getPatterns());
+    }
+
+}
@@ -6,6 +6,8 @@ import org.apache.cxf.feature.LoggingFeature;
 import org.apache.cxf.interceptor.Interceptor;
 import org.apache.cxf.interceptor.LoggingInInterceptor;
 import org.apache.cxf.interceptor.LoggingOutInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.Phase;
 import org.osgi.framework.*;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
@@ -13,8 +15,13 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
 
 public class Activator implements BundleActivator {
 
@@ -24,14 +31,26 @@ public class Activator implements BundleActivator {
 
     private ServiceTracker<Bus, ServiceRegistration> cxfBusesTracker;
     private ServiceRegistration managedServiceRegistration;
-    private Dictionary properties;
+    // compiled once per configuration, shared by all the buses
+    private volatile InterceptorsUtil util = new InterceptorsUtil(null);
+    // synchronous, or asynchronous when logging.async.enabled is true
+    private LogSink sink = Slf4jLogSink.INSTANCE;
+    // the sink delegate when logging.journal.enabled is true, SLF4J else
+    private JournalLogSink journal;
+    private final LoggingMetrics metrics = new LoggingMetrics();
+    private ServiceRegistration metricsRegistration;
+    private final ExchangeJournalService journalService = new ExchangeJournalService();
+    private ServiceRegistration journalRegistration;
 
-    private void inject(Bus bus, Dictionary properties) throws Exception {
-        InterceptorsUtil util = new InterceptorsUtil(properties);
+    private synchronized void inject(Bus bus, InterceptorsUtil util) throws Exception {
         String loggerName = util.getLogger(bus.getId());
-        if (loggerName != null) {
-            SynalticLoggingInterceptor inInterceptor = new SynalticLoggingInterceptor(loggerName, "receive");
-            SynalticLoggingInterceptor outInterceptor = new SynalticLoggingInterceptor(loggerName, "pre-stream");
+        if (loggerName != null && find(bus).isEmpty()) {
+            SynalticLoggingInterceptor inInterceptor = new SynalticLoggingInterceptor(loggerName, Phase.RECEIVE);
+            SynalticLoggingInterceptor outInterceptor = new SynalticLoggingInterceptor(loggerName, Phase.PRE_STREAM);
+            for (SynalticLoggingInterceptor interceptor : new SynalticLoggingInterceptor[]{ inInterceptor, outInterceptor }) {
+                interceptor.setConfiguration(loggerName, sink, util);
+                interceptor.setMetrics(metrics);
+            }
             LOGGER.debug("Inject logging interceptors in bus {} (logger {})", bus.getId(), loggerName);
             bus.getInInterceptors().add(inInterceptor);
             bus.getOutInterceptors().add(outInterceptor);
@@ -40,25 +59,72 @@ public class Activator implements BundleActivator {
     }
 
     private void remove(Bus bus) {
-        for (Interceptor interceptor : bus.getInInterceptors()) {
+        LOGGER.debug("Remove logging interceptors from bus {}", bus.getId());
+        remove(bus.getInInterceptors());
+        remove(bus.getOutInterceptors());
+        remove(bus.getOutFaultInterceptors());
+    }
+
+    /**
+     * Remove the logging interceptors, without modifying the list while iterating over it.
+     */
+    private static void remove(List<Interceptor<? extends Message>> interceptors) {
+        List<Interceptor<? extends Message>> matching = new ArrayList<Interceptor<? extends Message>>();
+        for (Interceptor<? extends Message> interceptor : interceptors) {
             if (interceptor instanceof SynalticLoggingInterceptor) {
-                bus.getInInterceptors().remove(interceptor);
+                matching.add(interceptor);
             }
         }
-        for (Interceptor interceptor : bus.getOutInterceptors()) {
+        if (!matching.isEmpty()) {
+            interceptors.removeAll(matching);
+        }
+    }
+
+    /**
+     * Find the logging interceptors injected in a bus.
+     *
+     * @return the interceptors, empty if the bus doesn't have any.
+     */
+    private static Set<SynalticLoggingInterceptor> find(Bus bus) {
+        Set<SynalticLoggingInterceptor> found = new HashSet<SynalticLoggingInterceptor>();
+        find(bus.getInInterceptors(), found);
+        find(bus.getOutInterceptors(), found);
+        find(bus.getOutFaultInterceptors(), found);
+        return found;
+    }
+
+    private static void find(List<Interceptor<? extends Message>> interceptors, Set<SynalticLoggingInterceptor> found) {
+        for (Interceptor<? extends Message> interceptor : interceptors) {
             if (interceptor instanceof SynalticLoggingInterceptor) {
-                bus.getOutInterceptors().remove(interceptor);
+                found.add((SynalticLoggingInterceptor) interceptor);
             }
         }
-        for (Interceptor interceptor : bus.getOutFaultInterceptors()) {
-            if (interceptor instanceof SynalticLoggingInterceptor) {
-                bus.getOutFaultInterceptors().remove(interceptor);
+    }
+
+    /**
+     * Apply a new configuration to a bus: the interceptors already injected swap to the new logger, the interceptors
+     * are only injected or removed when the bus starts or stops being defined in the configuration.
+     */
+    private synchronized void update(Bus bus, InterceptorsUtil util) throws Exception {
+        Set<SynalticLoggingInterceptor> interceptors = find(bus);
+        String loggerName = util.getLogger(bus.getId());
+        if (!interceptors.isEmpty() && loggerName != null) {
+            for (SynalticLoggingInterceptor interceptor : interceptors) {
+                interceptor.setConfiguration(loggerName, sink, util);
             }
+        } else if (!interceptors.isEmpty()) {
+            remove(bus);
+        } else if (loggerName != null) {
+            inject(bus, util);
         }
     }
 
     public void start(final BundleContext bundleContext) throws Exception {
         System.setProperty("org.apache.cxf.Logger", "org.apache.cxf.common.logging.Slf4jLogger");
+        LOGGER.debug("Registering logging metrics");
+        metrics.register();
+        metricsRegistration = bundleContext.registerService(LoggingMetrics.class.getName(), metrics, null);
+        journalRegistration = bundleContext.registerService(ExchangeJournalService.class.getName(), journalService, null);
         LOGGER.debug("Starting CXF buses cxfBusesTracker");
         cxfBusesTracker = new ServiceTracker<Bus, ServiceRegistration>(bundleContext, Bus.class, null) {
 
@@ -66,9 +132,9 @@ public class Activator implements BundleActivator {
                 Bus bus = bundleContext.getService(reference);
 
                 try {
-                    inject(bus, properties);
+                    inject(bus, util);
                 } catch (Exception e) {
-                    LOGGER.error("Can't inject Syncope interceptor", e);
+                    LOGGER.error("Can't inject logging interceptors", e);
                 }
 
                 return null;
@@ -92,6 +158,61 @@ public class Activator implements BundleActivator {
             cxfBusesTracker.close();
         if (managedServiceRegistration != null)
             managedServiceRegistration.unregister();
+        synchronized (this) {
+            // log the entries still buffered
+            sink.close();
+            sink = Slf4jLogSink.INSTANCE;
+            metrics.setBuffer(null);
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+        if (journalRegistration != null)
+            journalRegistration.unregister();
+        if (metricsRegistration != null)
+            metricsRegistration.unregister();
+        metrics.unregister();
+    }
+
+    /**
+     * Open or close the journal, and create the asynchronous sink or come back to the synchronous sink, if the
+     * configuration changed.
+     *
+     * @return the previous sinks to close (in order) once the interceptors use the new one, empty if the sinks
+     * didn't change.
+     */
+    private synchronized List<LogSink> updateSink(InterceptorsUtil util) {
+        LogSink previous = sink;
+        JournalLogSink previousJournal = journal;
+        if (!util.isJournalEnabled()) {
+            journal = null;
+        } else if (journal == null || !journal.matches(util)) {
+            try {
+                journal = new JournalLogSink(util, metrics);
+            } catch (IOException e) {
+                LOGGER.error("Can't open the logging journal in {}, logging with SLF4J", util.getJournalDirectory(), e);
+                journal = null;
+            }
+        }
+        journalService.setJournal(journal);
+        journalService.setFormatter(util.getFormatter());
+        LogSink delegate = journal != null ? journal : Slf4jLogSink.INSTANCE;
+        if (!util.isAsyncEnabled()) {
+            sink = delegate;
+        } else if (!(sink instanceof AsyncLogSink && ((AsyncLogSink) sink).matches(util) && journal == previousJournal)) {
+            sink = new AsyncLogSink(util, delegate, metrics);
+        }
+        metrics.setBuffer(sink instanceof AsyncLogSink ? (AsyncLogSink) sink : null);
+        List<LogSink> closed = new ArrayList<LogSink>();
+        // the asynchronous sink first, its buffered entries go to its delegate
+        if (previous != sink && previous != journal) {
+            closed.add(previous);
+        }
+        if (previousJournal != null && previousJournal != journal) {
+            closed.add(previousJournal);
+        }
+        return closed;
     }
 
     private final class ConfigUpdater implements ManagedService {
@@ -103,20 +224,32 @@ public class Activator implements BundleActivator {
         }
 
         public void updated(Dictionary<String, ?> config) throws ConfigurationException {
-            properties = config;
+            InterceptorsUtil util = new InterceptorsUtil(config);
+            List<LogSink> previousSinks;
+            synchronized (Activator.this) {
+                Activator.this.util = util;
+                previousSinks = updateSink(util);
+            }
             try {
                 ServiceReference[] references = bundleContext.getServiceReferences(Bus.class.getName(), null);
-                for (ServiceReference reference : references) {
-                    Bus bus = (Bus) bundleContext.getService(reference);
-
-                    InterceptorsUtil util = new InterceptorsUtil(properties);
-                    remove(bus);
-                    if (util.getLogger(bus.getId()) != null) {
-                        inject(bus, properties);
+                if (references != null) {
+                    for (ServiceReference reference : references) {
+                        Bus bus = (Bus) bundleContext.getService(reference);
+                        if (bus != null) {
+                            try {
+                                update(bus, util);
+                            } finally {
+                                bundleContext.ungetService(reference);
+                            }
+                        }
                     }
                 }
             } catch (Exception e) {
                 throw new ConfigurationException("", "Can't update configuration", e);
+            } finally {
+                for (LogSink previousSink : previousSinks) {
+                    previousSink.close();
+                }
             }
         }
     }
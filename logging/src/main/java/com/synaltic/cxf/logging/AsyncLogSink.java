@@ -0,0 +1,224 @@
+package com.synaltic.cxf.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous sink: the request threads put the captured entries in a bounded ring buffer (preallocated array of
+ * entries, and a maximum number of payload bytes), a background thread takes them and writes them in the delegate
+ * sink, with the cxf.logging.key MDC of the entry.
+ * <p>
+ * When the buffer is full, the overflow policy applies: block (the request thread waits for room), dropPayload (the
+ * entry is buffered without payload if an entry is free, dropped else) or dropEntry (the entry is dropped).
+ */
+public class AsyncLogSink implements LogSink {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AsyncLogSink.class);
+
+    // maximum time to drain the buffer when the sink is closed
+    private final static long CLOSE_TIMEOUT = 10000;
+
+    public enum Overflow {
+        BLOCK, DROP_PAYLOAD, DROP_ENTRY;
+
+        public static Overflow parse(String value) {
+            if ("dropPayload".equalsIgnoreCase(value)) {
+                return DROP_PAYLOAD;
+            }
+            if ("dropEntry".equalsIgnoreCase(value)) {
+                return DROP_ENTRY;
+            }
+            if (!"block".equalsIgnoreCase(value)) {
+                LOGGER.warn("Invalid logging.async.overflow property value: {}, using block", value);
+            }
+            return BLOCK;
+        }
+    }
+
+    private final LogEntry[] ring;
+    private final long maxBytes;
+    private final Overflow overflow;
+    private final LogSink delegate;
+    private final LoggingMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread consumer;
+    // guarded by lock
+    private int head;
+    private int count;
+    private long bytes;
+    private boolean closed;
+
+    public AsyncLogSink(InterceptorsUtil util, LogSink delegate, LoggingMetrics metrics) {
+        this(util.getAsyncCapacity(), util.getAsyncMaxBytes(), Overflow.parse(util.getAsyncOverflow()), delegate, metrics);
+    }
+
+    public AsyncLogSink(int capacity, long maxBytes, Overflow overflow, LogSink delegate, LoggingMetrics metrics) {
+        this.ring = new LogEntry[Math.max(1, capacity)];
+        this.maxBytes = Math.max(0, maxBytes);
+        this.overflow = overflow;
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.consumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, "cxf-logging-writer");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Check if the sink is configured as defined in the configuration.
+     *
+     * @param util the configuration.
+     * @return true if the capacity, maximum bytes and overflow policy are the configured ones.
+     */
+    public boolean matches(InterceptorsUtil util) {
+        return ring.length == Math.max(1, util.getAsyncCapacity()) && maxBytes == Math.max(0, util.getAsyncMaxBytes())
+                && overflow == Overflow.parse(util.getAsyncOverflow());
+    }
+
+    public void write(LogEntry entry) {
+        long size = entry.getPayloadSize();
+        lock.lock();
+        try {
+            if (closed) {
+                drop();
+                return;
+            }
+            if (count == ring.length || bytes + size > maxBytes) {
+                switch (overflow) {
+                    case DROP_ENTRY:
+                        drop();
+                        return;
+                    case DROP_PAYLOAD:
+                        if (count == ring.length) {
+                            drop();
+                            return;
+                        }
+                        entry.dropPayload();
+                        size = 0;
+                        if (metrics != null) {
+                            metrics.droppedPayload();
+                        }
+                        break;
+                    default:
+                        if (metrics != null) {
+                            metrics.blocked();
+                        }
+                        // an entry bigger than the buffer waits for the buffer to be empty
+                        while (!closed && (count == ring.length || (count > 0 && bytes + size > maxBytes))) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (closed) {
+                            drop();
+                            return;
+                        }
+                }
+            }
+            ring[(head + count) % ring.length] = entry;
+            count++;
+            bytes += size;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drop() {
+        if (metrics != null) {
+            metrics.droppedEntry();
+        }
+    }
+
+    private LogEntry take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            LogEntry entry = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            bytes -= entry.getPayloadSize();
+            notFull.signalAll();
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume() {
+        try {
+            LogEntry entry;
+            while ((entry = take()) != null) {
+                try {
+                    delegate.write(entry);
+                } catch (Throwable t) {
+                    LOGGER.warn("Can't log exchange {}", entry.getId(), t);
+                } finally {
+                    MDC.remove(Slf4jLogSink.MDC_KEY);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Logging writer interrupted");
+        }
+    }
+
+    /**
+     * Stop accepting entries, log the buffered entries (for up to 10 seconds) and stop the background thread.
+     * The delegate sink is not closed, it can be shared with the next sink.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            consumer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumer.isAlive()) {
+            LOGGER.warn("Logging writer still busy after {} ms, {} entries not logged", CLOSE_TIMEOUT, size());
+            consumer.interrupt();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.synaltic.cxf.logging;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Access to the exchanges written in the journal, registered as an OSGi service and used by the logging:exchange
+ * command. The entries are only formatted when they are fetched.
+ */
+public class ExchangeJournalService {
+
+    private volatile JournalLogSink journal;
+    private volatile LogFormatter formatter = LogFormatter.DEFAULT;
+
+    /**
+     * @param journal the journal, null when disabled.
+     */
+    public void setJournal(JournalLogSink journal) {
+        this.journal = journal;
+    }
+
+    public void setFormatter(LogFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    public boolean isEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * Get the entries of an exchange.
+     *
+     * @param id the exchange ID.
+     * @return the entries of the exchange, empty if not found or if the journal is disabled.
+     */
+    public List<LogEntry> find(String id) {
+        JournalLogSink journal = this.journal;
+        return journal != null ? journal.find(id) : Collections.<LogEntry>emptyList();
+    }
+
+    /**
+     * Format the entries of an exchange as they are logged, each entry preceded by its direction and time.
+     *
+     * @param id the exchange ID.
+     * @return the formatted exchange, null if not found or if the journal is disabled.
+     */
+    public String print(String id) {
+        List<LogEntry> entries = find(id);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        LogFormatter formatter = this.formatter;
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder buffer = new StringBuilder();
+        for (LogEntry entry : entries) {
+            buffer.append(entry.isOutbound() ? "Outbound" : "Inbound").append(" message of exchange ").append(id)
+                    .append(", ").append(dateFormat.format(new Date(entry.getTimestamp()))).append('\n');
+            formatter.format(entry, buffer);
+            buffer.append('\n');
+        }
+        return buffer.toString();
+    }
+
+}
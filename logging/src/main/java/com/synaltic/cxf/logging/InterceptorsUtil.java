@@ -1,26 +1,54 @@
 package com.synaltic.cxf.logging;
 
+import com.synaltic.cxf.common.BusPatternMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Utils to get the CXF buses defined in the configuration
+ * Utils to get the CXF buses defined in the configuration.
+ * The bus patterns are compiled once, and the logger of a bus is resolved once per bus ID
+ * (see {@link BusPatternMatcher} for the precedence of the patterns).
+ * The properties starting with {@code logging.} are settings, not bus patterns. The logging policy settings can
+ * be defined per logger, {@code logging.<setting>.<loggerName>} overriding {@code logging.<setting>}.
  */
 public class InterceptorsUtil {
 
+    private final static String SETTINGS_PREFIX = "logging.";
+
     private Dictionary properties;
+    private final BusPatternMatcher<String> loggers;
+    // one policy per logger, shared by the buses using the logger
+    private final ConcurrentMap<String, LoggingPolicy> policies = new ConcurrentHashMap<String, LoggingPolicy>();
+    private volatile LogFormatter formatter;
 
     private final static Logger LOGGER = LoggerFactory.getLogger(InterceptorsUtil.class);
 
     public InterceptorsUtil(Dictionary properties) {
         this.properties = properties;
+        Map<String, String> patterns = new LinkedHashMap<String, String>();
+        if (properties != null) {
+            Enumeration keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                Object logger = properties.get(key);
+                if (logger != null && !key.startsWith(SETTINGS_PREFIX)) {
+                    patterns.put(key, logger.toString());
+                }
+            }
+        }
+        this.loggers = new BusPatternMatcher<String>(patterns);
     }
 
     /**
@@ -34,6 +62,9 @@ public class InterceptorsUtil {
             Enumeration keys = properties.keys();
             while (keys.hasMoreElements()) {
                 String key = (String) keys.nextElement();
+                if (key.startsWith(SETTINGS_PREFIX)) {
+                    continue;
+                }
                 LOGGER.debug("Adding CXF bus {}", key);
                 buses.add(key);
             }
@@ -48,16 +79,258 @@ public class InterceptorsUtil {
      * @return true if the bus is defined in the configuration and logging enabled, false else.
      */
     public String getLogger(String id) throws Exception {
-        List<String> buses = this.getBuses();
-        for (String bus : buses) {
-            Pattern pattern = Pattern.compile(bus);
-            Matcher matcher = pattern.matcher(id);
-            if (matcher.matches()) {
-                String logger = (String) properties.get(bus);
-                return logger;
+        return loggers.match(id);
+    }
+
+    /**
+     * Get the maximum number of payload bytes logged per message. The payload is passed to the service as it's
+     * read, only its first bytes are kept for the log.
+     *
+     * @return the logging.limit property, 49152 by default, -1 for no limit.
+     */
+    public int getLimit() {
+        return (int) getLong("logging.limit", 49152);
+    }
+
+    /**
+     * Get the logging policy of a logger, created once per configuration.
+     *
+     * @param loggerName the logger name.
+     * @return the policy shared by the interceptors of the logger.
+     */
+    public LoggingPolicy getPolicy(String loggerName) {
+        LoggingPolicy policy = policies.get(loggerName);
+        if (policy == null) {
+            LoggingPolicy created = new LoggingPolicy(this, loggerName);
+            policy = policies.putIfAbsent(loggerName, created);
+            if (policy == null) {
+                policy = created;
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * Get the sampling of a logger: 1 in N exchanges is logged.
+     *
+     * @param loggerName the logger name.
+     * @return the logging.sampling property, 1 (all the exchanges) by default.
+     */
+    public int getSampling(String loggerName) {
+        return (int) getLong(getLoggerKey("logging.sampling", loggerName), 1);
+    }
+
+    /**
+     * Get the maximum number of exchanges of a logger logged per second and per endpoint.
+     *
+     * @param loggerName the logger name.
+     * @return the logging.rateLimit property, 0 (no limit) by default.
+     */
+    public long getRateLimit(String loggerName) {
+        return getLong(getLoggerKey("logging.rateLimit", loggerName), 0);
+    }
+
+    /**
+     * Get the maximum number of exchanges of a logger logged at once per endpoint, when the rate is limited.
+     *
+     * @param loggerName the logger name.
+     * @return the logging.rateBurst property, 0 (the rate limit) by default.
+     */
+    public long getRateBurst(String loggerName) {
+        return getLong(getLoggerKey("logging.rateBurst", loggerName), 0);
+    }
+
+    /**
+     * Get the logging mode of a logger.
+     *
+     * @param loggerName the logger name.
+     * @return the logging.mode property: full (default, metadata and payload) or headers (metadata only).
+     */
+    public String getMode(String loggerName) {
+        Object value = properties != null ? properties.get(getLoggerKey("logging.mode", loggerName)) : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : "full";
+    }
+
+    /**
+     * @return the logger specific key if defined, the key else.
+     */
+    private String getLoggerKey(String key, String loggerName) {
+        String loggerKey = key + "." + loggerName;
+        return properties != null && loggerName != null && properties.get(loggerKey) != null ? loggerKey : key;
+    }
+
+    /**
+     * Get the formatter of the logged messages, created once per configuration.
+     *
+     * @return the formatter shared by all the interceptors.
+     */
+    public LogFormatter getFormatter() {
+        if (formatter == null) {
+            formatter = new LogFormatter(this);
+        }
+        return formatter;
+    }
+
+    /**
+     * Get the format of the XML payloads.
+     *
+     * @return the logging.format property: pretty (default, indented) or compact (single line).
+     */
+    public String getFormat() {
+        Object value = properties != null ? properties.get("logging.format") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : "pretty";
+    }
+
+    /**
+     * Get the XML element and attribute names whose content is masked in the logged payloads.
+     *
+     * @return the comma separated names of the logging.mask property, empty by default.
+     */
+    public Set<String> getMasked() {
+        Object value = properties != null ? properties.get("logging.mask") : null;
+        if (value == null) {
+            return Collections.emptySet();
+        }
+        Set<String> masked = new HashSet<String>();
+        for (String name : value.toString().split(",")) {
+            if (!name.trim().isEmpty()) {
+                masked.add(name.trim());
+            }
+        }
+        return masked;
+    }
+
+    /**
+     * Get the names of the headers whose values are masked in the logged messages and in the journal.
+     *
+     * @return the comma separated names of the logging.mask.headers property, {@link LogFormatter#MASKED_HEADERS}
+     * by default, empty if the property is empty.
+     */
+    public Set<String> getMaskedHeaders() {
+        Object value = properties != null ? properties.get("logging.mask.headers") : null;
+        if (value == null) {
+            return LogFormatter.MASKED_HEADERS;
+        }
+        Set<String> masked = new HashSet<String>();
+        for (String name : value.toString().split(",")) {
+            if (!name.trim().isEmpty()) {
+                masked.add(name.trim());
+            }
+        }
+        return masked;
+    }
+
+    /**
+     * Get the maximum number of payload characters logged per message, once formatted.
+     *
+     * @return the logging.maxChars property, -1 (no limit) by default.
+     */
+    public int getMaxChars() {
+        return (int) getLong("logging.maxChars", -1);
+    }
+
+    /**
+     * Check if the exchanges are logged asynchronously: the request thread only captures the entries in a bounded
+     * buffer, a background thread formats and logs them.
+     *
+     * @return true if the logging.async.enabled property is true, false else.
+     */
+    public boolean isAsyncEnabled() {
+        return getBoolean("logging.async.enabled", false);
+    }
+
+    /**
+     * Get the number of entries of the asynchronous logging buffer.
+     *
+     * @return the logging.async.capacity property, 1024 by default.
+     */
+    public int getAsyncCapacity() {
+        return (int) getLong("logging.async.capacity", 1024);
+    }
+
+    /**
+     * Get the maximum number of payload bytes held by the asynchronous logging buffer.
+     *
+     * @return the logging.async.maxBytes property, 33554432 (32 MB) by default.
+     */
+    public long getAsyncMaxBytes() {
+        return getLong("logging.async.maxBytes", 32 * 1024 * 1024);
+    }
+
+    /**
+     * Get the policy applied when the asynchronous logging buffer is full.
+     *
+     * @return the logging.async.overflow property: block (default, the request thread waits), dropPayload (the
+     * entry is logged without payload) or dropEntry (the entry is not logged).
+     */
+    public String getAsyncOverflow() {
+        Object value = properties != null ? properties.get("logging.async.overflow") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : "block";
+    }
+
+    /**
+     * Check if the entries are written in the binary journal instead of being logged with SLF4J.
+     *
+     * @return true if the logging.journal.enabled property is true, false else.
+     */
+    public boolean isJournalEnabled() {
+        return getBoolean("logging.journal.enabled", false);
+    }
+
+    /**
+     * Get the directory of the journal segment files.
+     *
+     * @return the logging.journal.directory property, the cxf-logging folder of the Karaf data (or temporary)
+     * folder by default.
+     */
+    public String getJournalDirectory() {
+        Object value = properties != null ? properties.get("logging.journal.directory") : null;
+        if (value != null && !value.toString().trim().isEmpty()) {
+            return value.toString().trim();
+        }
+        return System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")) + "/cxf-logging";
+    }
+
+    /**
+     * Get the size of the journal segment files, preallocated and memory-mapped.
+     *
+     * @return the logging.journal.segmentSize property, 67108864 (64 MB) by default.
+     */
+    public int getJournalSegmentSize() {
+        return (int) Math.min(Integer.MAX_VALUE, getLong("logging.journal.segmentSize", 64 * 1024 * 1024));
+    }
+
+    /**
+     * Get the number of journal segment files kept, the oldest are deleted.
+     *
+     * @return the logging.journal.segments property, 16 by default.
+     */
+    public int getJournalSegments() {
+        return (int) getLong("logging.journal.segments", 16);
+    }
+
+    protected boolean getBoolean(String key, boolean defaultValue) {
+        if (properties != null) {
+            Object value = properties.get(key);
+            if (value != null) {
+                return Boolean.parseBoolean(value.toString().trim());
+            }
+        }
+        return defaultValue;
+    }
+
+    protected long getLong(String key, long defaultValue) {
+        if (properties != null) {
+            Object value = properties.get(key);
+            if (value != null) {
+                try {
+                    return Long.parseLong(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid {} property value: {}, using {}", key, value, defaultValue);
+                }
             }
         }
-        return null;
+        return defaultValue;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,556 @@
+package com.synaltic.cxf.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal sink: the entries are not formatted, they are written as binary records in memory-mapped, preallocated
+ * segment files (journal-&lt;sequence&gt;.seg in the journal directory). When a segment is full, the journal rolls
+ * to a new one, and the oldest segments are deleted to keep the configured number of segments.
+ * <p>
+ * A record is: the record length (int), the format version (byte), flags (byte: outbound, truncated, payload
+ * dropped, reader payload, response code), the timestamp (long), the exchange ID, address, HTTP method, content
+ * type and encoding (strings), the response code (int), the headers, and the raw payload (int length and bytes).
+ * The strings are written as an int length (-1 for null) and the UTF-8 bytes. A zero length marks the end of the
+ * records of a segment.
+ * <p>
+ * The records are masked before being written, as the formatter of the configuration masks the logged messages:
+ * the values of the masked headers are replaced, and an XML payload with masked elements or attributes is written
+ * masked and compact, as a reader payload (UTF-8). The other payloads are written raw.
+ * <p>
+ * Each segment keeps a sparse in memory index: every 32 records, the offset of the block and the range of its
+ * exchange ID keys (the numeric IDs generated by CXF, a hash for the other IDs). {@link #find(String)} only reads
+ * the blocks whose range contains the searched ID.
+ */
+public class JournalLogSink implements LogSink {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(JournalLogSink.class);
+
+    private final static String PREFIX = "journal-";
+    private final static String SUFFIX = ".seg";
+    private final static byte VERSION = 1;
+    private final static int INDEX_INTERVAL = 32;
+
+    private final static int OUTBOUND = 1;
+    private final static int TRUNCATED = 2;
+    private final static int DROPPED = 4;
+    private final static int READER = 8;
+    private final static int RESPONSE_CODE = 16;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final LoggingMetrics metrics;
+    private final LogFormatter masking;
+    // guarded by this
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private Segment active;
+    private boolean closed;
+
+    public JournalLogSink(InterceptorsUtil util, LoggingMetrics metrics) throws IOException {
+        this(new File(util.getJournalDirectory()), util.getJournalSegmentSize(), util.getJournalSegments(),
+                util.getFormatter(), metrics);
+    }
+
+    /**
+     * Open the journal, the existing segments of the directory are indexed and the journal goes on in the last one.
+     *
+     * @param directory the directory of the segment files, created if needed.
+     * @param segmentSize the size of the segment files.
+     * @param maxSegments the number of segment files kept.
+     * @param masking the formatter whose masked headers and XML names are masked in the records.
+     * @param metrics the metrics the entries not written are counted in (can be null).
+     */
+    public JournalLogSink(File directory, int segmentSize, int maxSegments, LogFormatter masking,
+                          LoggingMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.segmentSize = Math.max(64 * 1024, segmentSize);
+        this.maxSegments = Math.max(1, maxSegments);
+        this.masking = masking;
+        this.metrics = metrics;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create the journal directory " + directory);
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        // the sequence is zero padded, the names sort as the sequences
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                segments.add(Segment.open(file));
+            } catch (IOException e) {
+                LOGGER.warn("Can't read journal segment {}, ignoring it", file, e);
+            }
+        }
+        if (!segments.isEmpty() && segments.getLast().size == this.segmentSize) {
+            active = segments.getLast();
+            active.map();
+        } else {
+            roll();
+        }
+    }
+
+    /**
+     * Check if the journal is configured as defined in the configuration.
+     *
+     * @return true if the directory, segment size, number of segments and masked names are the configured ones.
+     */
+    public boolean matches(InterceptorsUtil util) {
+        return directory.equals(new File(util.getJournalDirectory()))
+                && segmentSize == Math.max(64 * 1024, util.getJournalSegmentSize())
+                && maxSegments == Math.max(1, util.getJournalSegments())
+                && masking.masks(util.getFormatter());
+    }
+
+    public synchronized void write(LogEntry entry) {
+        if (closed) {
+            drop(entry, null);
+            return;
+        }
+        try {
+            byte[] payload;
+            int length;
+            int flags = entry.isOutbound() ? OUTBOUND : 0;
+            if (entry.getReaderPayload() != null) {
+                payload = entry.getReaderPayload().getBytes("UTF-8");
+                length = payload.length;
+                flags |= READER;
+                String masked = masking.maskPayload(payload, length, "UTF-8", entry.getContentType());
+                if (masked != null) {
+                    payload = masked.getBytes("UTF-8");
+                    length = payload.length;
+                }
+            } else {
+                payload = entry.getPayload();
+                length = entry.getPayloadLength();
+                String masked = payload != null
+                        ? masking.maskPayload(payload, length, entry.getEncoding(), entry.getContentType()) : null;
+                if (masked != null) {
+                    payload = masked.getBytes("UTF-8");
+                    length = payload.length;
+                    flags |= READER;
+                }
+            }
+            if (entry.isTruncated()) {
+                flags |= TRUNCATED;
+            }
+            if (entry.isPayloadDropped()) {
+                flags |= DROPPED;
+            }
+            if (entry.getResponseCode() != null) {
+                flags |= RESPONSE_CODE;
+            }
+            writeHeader(entry, flags);
+            // the payload is cut to fit in an empty segment
+            int available = segmentSize - 4 - record.size() - 4;
+            if (available < 0) {
+                throw new IOException("Headers bigger than a journal segment");
+            }
+            if (length > available) {
+                length = available;
+                // the flags byte follows the version
+                record.buffer()[1] |= TRUNCATED;
+            }
+            int size = 4 + record.size() + 4 + length;
+            if (active.buffer == null || active.size - active.position < size) {
+                roll();
+            }
+            MappedByteBuffer buffer = active.buffer;
+            buffer.position(active.position);
+            buffer.putInt(size - 4);
+            buffer.put(record.buffer(), 0, record.size());
+            buffer.putInt(length);
+            if (length > 0) {
+                buffer.put(payload, 0, length);
+            }
+            active.index(key(entry.getId()), active.position);
+            active.position += size;
+        } catch (Exception e) {
+            drop(entry, e);
+        }
+    }
+
+    private void drop(LogEntry entry, Exception e) {
+        if (e != null) {
+            LOGGER.warn("Can't write exchange {} in the journal", entry.getId(), e);
+        }
+        if (metrics != null) {
+            metrics.droppedEntry();
+        }
+    }
+
+    private void writeHeader(LogEntry entry, int flags) throws IOException {
+        record.reset();
+        recordOut.writeByte(VERSION);
+        recordOut.writeByte(flags);
+        recordOut.writeLong(entry.getTimestamp());
+        writeString(entry.getId());
+        writeString(entry.getAddress());
+        writeString(entry.getHttpMethod());
+        writeString(entry.getContentType());
+        writeString(entry.getEncoding());
+        recordOut.writeInt(entry.getResponseCode() != null ? entry.getResponseCode() : 0);
+        Map<String, List<String>> headers = masking.maskHeaders(entry.getHeaders());
+        recordOut.writeInt(headers != null ? headers.size() : -1);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                writeString(header.getKey());
+                List<String> values = header.getValue();
+                recordOut.writeInt(values != null ? values.size() : -1);
+                if (values != null) {
+                    for (String value : values) {
+                        writeString(value);
+                    }
+                }
+            }
+        }
+        recordOut.flush();
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            recordOut.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            recordOut.writeInt(bytes.length);
+            recordOut.write(bytes);
+        }
+    }
+
+    /**
+     * Seal the active segment, and start a new segment, deleting the oldest ones.
+     */
+    private void roll() throws IOException {
+        long sequence = 0;
+        if (active != null) {
+            active.seal();
+        }
+        if (!segments.isEmpty()) {
+            sequence = segments.getLast().sequence + 1;
+        }
+        active = Segment.create(new File(directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX)), sequence, segmentSize);
+        segments.add(active);
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.removeFirst();
+            if (!oldest.file.delete()) {
+                LOGGER.warn("Can't delete journal segment {}", oldest.file);
+            }
+        }
+    }
+
+    /**
+     * Find the entries of an exchange.
+     *
+     * @param id the exchange ID (the {@code LoggingMessage.ID_KEY} of the messages).
+     * @return the entries of the exchange, in the order they have been written, empty if not found.
+     */
+    public List<LogEntry> find(String id) {
+        long key = key(id);
+        Map<File, List<int[]>> candidates = new LinkedHashMap<File, List<int[]>>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                List<int[]> blocks = segment.blocks(key);
+                if (!blocks.isEmpty()) {
+                    candidates.put(segment.file, blocks);
+                }
+            }
+        }
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (Map.Entry<File, List<int[]>> candidate : candidates.entrySet()) {
+            try {
+                RandomAccessFile file = new RandomAccessFile(candidate.getKey(), "r");
+                try {
+                    for (int[] block : candidate.getValue()) {
+                        byte[] bytes = new byte[block[1] - block[0]];
+                        file.seek(block[0]);
+                        file.readFully(bytes);
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                        while (buffer.remaining() > 4) {
+                            int length = buffer.getInt();
+                            int start = buffer.position();
+                            if (id.equals(readId(buffer))) {
+                                buffer.position(start);
+                                entries.add(read(buffer));
+                            }
+                            buffer.position(start + length);
+                        }
+                    }
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                // the segment has been deleted since
+                LOGGER.debug("Can't read journal segment {}", candidate.getKey(), e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Read the exchange ID of a record, the buffer being positioned at the record start (after the length).
+     */
+    private static String readId(ByteBuffer buffer) throws IOException {
+        if (buffer.get() != VERSION) {
+            throw new IOException("Invalid journal record");
+        }
+        // flags and timestamp
+        buffer.position(buffer.position() + 9);
+        return readString(buffer);
+    }
+
+    /**
+     * Read a record, the buffer being positioned at the record start (after the length).
+     */
+    private static LogEntry read(ByteBuffer buffer) throws IOException {
+        buffer.get();
+        int flags = buffer.get();
+        long timestamp = buffer.getLong();
+        LogEntry entry = new LogEntry(readString(buffer), null);
+        entry.setTimestamp(timestamp);
+        entry.setOutbound((flags & OUTBOUND) != 0);
+        entry.setAddress(readString(buffer));
+        entry.setHttpMethod(readString(buffer));
+        entry.setContentType(readString(buffer));
+        entry.setEncoding(readString(buffer));
+        int responseCode = buffer.getInt();
+        if ((flags & RESPONSE_CODE) != 0) {
+            entry.setResponseCode(responseCode);
+        }
+        int headerCount = buffer.getInt();
+        if (headerCount >= 0) {
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            for (int i = 0; i < headerCount; i++) {
+                String name = readString(buffer);
+                int valueCount = buffer.getInt();
+                List<String> values = null;
+                if (valueCount >= 0) {
+                    values = new ArrayList<String>(valueCount);
+                    for (int j = 0; j < valueCount; j++) {
+                        values.add(readString(buffer));
+                    }
+                }
+                headers.put(name, values);
+            }
+            entry.setHeaders(headers);
+        }
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        if ((flags & DROPPED) != 0) {
+            entry.dropPayload();
+        } else if ((flags & READER) != 0) {
+            entry.setReaderPayload(new String(payload, "UTF-8"));
+        } else {
+            entry.setPayload(payload, payload.length);
+        }
+        entry.setTruncated((flags & TRUNCATED) != 0);
+        return entry;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * @return the index key of an exchange ID: the ID itself if numeric, its hash else.
+     */
+    static long key(String id) {
+        if (id == null) {
+            return 0;
+        }
+        int length = id.length();
+        if (length == 0 || length > 18) {
+            return id.hashCode();
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return id.hashCode();
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Flush the active segment and release the journal. The entries written after are dropped.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (active != null) {
+            active.seal();
+        }
+    }
+
+    /**
+     * Segment file: its records and their sparse index.
+     */
+    private final static class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final int size;
+        // the mapped file, while the segment is active
+        private MappedByteBuffer buffer;
+        // end of the records
+        private int position;
+        // sparse index: offset, min key and max key of each block of INDEX_INTERVAL records
+        private int[] offsets = new int[64];
+        private long[] minKeys = new long[64];
+        private long[] maxKeys = new long[64];
+        private int blocks;
+        private int records;
+
+        private Segment(File file, long sequence, int size) {
+            this.file = file;
+            this.sequence = sequence;
+            this.size = size;
+        }
+
+        /**
+         * Create and preallocate a segment file.
+         */
+        private static Segment create(File file, long sequence, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+            } finally {
+                raf.close();
+            }
+            Segment segment = new Segment(file, sequence, size);
+            segment.map();
+            return segment;
+        }
+
+        /**
+         * Index the records of an existing segment file.
+         */
+        private static Segment open(File file) throws IOException {
+            String name = file.getName();
+            long sequence = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                Segment segment = new Segment(file, sequence, (int) Math.min(Integer.MAX_VALUE, channel.size()));
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+                while (segment.size - segment.position > 4) {
+                    int length = buffer.getInt(segment.position);
+                    if (length <= 0 || length > segment.size - segment.position - 4) {
+                        break;
+                    }
+                    buffer.position(segment.position + 4);
+                    String id;
+                    try {
+                        id = readId(buffer);
+                    } catch (Exception e) {
+                        LOGGER.warn("Invalid record in journal segment {} at {}, ignoring the following records", file, segment.position);
+                        break;
+                    }
+                    segment.index(key(id), segment.position);
+                    segment.position += 4 + length;
+                }
+                return segment;
+            } finally {
+                raf.close();
+            }
+        }
+
+        private void map() throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid once the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Flush the segment and stop writing in it.
+         */
+        private void seal() {
+            if (buffer != null) {
+                buffer.force();
+                buffer = null;
+            }
+        }
+
+        private void index(long key, int offset) {
+            if (records % INDEX_INTERVAL == 0) {
+                if (blocks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                    minKeys = Arrays.copyOf(minKeys, blocks * 2);
+                    maxKeys = Arrays.copyOf(maxKeys, blocks * 2);
+                }
+                offsets[blocks] = offset;
+                minKeys[blocks] = key;
+                maxKeys[blocks] = key;
+                blocks++;
+            } else {
+                minKeys[blocks - 1] = Math.min(minKeys[blocks - 1], key);
+                maxKeys[blocks - 1] = Math.max(maxKeys[blocks - 1], key);
+            }
+            records++;
+        }
+
+        /**
+         * @return the start and end offsets of the blocks which may contain the key.
+         */
+        private List<int[]> blocks(long key) {
+            List<int[]> found = new ArrayList<int[]>();
+            for (int i = 0; i < blocks; i++) {
+                if (minKeys[i] <= key && key <= maxKeys[i]) {
+                    found.add(new int[]{ offsets[i], i + 1 < blocks ? offsets[i + 1] : position });
+                }
+            }
+            return found;
+        }
+
+    }
+
+    /**
+     * Reusable record buffer, giving access to its bytes without copy.
+     */
+    private final static class RecordBuffer extends ByteArrayOutputStream {
+
+        private RecordBuffer() {
+            super(1024);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+    }
+
+}
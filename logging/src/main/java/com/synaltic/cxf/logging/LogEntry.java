@@ -0,0 +1,209 @@
+package com.synaltic.cxf.logging;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exchange message captured by the logging interceptor: the metadata and the raw payload, not formatted.
+ * The entry is formatted (with its {@link LogFormatter}) by the sink, possibly on another thread.
+ */
+public class LogEntry {
+
+    private final String id;
+    private final Logger logger;
+    private LogFormatter formatter = LogFormatter.DEFAULT;
+    private long timestamp = System.currentTimeMillis();
+    private boolean outbound;
+    private Integer responseCode;
+    private String encoding;
+    private String httpMethod;
+    private String contentType;
+    private Map<String, List<String>> headers;
+    private String address;
+    private byte[] payload;
+    private int payloadLength;
+    private String readerPayload;
+    private String tempFile;
+    private boolean truncated;
+    private boolean payloadDropped;
+
+    public LogEntry(String id, Logger logger) {
+        this.id = id;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the exchange ID, logged in the cxf.logging.key MDC.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public LogFormatter getFormatter() {
+        return formatter;
+    }
+
+    public void setFormatter(LogFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * @return the capture time, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return true if the message is outbound (server response or client request), false if inbound.
+     */
+    public boolean isOutbound() {
+        return outbound;
+    }
+
+    public void setOutbound(boolean outbound) {
+        this.outbound = outbound;
+    }
+
+    public Integer getResponseCode() {
+        return responseCode;
+    }
+
+    public void setResponseCode(Integer responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public void setHttpMethod(String httpMethod) {
+        this.httpMethod = httpMethod;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Copy the protocol headers, the message headers can be modified after the capture.
+     *
+     * @param headers the message protocol headers (can be null).
+     */
+    public void setHeaders(Map<String, List<String>> headers) {
+        if (headers == null) {
+            this.headers = null;
+            return;
+        }
+        Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>(headers.size() * 2);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            copy.put(header.getKey(), header.getValue() != null ? new ArrayList<String>(header.getValue()) : null);
+        }
+        this.headers = copy;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    /**
+     * @return the raw payload bytes, valid up to {@link #getPayloadLength()}, null if the message has no (stream)
+     * payload.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    public void setPayload(byte[] payload, int length) {
+        this.payload = payload;
+        this.payloadLength = length;
+    }
+
+    /**
+     * @return the payload read from the message Reader, null if the message has no Reader payload.
+     */
+    public String getReaderPayload() {
+        return readerPayload;
+    }
+
+    public void setReaderPayload(String readerPayload) {
+        this.readerPayload = readerPayload;
+    }
+
+    public String getTempFile() {
+        return tempFile;
+    }
+
+    public void setTempFile(String tempFile) {
+        this.tempFile = tempFile;
+    }
+
+    /**
+     * @return true if the payload is longer than the captured bytes.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return the number of payload bytes held by the entry.
+     */
+    public long getPayloadSize() {
+        return payloadLength + (readerPayload != null ? 2L * readerPayload.length() : 0);
+    }
+
+    /**
+     * Drop the payload, only the metadata is logged.
+     */
+    public void dropPayload() {
+        payload = null;
+        payloadLength = 0;
+        readerPayload = null;
+        payloadDropped = true;
+    }
+
+    public boolean isPayloadDropped() {
+        return payloadDropped;
+    }
+
+}
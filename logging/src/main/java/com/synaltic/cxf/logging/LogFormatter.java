@@ -0,0 +1,202 @@
+package com.synaltic.cxf.logging;
+
+import org.apache.cxf.common.util.StringUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Format a captured {@link LogEntry} as the logged message: the metadata, then the payload. An XML payload is
+ * written by the {@link XmlLogWriter} of the thread, pretty printed or compact, with the configured element and
+ * attribute names masked, and the payload is cut at the configured number of characters. The values of the
+ * configured headers are masked too.
+ * The message is built in a buffer reused by the formatting thread.
+ */
+public final class LogFormatter {
+
+    /**
+     * Pretty print, no masking, no character budget.
+     */
+    public final static LogFormatter DEFAULT = new LogFormatter(true, Collections.<String>emptySet(), -1);
+
+    /**
+     * The headers masked by default, carrying credentials.
+     */
+    public final static Set<String> MASKED_HEADERS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("Authorization", "Proxy-Authorization", "Cookie", "Set-Cookie")));
+
+    // buffers bigger than that are not kept by the thread
+    private final static int MAX_RETAINED = 256 * 1024;
+
+    private final static ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private final boolean pretty;
+    private final Set<String> masked;
+    private final Set<String> maskedHeaders;
+    private final int maxChars;
+
+    public LogFormatter(InterceptorsUtil util) {
+        this(!"compact".equalsIgnoreCase(util.getFormat()), util.getMasked(), util.getMaskedHeaders(),
+                util.getMaxChars());
+    }
+
+    /**
+     * @param pretty true to indent the XML payloads, false to write them on a single line.
+     * @param masked the names of the masked XML elements and attributes (case insensitive).
+     * @param maxChars the maximum number of payload characters logged, -1 for no limit.
+     */
+    public LogFormatter(boolean pretty, Set<String> masked, int maxChars) {
+        this(pretty, masked, Collections.<String>emptySet(), maxChars);
+    }
+
+    /**
+     * @param pretty true to indent the XML payloads, false to write them on a single line.
+     * @param masked the names of the masked XML elements and attributes (case insensitive).
+     * @param maskedHeaders the names of the masked headers (case insensitive).
+     * @param maxChars the maximum number of payload characters logged, -1 for no limit.
+     */
+    public LogFormatter(boolean pretty, Set<String> masked, Set<String> maskedHeaders, int maxChars) {
+        this.pretty = pretty;
+        this.masked = lowerCase(masked);
+        this.maskedHeaders = lowerCase(maskedHeaders);
+        this.maxChars = maxChars;
+    }
+
+    private static Set<String> lowerCase(Set<String> names) {
+        Set<String> lowerCase = new HashSet<String>();
+        for (String name : names) {
+            lowerCase.add(name.toLowerCase(Locale.ENGLISH));
+        }
+        return Collections.unmodifiableSet(lowerCase);
+    }
+
+    /**
+     * Check if the formatter masks the same names as another one.
+     */
+    boolean masks(LogFormatter other) {
+        return masked.equals(other.masked) && maskedHeaders.equals(other.maskedHeaders);
+    }
+
+    public String format(LogEntry entry) {
+        StringBuilder buffer = BUFFERS.get();
+        buffer.setLength(0);
+        format(entry, buffer);
+        String message = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED) {
+            BUFFERS.remove();
+        }
+        return message;
+    }
+
+    public void format(LogEntry entry, StringBuilder buffer) {
+        buffer.append("------------------------------------------\n");
+        if (entry.getResponseCode() != null) {
+            buffer.append("ResponseCode: ").append(entry.getResponseCode()).append("\n");
+        }
+        if (entry.getEncoding() != null) {
+            buffer.append("Encoding: ").append(entry.getEncoding()).append("\n");
+        }
+        if (entry.getHttpMethod() != null) {
+            buffer.append("HTTP Method: ").append(entry.getHttpMethod()).append("\n");
+        }
+        if (entry.getContentType() != null) {
+            buffer.append("Content Type: ").append(entry.getContentType()).append("\n");
+        }
+        if (entry.getHeaders() != null) {
+            buffer.append("Headers: ").append(maskHeaders(entry.getHeaders())).append("\n");
+        }
+        if (entry.getAddress() != null) {
+            buffer.append("Address: ").append(entry.getAddress()).append("\n");
+        }
+        if (entry.isPayloadDropped()) {
+            buffer.append("\nMessage (dropped, the logging buffer is full)\n");
+            return;
+        }
+        if (entry.getTempFile() != null) {
+            buffer.append("\nMessage (saved to tmp file):\n");
+            buffer.append("Filename: ").append(entry.getTempFile()).append("\n");
+        }
+        boolean cut = false;
+        if (entry.getPayload() != null) {
+            cut = writePayload(buffer, entry.getPayload(), entry.getPayloadLength(), entry.getEncoding(), entry.getContentType());
+        } else if (entry.getReaderPayload() != null) {
+            String payload = entry.getReaderPayload();
+            cut = maxChars >= 0 && payload.length() > maxChars;
+            buffer.append(payload, 0, cut ? maxChars : payload.length());
+        }
+        if (cut) {
+            buffer.append("\n(message truncated to ").append(maxChars).append(" characters)\n");
+        } else if (entry.isTruncated()) {
+            buffer.append("\n(message truncated to ").append(entry.getPayloadLength()).append(" bytes)\n");
+        }
+    }
+
+    /**
+     * @return the headers, the values of the masked headers being replaced, the same map if none is masked.
+     */
+    Map<String, List<String>> maskHeaders(Map<String, List<String>> headers) {
+        if (maskedHeaders.isEmpty() || headers == null) {
+            return headers;
+        }
+        Map<String, List<String>> copy = null;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null && header.getValue() != null
+                    && maskedHeaders.contains(header.getKey().toLowerCase(Locale.ENGLISH))) {
+                if (copy == null) {
+                    copy = new LinkedHashMap<String, List<String>>(headers);
+                }
+                copy.put(header.getKey(), Collections.nCopies(header.getValue().size(), XmlLogWriter.MASK));
+            }
+        }
+        return copy != null ? copy : headers;
+    }
+
+    /**
+     * Mask an XML payload, written compact.
+     *
+     * @return the masked payload, null if the payload is not XML or no name is masked.
+     */
+    String maskPayload(byte[] payload, int length, String encoding, String contentType) {
+        if (masked.isEmpty() || !isXml(contentType, length)) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        XmlLogWriter.get().write(builder, payload, length, encoding, false, masked, -1);
+        return builder.toString();
+    }
+
+    private static boolean isXml(String contentType, int length) {
+        return contentType != null && contentType.indexOf("xml") >= 0 && contentType.toLowerCase().indexOf("multipart/related") < 0 && length > 0;
+    }
+
+    /**
+     * @return true if the payload has been cut at the character budget.
+     */
+    boolean writePayload(StringBuilder builder, byte[] payload, int length, String encoding, String contentType) {
+        if (isXml(contentType, length)) {
+            return XmlLogWriter.get().write(builder, payload, length, encoding, pretty, masked, maxChars);
+        }
+        String decoded;
+        try {
+            decoded = new String(payload, 0, length, StringUtils.isEmpty(encoding) ? "UTF-8" : encoding);
+        } catch (UnsupportedEncodingException e) {
+            decoded = new String(payload, 0, length);
+        }
+        boolean cut = maxChars >= 0 && decoded.length() > maxChars;
+        builder.append(decoded, 0, cut ? maxChars : decoded.length());
+        return cut;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.synaltic.cxf.logging;
+
+/**
+ * Destination of the entries captured by the logging interceptors.
+ */
+public interface LogSink {
+
+    /**
+     * Write an entry. The sink owns the entry once written.
+     *
+     * @param entry the captured entry.
+     */
+    void write(LogEntry entry);
+
+    /**
+     * Release the sink resources, after writing the pending entries.
+     */
+    void close();
+
+}
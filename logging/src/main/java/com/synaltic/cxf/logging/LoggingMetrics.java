@@ -0,0 +1,126 @@
+package com.synaltic.cxf.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the logging bundle: the entries written, the exchanges skipped by the sampling or rate limit, and the
+ * entries and payloads dropped or the request threads blocked because the asynchronous logging buffer is full.
+ * The metrics are exposed as a JMX MBean and as an OSGi service.
+ */
+public class LoggingMetrics implements LoggingMetricsMBean {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LoggingMetrics.class);
+
+    private final static String OBJECT_NAME = "com.synaltic.cxf.logging:type=Metrics";
+
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong droppedEntries = new AtomicLong();
+    private final AtomicLong droppedPayloads = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile AsyncLogSink buffer;
+    private MBeanServer mbeanServer;
+
+    public void entry() {
+        entries.incrementAndGet();
+    }
+
+    public void droppedEntry() {
+        droppedEntries.incrementAndGet();
+    }
+
+    public void droppedPayload() {
+        droppedPayloads.incrementAndGet();
+    }
+
+    public void blocked() {
+        blocked.incrementAndGet();
+    }
+
+    public void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * @param buffer the asynchronous sink the buffer gauges are read from, null in synchronous mode.
+     */
+    public void setBuffer(AsyncLogSink buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Register the MBean in the platform MBean server.
+     */
+    public synchronized void register() {
+        try {
+            mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Can't register MBean {}", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Unregister the MBean from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Can't unregister MBean {}", OBJECT_NAME, e);
+        }
+        mbeanServer = null;
+    }
+
+    public long getEntries() {
+        return entries.get();
+    }
+
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    public long getDroppedPayloads() {
+        return droppedPayloads.get();
+    }
+
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public int getBufferedEntries() {
+        AsyncLogSink buffer = this.buffer;
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    public long getBufferedBytes() {
+        AsyncLogSink buffer = this.buffer;
+        return buffer != null ? buffer.bytes() : 0;
+    }
+
+    public int getBufferCapacity() {
+        AsyncLogSink buffer = this.buffer;
+        return buffer != null ? buffer.capacity() : 0;
+    }
+
+}
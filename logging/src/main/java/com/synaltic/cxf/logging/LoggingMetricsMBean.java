@@ -0,0 +1,24 @@
+package com.synaltic.cxf.logging;
+
+/**
+ * JMX view of the logging metrics.
+ */
+public interface LoggingMetricsMBean {
+
+    long getEntries();
+
+    long getDroppedEntries();
+
+    long getDroppedPayloads();
+
+    long getBlocked();
+
+    long getSkipped();
+
+    int getBufferedEntries();
+
+    long getBufferedBytes();
+
+    int getBufferCapacity();
+
+}
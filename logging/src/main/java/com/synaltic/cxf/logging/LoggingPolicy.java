@@ -0,0 +1,143 @@
+package com.synaltic.cxf.logging;
+
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decide which exchanges of a logger are logged, and how: 1 in N exchanges are sampled, the sampled exchanges are
+ * limited per endpoint by a token bucket (rate exchanges per second, up to burst exchanges at once), and the logged
+ * exchanges are logged in full or headers only.
+ * The policy is shared by all the interceptors of a logger (see {@link InterceptorsUtil#getPolicy(String)}), the
+ * decision is taken once per exchange.
+ */
+public class LoggingPolicy {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LoggingPolicy.class);
+
+    public enum Mode {
+        FULL, HEADERS;
+
+        public static Mode parse(String value) {
+            if ("headers".equalsIgnoreCase(value)) {
+                return HEADERS;
+            }
+            if (!"full".equalsIgnoreCase(value)) {
+                LOGGER.warn("Invalid logging.mode property value: {}, using full", value);
+            }
+            return FULL;
+        }
+    }
+
+    /**
+     * Logging of an exchange, stored in the exchange.
+     */
+    enum Decision {
+        FULL, HEADERS, SKIP
+    }
+
+    /**
+     * Log all the exchanges in full.
+     */
+    public final static LoggingPolicy ALL = new LoggingPolicy(1, 0, 0, Mode.FULL);
+
+    // a generator per thread, a shared one being contended by the concurrent requests
+    private final static ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final int sampling;
+    private final double rate;
+    private final double burst;
+    private final Mode mode;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    public LoggingPolicy(InterceptorsUtil util, String loggerName) {
+        this(util.getSampling(loggerName), util.getRateLimit(loggerName), util.getRateBurst(loggerName),
+                Mode.parse(util.getMode(loggerName)));
+    }
+
+    /**
+     * @param sampling log 1 in sampling exchanges, all the exchanges if 1 or less.
+     * @param rate maximum number of exchanges logged per second and per endpoint, no limit if 0 or less.
+     * @param burst maximum number of exchanges logged at once per endpoint, rate if 0 or less.
+     * @param mode log the exchanges in full or headers only.
+     */
+    public LoggingPolicy(int sampling, double rate, double burst, Mode mode) {
+        this.sampling = Math.max(1, sampling);
+        this.rate = Math.max(0, rate);
+        this.burst = burst > 0 ? burst : Math.max(1, this.rate);
+        this.mode = mode;
+    }
+
+    /**
+     * Decide if the exchange of a message is logged, and how.
+     */
+    Decision decide(Message message) {
+        if (sampling > 1 && RANDOM.get().nextInt(sampling) != 0) {
+            return Decision.SKIP;
+        }
+        if (rate > 0 && !bucket(endpoint(message)).take()) {
+            return Decision.SKIP;
+        }
+        return mode == Mode.HEADERS ? Decision.HEADERS : Decision.FULL;
+    }
+
+    private TokenBucket bucket(String endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket(rate, burst);
+            bucket = buckets.putIfAbsent(endpoint, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private static String endpoint(Message message) {
+        Endpoint endpoint = message.getExchange().getEndpoint();
+        if (endpoint != null && endpoint.getEndpointInfo() != null && endpoint.getEndpointInfo().getAddress() != null) {
+            return endpoint.getEndpointInfo().getAddress();
+        }
+        Object address = message.get(Message.ENDPOINT_ADDRESS);
+        return address != null ? address.toString() : "";
+    }
+
+    private final static class TokenBucket {
+
+        private final double rate;
+        private final double capacity;
+        // guarded by this
+        private double tokens;
+        private long last;
+
+        private TokenBucket(double rate, double capacity) {
+            this.rate = rate;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.last = System.nanoTime();
+        }
+
+        private synchronized boolean take() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - last) * rate / 1e9);
+            last = now;
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+}
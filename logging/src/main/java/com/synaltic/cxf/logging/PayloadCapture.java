@@ -0,0 +1,71 @@
+package com.synaltic.cxf.logging;
+
+import java.util.Arrays;
+
+/**
+ * Bounded copy of the first bytes of a payload stream, shared by the inbound ({@link TeeInputStream}) and
+ * outbound ({@link TeeOutputStream}) captures. The buffer grows with the captured bytes, up to the limit.
+ */
+class PayloadCapture {
+
+    private final static int INITIAL_CAPACITY = 4096;
+
+    private final int limit;
+    private byte[] captured;
+    private int count;
+    private long total;
+
+    /**
+     * @param limit the maximum number of bytes captured, -1 for no limit.
+     */
+    PayloadCapture(int limit) {
+        this.limit = limit < 0 ? Integer.MAX_VALUE : limit;
+        this.captured = new byte[Math.min(this.limit, INITIAL_CAPACITY)];
+    }
+
+    void capture(int b) {
+        total++;
+        if (count < limit) {
+            ensureCapacity(count + 1);
+            captured[count++] = (byte) b;
+        }
+    }
+
+    void capture(byte[] buffer, int offset, int n) {
+        total += n;
+        int length = Math.min(n, limit - count);
+        if (length > 0) {
+            ensureCapacity(count + length);
+            System.arraycopy(buffer, offset, captured, count, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Count bytes passed through without capturing them.
+     */
+    void skipped(long n) {
+        total += n;
+    }
+
+    boolean isFull() {
+        return count >= limit;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > captured.length) {
+            int grown = (int) Math.min(limit, Math.max(capacity, 2L * captured.length));
+            captured = Arrays.copyOf(captured, grown);
+        }
+    }
+
+    /**
+     * Set the captured bytes as the entry payload.
+     */
+    void complete(LogEntry entry) {
+        entry.setPayload(captured, count);
+        entry.setTruncated(total > count);
+        captured = null;
+    }
+
+}
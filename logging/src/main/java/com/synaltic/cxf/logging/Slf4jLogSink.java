@@ -0,0 +1,28 @@
+package com.synaltic.cxf.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+
+/**
+ * Format the entries and log them with the entry SLF4J logger, on the calling thread.
+ * The exchange ID is put in the cxf.logging.key MDC.
+ */
+public class Slf4jLogSink implements LogSink {
+
+    public final static String MDC_KEY = "cxf.logging.key";
+
+    public final static Slf4jLogSink INSTANCE = new Slf4jLogSink();
+
+    public void write(LogEntry entry) {
+        Logger logger = entry.getLogger();
+        MDC.put(MDC_KEY, entry.getId());
+        if (logger.isInfoEnabled()) {
+            logger.info(entry.getFormatter().format(entry));
+        }
+    }
+
+    public void close() {
+        // nothing to release
+    }
+
+}
@@ -1,191 +1,292 @@
 package com.synaltic.cxf.logging;
 
-import org.apache.cxf.common.util.StringUtils;
+import com.synaltic.cxf.common.AbortedExchange;
 import org.apache.cxf.helpers.IOUtils;
 import org.apache.cxf.interceptor.Fault;
 import org.apache.cxf.interceptor.LoggingMessage;
-import org.apache.cxf.io.CachedOutputStream;
+import org.apache.cxf.interceptor.StaxOutInterceptor;
 import org.apache.cxf.io.CachedWriter;
 import org.apache.cxf.io.DelegatingInputStream;
+import org.apache.cxf.message.Exchange;
 import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageUtils;
 import org.apache.cxf.phase.AbstractPhaseInterceptor;
-import org.apache.cxf.staxutils.PrettyPrintXMLStreamWriter;
-import org.apache.cxf.staxutils.StaxUtils;
+import org.apache.cxf.phase.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import javax.xml.transform.stream.StreamSource;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.SequenceInputStream;
-import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Log the exchange messages on a CXF bus.
+ * The interceptor only captures the message metadata and raw payload in a {@link LogEntry}, the sink formats and
+ * logs it, on the request thread or, in asynchronous mode, on a background thread.
+ * The payload stream is not buffered: it goes through a {@link TeeInputStream} capturing its first bytes (up to the
+ * limit) while the service reads it, the entry being written when the stream is consumed. The same way, the outbound
+ * payload goes through a {@link TeeOutputStream}, the entry being written when the stream is closed.
+ * The {@link LoggingPolicy} decides once per exchange if it's logged (in full or headers only) or skipped, a skipped
+ * exchange is not captured at all, unless it ends with a fault.
+ * The logger, sink, limit, policy and formatter are swapped together, as an immutable snapshot, when the
+ * configuration is updated: each exchange message sees a consistent configuration.
+ * An exchange answered by an interceptor aborting the inbound chain (see {@link AbortedExchange}) is logged too, the
+ * response without payload.
+ */
 public class SynalticLoggingInterceptor extends AbstractPhaseInterceptor<Message> {
 
-    private Logger logger;
+    // swapped when the configuration is updated, the interceptor staying in the chain
+    private volatile Configuration configuration;
+    private LoggingMetrics metrics;
 
     public SynalticLoggingInterceptor(String loggerName, String phase) {
         // in logging should use receive
         // out logging should use pre-stream
         super(phase);
-        logger = LoggerFactory.getLogger(loggerName);
+        if (Phase.PRE_STREAM.equals(phase)) {
+            // the payload must be teed before the XML writer is created on the output stream
+            addBefore(StaxOutInterceptor.class.getName());
+        }
+        configuration = new Configuration(LoggerFactory.getLogger(loggerName), Slf4jLogSink.INSTANCE, 49152,
+                LoggingPolicy.ALL, LogFormatter.DEFAULT);
     }
 
-    public void handleMessage(Message message) {
-        if (!message.containsKey(LoggingMessage.ID_KEY)) {
-            String id = (String) message.getExchange().get(LoggingMessage.ID_KEY);
-            if (id == null) {
-                id = LoggingMessage.nextId();
-                message.getExchange().put(LoggingMessage.ID_KEY, id);
-            }
-
-            message.put(LoggingMessage.ID_KEY, id);
-            StringBuilder buffer = new StringBuilder();
+    /**
+     * Atomically swap the configuration, the messages in progress completing with the previous one.
+     *
+     * @param loggerName the logger of the bus.
+     * @param sink the sink writing the entries.
+     * @param util the compiled configuration, giving the payload limit, the policy of the logger and the formatter.
+     */
+    public void setConfiguration(String loggerName, LogSink sink, InterceptorsUtil util) {
+        this.configuration = new Configuration(LoggerFactory.getLogger(loggerName), sink, util.getLimit(),
+                util.getPolicy(loggerName), util.getFormatter());
+    }
 
-            buffer.append("------------------------------------------\n");
+    public void setMetrics(LoggingMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-            if (!Boolean.TRUE.equals(message.get("decoupled.channel.message"))) {
-                Integer encoding = (Integer) message.get(Message.RESPONSE_CODE);
-                if (encoding != null) {
-                    buffer.append("ResponseCode: ").append(encoding).append("\n");
-                }
+    public void handleMessage(Message message) {
+        // the same configuration snapshot for the whole message
+        Configuration configuration = this.configuration;
+        Exchange exchange = message.getExchange();
+        // the inbound payload has not been (completely) read by the service, log what has been read
+        TeeInputStream pending = exchange.get(TeeInputStream.class);
+        if (pending != null && message != exchange.getInMessage()) {
+            pending.complete();
+        }
+        if (message.containsKey(LoggingMessage.ID_KEY)) {
+            return;
+        }
+        LoggingPolicy.Decision decision = exchange.get(LoggingPolicy.Decision.class);
+        if (decision == null) {
+            decision = configuration.policy.decide(message);
+            exchange.put(LoggingPolicy.Decision.class, decision);
+            if (decision == LoggingPolicy.Decision.SKIP && metrics != null) {
+                metrics.skipped();
             }
-
-            String encoding = (String) message.get(Message.ENCODING);
-            if (encoding != null) {
-                buffer.append("Encoding: ").append(encoding).append("\n");
+        }
+        if (decision != LoggingPolicy.Decision.FULL && message == exchange.getOutFaultMessage()) {
+            // the faults are always logged in full, with the metadata of the request if not logged
+            Message in = exchange.getInMessage();
+            if (decision == LoggingPolicy.Decision.SKIP && in != null && !in.containsKey(LoggingMessage.ID_KEY)) {
+                log(in, false, configuration);
             }
+            decision = LoggingPolicy.Decision.FULL;
+        }
+        if (decision == LoggingPolicy.Decision.SKIP) {
+            // not logged, don't keep the key of a previous exchange
+            MDC.remove(Slf4jLogSink.MDC_KEY);
+            return;
+        }
+        log(message, decision == LoggingPolicy.Decision.FULL, configuration);
+    }
 
-            String httpMethod = (String) message.get("org.apache.cxf.request.method");
-            if (httpMethod != null) {
-                buffer.append("HTTP Method: ").append(httpMethod).append("\n");
-            }
+    /**
+     * Capture the message metadata, and the payload if required, in an entry written in the sink.
+     */
+    private void log(Message message, boolean payload, Configuration configuration) {
+        String id = (String) message.getExchange().get(LoggingMessage.ID_KEY);
+        if (id == null) {
+            id = LoggingMessage.nextId();
+            message.getExchange().put(LoggingMessage.ID_KEY, id);
+        }
 
-            String ct = (String) message.get("Content-Type");
-            if (ct != null) {
-                buffer.append("Content Type: ").append(ct).append("\n");
-            }
+        message.put(LoggingMessage.ID_KEY, id);
+        MDC.put(Slf4jLogSink.MDC_KEY, id);
+        if (message == message.getExchange().getInMessage() && !MessageUtils.isRequestor(message)) {
+            // a request rejected by an interceptor aborting the chain doesn't go through the out chain
+            AbortedExchange.onAbort(message.getExchange(), new AbortedEntry(message.getExchange(), configuration));
+        }
+        LogEntry entry = new LogEntry(id, configuration.logger);
+        entry.setFormatter(configuration.formatter);
+        entry.setOutbound(MessageUtils.isOutbound(message));
+        LogSink sink = configuration.sink;
 
-            Object headers = message.get(Message.PROTOCOL_HEADERS);
-            if (headers != null) {
-                buffer.append("Headers: ").append(headers).append("\n");
-            }
+        if (!Boolean.TRUE.equals(message.get("decoupled.channel.message"))) {
+            entry.setResponseCode((Integer) message.get(Message.RESPONSE_CODE));
+        }
 
-            String uri = (String) message.get("org.apache.cxf.request.url");
-            String is;
-            if (uri == null) {
-                is = (String) message.get(Message.ENDPOINT_ADDRESS);
-                uri = (String) message.get("org.apache.cxf.request.uri");
-                if (uri != null && uri.startsWith("/")) {
-                    if (is != null && !is.startsWith(uri)) {
-                        if (is.endsWith("/") && is.length() > 1) {
-                            is = is.substring(0, is.length());
-                        }
-
-                        uri = is + uri;
-                    }
-                } else {
-                    uri = is;
-                }
-            }
+        String encoding = (String) message.get(Message.ENCODING);
+        entry.setEncoding(encoding);
+        entry.setHttpMethod((String) message.get("org.apache.cxf.request.method"));
+        String ct = (String) message.get("Content-Type");
+        entry.setContentType(ct);
 
-            if (uri != null) {
-                buffer.append("Address: ").append(uri);
-                is = (String) message.get(Message.QUERY_STRING);
-                if (is != null) {
-                    buffer.append("?").append(is);
-                }
-                buffer.append("\n");
-            }
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> headers = (Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS);
+        entry.setHeaders(headers);
 
-            InputStream is1 = (InputStream) message.getContent(InputStream.class);
-            if (is1 != null) {
-                this.logInputStream(message, is1, buffer, encoding, ct);
-            } else {
-                Reader reader = (Reader) message.getContent(Reader.class);
-                if (reader != null) {
-                    this.logReader(message, reader, buffer);
+        String uri = (String) message.get("org.apache.cxf.request.url");
+        String is;
+        if (uri == null) {
+            is = (String) message.get(Message.ENDPOINT_ADDRESS);
+            uri = (String) message.get("org.apache.cxf.request.uri");
+            if (uri != null && uri.startsWith("/")) {
+                if (is != null && !is.startsWith(uri)) {
+                    uri = is + uri;
                 }
+            } else {
+                uri = is;
             }
+        }
+
+        if (uri != null) {
+            String query = (String) message.get(Message.QUERY_STRING);
+            entry.setAddress(query != null ? uri + "?" + query : uri);
+        }
 
-            MDC.put("cxf.logging.key", id);
-            logger.info(buffer.toString());
+        if (metrics != null) {
+            metrics.entry();
+        }
+        if (!payload) {
+            sink.write(entry);
+            return;
+        }
+        InputStream is1 = (InputStream) message.getContent(InputStream.class);
+        OutputStream os = (OutputStream) message.getContent(OutputStream.class);
+        if (is1 != null) {
+            // the entry is written once the payload is read
+            this.logInputStream(message, is1, entry, sink, configuration.limit);
+        } else if (os != null) {
+            // the entry is written once the payload is written
+            this.logOutputStream(message, os, entry, sink, configuration.limit);
+        } else {
+            Reader reader = (Reader) message.getContent(Reader.class);
+            if (reader != null) {
+                this.logReader(message, reader, entry);
+            }
+            sink.write(entry);
         }
     }
 
-    protected void logReader(Message message, Reader reader, StringBuilder buffer) {
+    protected void logReader(Message message, Reader reader, LogEntry entry) {
         try {
             CachedWriter e = new CachedWriter();
             IOUtils.copyAndCloseInput(reader, e);
             message.setContent(Reader.class, e.getReader());
-            if(e.getTempFile() != null) {
-                buffer.append("\nMessage (saved to tmp file):\n");
-                buffer.append("Filename: " + e.getTempFile().getAbsolutePath() + "\n");
+            if (e.getTempFile() != null) {
+                entry.setTempFile(e.getTempFile().getAbsolutePath());
             }
 
-            e.writeCacheTo(buffer);
+            StringBuilder payload = new StringBuilder();
+            e.writeCacheTo(payload);
+            entry.setReaderPayload(payload.toString());
         } catch (Exception var5) {
             throw new Fault(var5);
         }
     }
 
-    protected void logInputStream(Message message, InputStream is, StringBuilder buffer, String encoding, String ct) {
-        CachedOutputStream bos = new CachedOutputStream();
-
-        try {
-            InputStream e = is instanceof DelegatingInputStream ?((DelegatingInputStream)is).getInputStream():is;
-            IOUtils.copyAtLeast(e, bos, 2147483647);
-            bos.flush();
-            SequenceInputStream e1 = new SequenceInputStream(bos.getInputStream(), e);
-            if(is instanceof DelegatingInputStream) {
-                ((DelegatingInputStream)is).setInputStream(e1);
-            } else {
-                message.setContent(InputStream.class, e1);
+    protected void logInputStream(Message message, InputStream is, LogEntry entry, LogSink sink, int limit) {
+        InputStream e = is instanceof DelegatingInputStream ? ((DelegatingInputStream) is).getInputStream() : is;
+        TeeInputStream tee = new TeeInputStream(e, limit, entry, sink);
+        if (is instanceof DelegatingInputStream) {
+            ((DelegatingInputStream) is).setInputStream(tee);
+        } else {
+            message.setContent(InputStream.class, tee);
+        }
+        if (message == message.getExchange().getInMessage()) {
+            message.getExchange().put(TeeInputStream.class, tee);
+            if (!MessageUtils.isRequestor(message) && message.getInterceptorChain() != null) {
+                // log the request even if the service doesn't read (or close) the payload
+                message.getInterceptorChain().add(PendingEntryInterceptor.INSTANCE);
             }
+        }
+    }
 
-            if(bos.getTempFile() != null) {
-                buffer.append("\nMessage (saved to tmp file):\n");
-                buffer.append("Filename: " + bos.getTempFile().getAbsolutePath() + "\n");
-            }
+    protected void logOutputStream(Message message, OutputStream os, LogEntry entry, LogSink sink, int limit) {
+        message.setContent(OutputStream.class, new TeeOutputStream(os, limit, entry, sink));
+    }
+
+    /**
+     * Immutable snapshot of the configuration used by the interceptor.
+     */
+    private final static class Configuration {
+
+        private final Logger logger;
+        private final LogSink sink;
+        // the maximum number of payload bytes logged, -1 for no limit
+        private final int limit;
+        private final LoggingPolicy policy;
+        private final LogFormatter formatter;
 
-            this.writePayload(buffer, bos, encoding, ct);
-            bos.close();
-        } catch (Exception var8) {
-            throw new Fault(var8);
+        private Configuration(Logger logger, LogSink sink, int limit, LoggingPolicy policy, LogFormatter formatter) {
+            this.logger = logger;
+            this.sink = sink;
+            this.limit = limit;
+            this.policy = policy;
+            this.formatter = formatter;
         }
+
     }
 
-    protected void writePayload(StringBuilder builder, CachedOutputStream cos, String encoding, String contentType) throws Exception {
-        if(contentType != null && contentType.indexOf("xml") >= 0 && contentType.toLowerCase().indexOf("multipart/related") < 0 && cos.size() > 0L) {
-            StringWriter swriter = new StringWriter();
-            XMLStreamWriter xwriter = StaxUtils.createXMLStreamWriter(swriter);
-            PrettyPrintXMLStreamWriter xwriter1 = new PrettyPrintXMLStreamWriter(xwriter, 2);
-            InputStream in = cos.getInputStream();
-
-            try {
-                StaxUtils.copy(new StreamSource(in), xwriter1);
-            } catch (XMLStreamException var17) {
-                ;
-            } finally {
-                try {
-                    xwriter1.flush();
-                    xwriter1.close();
-                } catch (XMLStreamException var16) {
-                    ;
-                }
+    /**
+     * Log an exchange answered by an interceptor aborting the inbound chain: the entry of the request is written with
+     * the payload read so far, and the response is logged without payload, its stream being already closed.
+     */
+    private final class AbortedEntry implements Runnable {
+
+        private final Exchange exchange;
+        private final Configuration configuration;
+
+        private AbortedEntry(Exchange exchange, Configuration configuration) {
+            this.exchange = exchange;
+            this.configuration = configuration;
+        }
 
-                in.close();
+        public void run() {
+            TeeInputStream pending = exchange.get(TeeInputStream.class);
+            if (pending != null) {
+                pending.complete();
+            }
+            Message out = exchange.getOutMessage();
+            if (out != null && !out.containsKey(LoggingMessage.ID_KEY)) {
+                log(out, false, configuration);
             }
+        }
 
-            String result = swriter.toString();
-            builder.append(swriter.toString());
-        } else if(StringUtils.isEmpty(encoding)) {
-            cos.writeCacheTo(builder);
-        } else {
-            cos.writeCacheTo(builder, encoding);
+    }
+
+    /**
+     * Write the entry of the inbound payload at the end of the inbound chain, if the service didn't consume it.
+     */
+    private final static class PendingEntryInterceptor extends AbstractPhaseInterceptor<Message> {
+
+        private final static PendingEntryInterceptor INSTANCE = new PendingEntryInterceptor();
+
+        private PendingEntryInterceptor() {
+            super(Phase.POST_INVOKE);
+        }
+
+        public void handleMessage(Message message) {
+            TeeInputStream pending = message.getExchange().get(TeeInputStream.class);
+            if (pending != null) {
+                pending.complete();
+            }
         }
 
     }
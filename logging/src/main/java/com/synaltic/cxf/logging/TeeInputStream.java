@@ -0,0 +1,120 @@
+package com.synaltic.cxf.logging;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream passing the message payload to the service as it's read, and capturing the first bytes (up to the
+ * limit) for the log. The entry is completed with the captured bytes and written in the sink once, when the stream
+ * reaches its end or is closed, or when the exchange goes on without reading the payload (see
+ * {@link #complete()}).
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    private final PayloadCapture capture;
+    private final LogEntry entry;
+    private final LogSink sink;
+    private boolean completed;
+
+    /**
+     * @param in the message payload.
+     * @param limit the maximum number of bytes captured, -1 for no limit.
+     * @param entry the entry completed with the captured bytes.
+     * @param sink the sink the completed entry is written in.
+     */
+    public TeeInputStream(InputStream in, int limit, LogEntry entry, LogSink sink) {
+        super(in);
+        this.capture = new PayloadCapture(limit);
+        this.entry = entry;
+        this.sink = sink;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            complete();
+        } else {
+            capture(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = in.read(buffer, offset, length);
+        if (n == -1) {
+            complete();
+        } else {
+            capture(buffer, offset, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (capture.isFull()) {
+            long skipped = in.skip(n);
+            capture.skipped(skipped);
+            return skipped;
+        }
+        // read the skipped bytes still in the captured prefix
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        // not supported
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            complete();
+        }
+    }
+
+    private synchronized void capture(int b) {
+        if (!completed) {
+            capture.capture(b);
+        }
+    }
+
+    private synchronized void capture(byte[] buffer, int offset, int n) {
+        if (!completed) {
+            capture.capture(buffer, offset, n);
+        }
+    }
+
+    /**
+     * Complete the entry with the bytes captured so far and write it in the sink, if not done yet.
+     */
+    public synchronized void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        capture.complete(entry);
+        sink.write(entry);
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+}
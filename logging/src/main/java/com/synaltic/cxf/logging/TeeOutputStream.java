@@ -0,0 +1,79 @@
+package com.synaltic.cxf.logging;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream writing the message payload through to the client as it's written, and capturing the first bytes
+ * (up to the limit) for the log. The entry is completed with the captured bytes and written in the sink once, when
+ * the stream is closed.
+ */
+public class TeeOutputStream extends FilterOutputStream {
+
+    private final PayloadCapture capture;
+    private final LogEntry entry;
+    private final LogSink sink;
+    private boolean completed;
+
+    /**
+     * @param out the message payload stream.
+     * @param limit the maximum number of bytes captured, -1 for no limit.
+     * @param entry the entry completed with the captured bytes.
+     * @param sink the sink the completed entry is written in.
+     */
+    public TeeOutputStream(OutputStream out, int limit, LogEntry entry, LogSink sink) {
+        super(out);
+        this.capture = new PayloadCapture(limit);
+        this.entry = entry;
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (!completed) {
+            capture.capture(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // the FilterOutputStream implementation writes byte per byte
+        out.write(buffer, offset, length);
+        if (!completed) {
+            capture.capture(buffer, offset, length);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            complete();
+        }
+    }
+
+    /**
+     * Complete the entry with the bytes captured so far and write it in the sink, if not done yet.
+     */
+    public void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        capture.complete(entry);
+        sink.write(entry);
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.synaltic.cxf.logging;
+
+import org.apache.cxf.common.util.StringUtils;
+import org.apache.cxf.staxutils.StaxUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Write an XML payload in the log buffer in a single pass: the StAX events are read from the raw bytes and written
+ * straight in the buffer, indented or compact, the text of the masked elements and the value of the masked
+ * attributes being replaced, until the character budget is reached.
+ * <p>
+ * The writer is not thread safe, {@link #get()} gives the writer of the current thread, reused for all the payloads
+ * formatted by the thread.
+ */
+final class XmlLogWriter {
+
+    final static String MASK = "****";
+
+    private final static ThreadLocal<XmlLogWriter> WRITERS = new ThreadLocal<XmlLogWriter>() {
+        @Override
+        protected XmlLogWriter initialValue() {
+            return new XmlLogWriter();
+        }
+    };
+
+    // per depth: true if the element has child elements (its end tag goes on a new line)
+    private boolean[] children = new boolean[16];
+    private int depth;
+
+    private XmlLogWriter() {
+    }
+
+    static XmlLogWriter get() {
+        return WRITERS.get();
+    }
+
+    /**
+     * Write the payload in the buffer. An invalid (or truncated) payload is written up to the invalid event.
+     *
+     * @param buffer the log buffer.
+     * @param payload the raw payload.
+     * @param length the payload length.
+     * @param encoding the payload encoding, detected if null.
+     * @param pretty true to indent the elements, false to write them on a single line.
+     * @param masked the lower case names of the masked elements and attributes, empty for none.
+     * @param maxChars the maximum number of characters written, -1 for no limit.
+     * @return true if the budget has been reached before the end of the payload.
+     */
+    boolean write(StringBuilder buffer, byte[] payload, int length, String encoding, boolean pretty, Set<String> masked,
+                  int maxChars) {
+        int limit = maxChars < 0 ? Integer.MAX_VALUE : buffer.length() + maxChars;
+        depth = 0;
+        InputStream in = new ByteArrayInputStream(payload, 0, length);
+        XMLStreamReader reader = StringUtils.isEmpty(encoding) ? StaxUtils.createXMLStreamReader(in)
+                : StaxUtils.createXMLStreamReader(in, encoding);
+        try {
+            while (reader.hasNext()) {
+                // an output of exactly the budget is complete if only the end of the document remains
+                if (buffer.length() > limit) {
+                    buffer.setLength(limit);
+                    return true;
+                }
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement(buffer, reader, pretty, masked);
+                        if (!masked.isEmpty() && masked.contains(reader.getLocalName().toLowerCase(Locale.ENGLISH))) {
+                            skipElement(reader);
+                            buffer.append(MASK);
+                            endElement(buffer, reader, pretty);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement(buffer, reader, pretty);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (!reader.isWhiteSpace()) {
+                            escape(buffer, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(), false);
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        buffer.append("<![CDATA[").append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()).append("]]>");
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        buffer.append("<!--").append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()).append("-->");
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        buffer.append("<?").append(reader.getPITarget());
+                        if (reader.getPIData() != null) {
+                            buffer.append(' ').append(reader.getPIData());
+                        }
+                        buffer.append("?>");
+                        break;
+                    default:
+                        // document start and end, DTD, entity references: not logged
+                }
+            }
+        } catch (XMLStreamException e) {
+            // log what has been written
+        } finally {
+            try {
+                StaxUtils.close(reader);
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+        }
+        if (buffer.length() > limit) {
+            buffer.setLength(limit);
+            return true;
+        }
+        return false;
+    }
+
+    private void startElement(StringBuilder buffer, XMLStreamReader reader, boolean pretty, Set<String> masked) {
+        if (depth > 0) {
+            children[depth - 1] = true;
+        }
+        if (pretty && (depth > 0 || buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != '\n')) {
+            newLine(buffer, depth);
+        }
+        buffer.append('<');
+        name(buffer, reader.getPrefix(), reader.getLocalName());
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            buffer.append(" xmlns");
+            if (!StringUtils.isEmpty(reader.getNamespacePrefix(i))) {
+                buffer.append(':').append(reader.getNamespacePrefix(i));
+            }
+            buffer.append("=\"");
+            escape(buffer, reader.getNamespaceURI(i), true);
+            buffer.append('"');
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            buffer.append(' ');
+            String name = reader.getAttributeLocalName(i);
+            name(buffer, reader.getAttributePrefix(i), name);
+            buffer.append("=\"");
+            if (!masked.isEmpty() && masked.contains(name.toLowerCase(Locale.ENGLISH))) {
+                buffer.append(MASK);
+            } else {
+                escape(buffer, reader.getAttributeValue(i), true);
+            }
+            buffer.append('"');
+        }
+        buffer.append('>');
+        if (depth == children.length) {
+            children = Arrays.copyOf(children, depth * 2);
+        }
+        children[depth++] = false;
+    }
+
+    private void endElement(StringBuilder buffer, XMLStreamReader reader, boolean pretty) {
+        depth--;
+        if (pretty && children[depth]) {
+            newLine(buffer, depth);
+        }
+        buffer.append("</");
+        name(buffer, reader.getPrefix(), reader.getLocalName());
+        buffer.append('>');
+    }
+
+    /**
+     * Skip the content of the current element, the reader being left on its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+
+    private static void name(StringBuilder buffer, String prefix, String localName) {
+        if (!StringUtils.isEmpty(prefix)) {
+            buffer.append(prefix).append(':');
+        }
+        buffer.append(localName);
+    }
+
+    private static void newLine(StringBuilder buffer, int depth) {
+        buffer.append('\n');
+        for (int i = 0; i < depth; i++) {
+            buffer.append("  ");
+        }
+    }
+
+    private static void escape(StringBuilder buffer, String value, boolean attribute) {
+        if (value != null) {
+            escape(buffer, value.toCharArray(), 0, value.length(), attribute);
+        }
+    }
+
+    private static void escape(StringBuilder buffer, char[] chars, int start, int length, boolean attribute) {
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            switch (c) {
+                case '&':
+                    buffer.append("&amp;");
+                    break;
+                case '<':
+                    buffer.append("&lt;");
+                    break;
+                case '>':
+                    buffer.append(attribute ? ">" : "&gt;");
+                    break;
+                case '"':
+                    buffer.append(attribute ? "&quot;" : "\"");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+    }
+
+}
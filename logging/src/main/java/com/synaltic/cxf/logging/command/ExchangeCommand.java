@@ -0,0 +1,37 @@
+package com.synaltic.cxf.logging.command;
+
+import com.synaltic.cxf.logging.ExchangeJournalService;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+/**
+ * Print an exchange written in the logging journal.
+ */
+@Command(scope = "logging", name = "exchange", description = "Print an exchange written in the CXF logging journal")
+@Service
+public class ExchangeCommand implements Action {
+
+    @Argument(index = 0, name = "id", description = "The exchange ID", required = true)
+    String id;
+
+    @Reference
+    ExchangeJournalService service;
+
+    public Object execute() throws Exception {
+        if (!service.isEnabled()) {
+            System.err.println("The logging journal is disabled (logging.journal.enabled)");
+            return null;
+        }
+        String exchange = service.print(id);
+        if (exchange == null) {
+            System.err.println("Exchange " + id + " not found in the logging journal");
+            return null;
+        }
+        System.out.println(exchange);
+        return null;
+    }
+
+}
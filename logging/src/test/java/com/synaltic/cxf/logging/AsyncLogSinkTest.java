@@ -0,0 +1,245 @@
+package com.synaltic.cxf.logging;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncLogSinkTest {
+
+    /**
+     * Sink holding the background thread on the first entry until the gate is opened.
+     */
+    private static class GatedSink extends CapturingSink {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void write(LogEntry entry) {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(entry);
+        }
+
+        /**
+         * Wait for the background thread to hold an entry, the next entries stay in the buffer.
+         */
+        void await() throws InterruptedException {
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+
+    }
+
+    private static LogEntry entry(String id, int size) {
+        LogEntry entry = new LogEntry(id, null);
+        entry.setPayload(new byte[size], size);
+        return entry;
+    }
+
+    private static String ids(CapturingSink sink) {
+        StringBuilder builder = new StringBuilder();
+        for (LogEntry entry : sink.entries) {
+            builder.append(entry.getId());
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        CapturingSink delegate = new CapturingSink();
+        LoggingMetrics metrics = new LoggingMetrics();
+        AsyncLogSink sink = new AsyncLogSink(4, 1000, AsyncLogSink.Overflow.BLOCK, delegate, metrics);
+        for (int i = 0; i < 10; i++) {
+            sink.write(entry(String.valueOf(i), 100));
+        }
+        sink.close();
+        Assert.assertEquals("0123456789", ids(delegate));
+        Assert.assertEquals(0, sink.size());
+        Assert.assertEquals(0, sink.bytes());
+        Assert.assertEquals(0, metrics.getDroppedEntries());
+    }
+
+    @Test
+    public void testDropEntry() throws Exception {
+        GatedSink delegate = new GatedSink();
+        LoggingMetrics metrics = new LoggingMetrics();
+        AsyncLogSink sink = new AsyncLogSink(3, 100, AsyncLogSink.Overflow.DROP_ENTRY, delegate, metrics);
+        sink.write(entry("0", 80));
+        delegate.await();
+        Assert.assertEquals(0, sink.bytes());
+
+        sink.write(entry("1", 60));
+        Assert.assertEquals(60, sink.bytes());
+        // no room for the payload
+        sink.write(entry("2", 60));
+        Assert.assertEquals(1, metrics.getDroppedEntries());
+        sink.write(entry("3", 40));
+        Assert.assertEquals(100, sink.bytes());
+        sink.write(entry("4", 0));
+        Assert.assertEquals(3, sink.size());
+        // no free entry
+        sink.write(entry("5", 0));
+        Assert.assertEquals(2, metrics.getDroppedEntries());
+
+        delegate.gate.countDown();
+        sink.close();
+        Assert.assertEquals("0134", ids(delegate));
+        Assert.assertEquals(0, sink.bytes());
+        Assert.assertEquals(0, metrics.getDroppedPayloads());
+    }
+
+    @Test
+    public void testDropPayload() throws Exception {
+        GatedSink delegate = new GatedSink();
+        LoggingMetrics metrics = new LoggingMetrics();
+        AsyncLogSink sink = new AsyncLogSink(3, 100, AsyncLogSink.Overflow.DROP_PAYLOAD, delegate, metrics);
+        sink.write(entry("0", 80));
+        delegate.await();
+
+        sink.write(entry("1", 60));
+        // no room for the payload, the entry is buffered without it
+        LogEntry dropped = entry("2", 60);
+        sink.write(dropped);
+        Assert.assertTrue(dropped.isPayloadDropped());
+        Assert.assertEquals(1, metrics.getDroppedPayloads());
+        Assert.assertEquals(60, sink.bytes());
+        sink.write(entry("3", 40));
+        Assert.assertEquals(100, sink.bytes());
+        Assert.assertEquals(3, sink.size());
+        // no free entry
+        sink.write(entry("4", 0));
+        Assert.assertEquals(1, metrics.getDroppedEntries());
+
+        delegate.gate.countDown();
+        sink.close();
+        Assert.assertEquals("0123", ids(delegate));
+        Assert.assertNull(delegate.entries.get(2).getPayload());
+        Assert.assertEquals(60, delegate.entries.get(1).getPayloadLength());
+        Assert.assertEquals(0, sink.bytes());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        GatedSink delegate = new GatedSink();
+        LoggingMetrics metrics = new LoggingMetrics();
+        final AsyncLogSink sink = new AsyncLogSink(2, 100, AsyncLogSink.Overflow.BLOCK, delegate, metrics);
+        sink.write(entry("0", 80));
+        delegate.await();
+        sink.write(entry("1", 60));
+
+        // no room for the payload, the writer waits
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                sink.write(entry("2", 60));
+            }
+        });
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getBlocked() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, metrics.getBlocked());
+        writer.join(200);
+        Assert.assertTrue(writer.isAlive());
+        Assert.assertEquals(1, sink.size());
+
+        delegate.gate.countDown();
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+
+        // an entry bigger than the buffer is accepted once the buffer is empty
+        sink.write(entry("3", 500));
+        sink.close();
+        Assert.assertEquals("0123", ids(delegate));
+        Assert.assertEquals(0, metrics.getDroppedEntries());
+        Assert.assertEquals(0, sink.bytes());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final GatedSink delegate = new GatedSink();
+        LoggingMetrics metrics = new LoggingMetrics();
+        final AsyncLogSink sink = new AsyncLogSink(2, 100, AsyncLogSink.Overflow.BLOCK, delegate, metrics);
+        sink.write(entry("0", 10));
+        delegate.await();
+        sink.write(entry("1", 10));
+        sink.write(entry("2", 10));
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                sink.write(entry("3", 10));
+            }
+        });
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getBlocked() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, metrics.getBlocked());
+
+        Thread opener = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                delegate.gate.countDown();
+            }
+        });
+        opener.start();
+        // the blocked writer is released, its entry dropped, and the buffered entries are logged
+        sink.close();
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertEquals("012", ids(delegate));
+        Assert.assertEquals(1, metrics.getDroppedEntries());
+        Assert.assertEquals(0, sink.size());
+
+        // the entries written after the close are dropped
+        sink.write(entry("4", 10));
+        Assert.assertEquals(2, metrics.getDroppedEntries());
+        Assert.assertEquals(3, delegate.entries.size());
+    }
+
+    @Test
+    public void testMdc() throws Exception {
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        final List<String> keys = new CopyOnWriteArrayList<String>();
+        LogSink delegate = new CapturingSink() {
+            @Override
+            public void write(LogEntry entry) {
+                threads.add(Thread.currentThread().getName());
+                // key left by the previous entry
+                keys.add(String.valueOf(MDC.get(Slf4jLogSink.MDC_KEY)));
+                MDC.put(Slf4jLogSink.MDC_KEY, entry.getId());
+                keys.add(MDC.get(Slf4jLogSink.MDC_KEY));
+            }
+        };
+        AsyncLogSink sink = new AsyncLogSink(4, 1000, AsyncLogSink.Overflow.BLOCK, delegate, null);
+        MDC.put(Slf4jLogSink.MDC_KEY, "caller");
+        try {
+            sink.write(entry("1", 10));
+            sink.write(entry("2", 10));
+            sink.close();
+            // the entries are written by the background thread, the caller MDC is left untouched
+            Assert.assertEquals("caller", MDC.get(Slf4jLogSink.MDC_KEY));
+        } finally {
+            MDC.remove(Slf4jLogSink.MDC_KEY);
+        }
+        Assert.assertEquals(2, threads.size());
+        for (String thread : threads) {
+            Assert.assertEquals("cxf-logging-writer", thread);
+        }
+        Assert.assertEquals("[null, 1, null, 2]", keys.toString());
+    }
+
+}
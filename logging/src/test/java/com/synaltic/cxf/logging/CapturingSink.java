@@ -0,0 +1,25 @@
+package com.synaltic.cxf.logging;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sink keeping the written entries, for the tests.
+ */
+class CapturingSink implements LogSink {
+
+    final List<LogEntry> entries = new CopyOnWriteArrayList<LogEntry>();
+
+    public void write(LogEntry entry) {
+        entries.add(entry);
+    }
+
+    public void close() {
+    }
+
+    String payload(int index) throws Exception {
+        LogEntry entry = entries.get(index);
+        return new String(entry.getPayload(), 0, entry.getPayloadLength(), "UTF-8");
+    }
+
+}
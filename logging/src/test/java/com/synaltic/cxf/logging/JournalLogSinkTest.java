@@ -0,0 +1,204 @@
+package com.synaltic.cxf.logging;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JournalLogSinkTest {
+
+    private final static int SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFind() throws Exception {
+        JournalLogSink journal = journal(4, LogFormatter.DEFAULT);
+        try {
+            journal.write(entry("1", false, "<request/>"));
+            journal.write(entry("2", false, "<other/>"));
+            LogEntry response = entry("1", true, "<response/>");
+            response.setResponseCode(200);
+            response.setTruncated(true);
+            journal.write(response);
+
+            List<LogEntry> entries = journal.find("1");
+            Assert.assertEquals(2, entries.size());
+            LogEntry request = entries.get(0);
+            Assert.assertFalse(request.isOutbound());
+            Assert.assertEquals("http://localhost/service", request.getAddress());
+            Assert.assertEquals("POST", request.getHttpMethod());
+            Assert.assertEquals("text/xml", request.getContentType());
+            Assert.assertNull(request.getResponseCode());
+            Assert.assertEquals(Arrays.asList("1"), request.getHeaders().get("X-Request"));
+            Assert.assertEquals("<request/>", payload(request));
+            Assert.assertTrue(entries.get(1).isOutbound());
+            Assert.assertEquals(Integer.valueOf(200), entries.get(1).getResponseCode());
+            Assert.assertTrue(entries.get(1).isTruncated());
+            Assert.assertEquals("<response/>", payload(entries.get(1)));
+
+            Assert.assertEquals(1, journal.find("2").size());
+            Assert.assertTrue(journal.find("3").isEmpty());
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testRoll() throws Exception {
+        JournalLogSink journal = journal(2, LogFormatter.DEFAULT);
+        try {
+            char[] payload = new char[20 * 1024];
+            Arrays.fill(payload, 'x');
+            // 3 entries per segment
+            for (int i = 0; i < 10; i++) {
+                journal.write(entry(String.valueOf(i), false, new String(payload)));
+            }
+            // the oldest segments are deleted
+            Assert.assertEquals(2, segments().length);
+            Assert.assertTrue(journal.find("0").isEmpty());
+            Assert.assertTrue(journal.find("5").isEmpty());
+            Assert.assertEquals(1, journal.find("6").size());
+            Assert.assertEquals(payload.length, journal.find("9").get(0).getPayloadLength());
+
+            // a payload bigger than a segment is cut
+            journal.write(entry("10", false, new String(new char[2 * SEGMENT_SIZE])));
+            LogEntry cut = journal.find("10").get(0);
+            Assert.assertTrue(cut.isTruncated());
+            Assert.assertTrue(cut.getPayloadLength() < SEGMENT_SIZE);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        JournalLogSink journal = journal(4, LogFormatter.DEFAULT);
+        for (int i = 0; i < 40; i++) {
+            journal.write(entry(String.valueOf(i), false, "<request id='" + i + "'/>"));
+        }
+        journal.close();
+        // closed: the entry is dropped
+        journal.write(entry("40", false, "<request/>"));
+
+        journal = journal(4, LogFormatter.DEFAULT);
+        try {
+            // the records are indexed again, the journal goes on in the last segment
+            Assert.assertEquals(1, segments().length);
+            Assert.assertEquals("<request id='0'/>", payload(journal.find("0").get(0)));
+            Assert.assertEquals("<request id='39'/>", payload(journal.find("39").get(0)));
+            Assert.assertTrue(journal.find("40").isEmpty());
+            journal.write(entry("41", false, "<request/>"));
+            Assert.assertEquals(1, segments().length);
+            Assert.assertEquals(1, journal.find("41").size());
+            Assert.assertEquals(1, journal.find("1").size());
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testMasking() throws Exception {
+        LogFormatter masking = new LogFormatter(true, new HashSet<String>(Arrays.asList("password")),
+                LogFormatter.MASKED_HEADERS, -1);
+        JournalLogSink journal = journal(4, masking);
+        try {
+            LogEntry entry = entry("1", false, "<login><user>bob</user><password>s3cr3t</password></login>");
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>(entry.getHeaders());
+            headers.put("authorization", Arrays.asList("Basic Ym9iOnMzY3IzdA=="));
+            entry.setHeaders(headers);
+            journal.write(entry);
+            LogEntry text = entry("2", false, "password=s3cr3t");
+            text.setContentType("text/plain");
+            journal.write(text);
+
+            LogEntry found = journal.find("1").get(0);
+            Assert.assertEquals(Arrays.asList("****"), found.getHeaders().get("authorization"));
+            Assert.assertEquals(Arrays.asList("1"), found.getHeaders().get("X-Request"));
+            Assert.assertEquals("<login><user>bob</user><password>****</password></login>", found.getReaderPayload());
+            // only the XML payloads are masked
+            Assert.assertEquals("password=s3cr3t", payload(journal.find("2").get(0)));
+        } finally {
+            journal.close();
+        }
+        String content = content(segments()[0]);
+        Assert.assertFalse(content.contains("Ym9iOnMzY3IzdA=="));
+        Assert.assertFalse(content.contains("<password>s3cr3t"));
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        JournalLogSink journal = journal(4, new InterceptorsUtil(properties()).getFormatter());
+        try {
+            Assert.assertTrue(journal.matches(new InterceptorsUtil(properties())));
+            Hashtable<String, Object> properties = properties();
+            properties.put("logging.mask", "password");
+            Assert.assertFalse(journal.matches(new InterceptorsUtil(properties)));
+            properties = properties();
+            properties.put("logging.mask.headers", "");
+            Assert.assertFalse(journal.matches(new InterceptorsUtil(properties)));
+            properties = properties();
+            properties.put("logging.journal.segments", "8");
+            Assert.assertFalse(journal.matches(new InterceptorsUtil(properties)));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private Hashtable<String, Object> properties() {
+        java.util.Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("logging.journal.directory", folder.getRoot().getAbsolutePath());
+        properties.put("logging.journal.segmentSize", String.valueOf(SEGMENT_SIZE));
+        properties.put("logging.journal.segments", "4");
+        return properties;
+    }
+
+    private JournalLogSink journal(int segments, LogFormatter masking) throws Exception {
+        return new JournalLogSink(folder.getRoot(), SEGMENT_SIZE, segments, masking, null);
+    }
+
+    private File[] segments() {
+        File[] files = folder.getRoot().listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static LogEntry entry(String id, boolean outbound, String payload) throws Exception {
+        LogEntry entry = new LogEntry(id, null);
+        entry.setOutbound(outbound);
+        entry.setAddress("http://localhost/service");
+        entry.setHttpMethod("POST");
+        entry.setContentType("text/xml");
+        entry.setHeaders(Collections.singletonMap("X-Request", Arrays.asList(id)));
+        byte[] bytes = payload.getBytes("UTF-8");
+        entry.setPayload(bytes, bytes.length);
+        return entry;
+    }
+
+    private static String payload(LogEntry entry) throws Exception {
+        return new String(entry.getPayload(), 0, entry.getPayloadLength(), "UTF-8");
+    }
+
+    private static String content(File file) throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "ISO-8859-1");
+    }
+
+}
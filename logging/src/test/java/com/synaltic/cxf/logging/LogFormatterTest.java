@@ -0,0 +1,131 @@
+package com.synaltic.cxf.logging;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LogFormatterTest {
+
+    private final static Set<String> MASKED = new HashSet<String>(Arrays.asList("Password", "token"));
+
+    @Test
+    public void testCompact() throws Exception {
+        LogFormatter formatter = new LogFormatter(false, Collections.<String>emptySet(), -1);
+        Assert.assertEquals("<a><b x=\"1\">1 &amp; 2</b><c></c></a>",
+                xml(formatter, "<a>\n  <b x='1'>1 &amp; 2</b>\n  <c/>\n</a>"));
+    }
+
+    @Test
+    public void testPretty() throws Exception {
+        LogFormatter formatter = new LogFormatter(true, Collections.<String>emptySet(), -1);
+        Assert.assertEquals("<a>\n  <b>1</b>\n  <c>\n    <d></d>\n  </c>\n</a>",
+                xml(formatter, "<a><b>1</b><c><d/></c></a>"));
+    }
+
+    @Test
+    public void testMaskedElements() throws Exception {
+        LogFormatter formatter = new LogFormatter(false, MASKED, -1);
+        // the names are case insensitive, the content of a masked element is replaced whatever its structure
+        Assert.assertEquals("<a><password>****</password><TOKEN>****</TOKEN><user>bob</user></a>",
+                xml(formatter, "<a><password>secret</password><TOKEN><value>t</value><value>u</value></TOKEN><user>bob</user></a>"));
+        formatter = new LogFormatter(true, MASKED, -1);
+        Assert.assertEquals("<a>\n  <ns:Password xmlns:ns=\"urn:test\">****</ns:Password>\n  <user>bob</user>\n</a>",
+                xml(formatter, "<a><ns:Password xmlns:ns='urn:test'>secret</ns:Password><user>bob</user></a>"));
+    }
+
+    @Test
+    public void testMaskedAttributes() throws Exception {
+        LogFormatter formatter = new LogFormatter(false, MASKED, -1);
+        Assert.assertEquals("<a Token=\"****\" id=\"1\"><b password=\"****\"></b></a>",
+                xml(formatter, "<a Token='t' id='1'><b password='secret'/></a>"));
+    }
+
+    @Test
+    public void testXmlBudget() throws Exception {
+        LogFormatter formatter = new LogFormatter(false, MASKED, 20);
+        String message = formatter.format(entry("text/xml", "<a><password>secret</password><user>bob</user></a>"));
+        // masked before being cut
+        Assert.assertTrue(message, message.endsWith("text/xml\n<a><password>****</p\n(message truncated to 20 characters)\n"));
+        Assert.assertFalse(message, message.contains("secret"));
+
+        message = formatter.format(entry("text/xml", "<a>short</a>"));
+        Assert.assertTrue(message, message.endsWith("<a>short</a>"));
+
+        // exactly the budget: not cut
+        formatter = new LogFormatter(false, MASKED, 12);
+        message = formatter.format(entry("text/xml", "<a>short</a>"));
+        Assert.assertTrue(message, message.endsWith("<a>short</a>"));
+        Assert.assertFalse(message, message.contains("truncated"));
+        message = formatter.format(entry("text/xml", "<a>short</a><!-- end -->"));
+        Assert.assertTrue(message, message.endsWith("<a>short</a>\n(message truncated to 12 characters)\n"));
+    }
+
+    @Test
+    public void testTextBudget() throws Exception {
+        LogFormatter formatter = new LogFormatter(true, MASKED, 4);
+        String message = formatter.format(entry("text/plain", "0123456789"));
+        Assert.assertTrue(message, message.endsWith("0123\n(message truncated to 4 characters)\n"));
+
+        LogEntry entry = entry("text/plain", null);
+        entry.setReaderPayload("0123456789");
+        message = formatter.format(entry);
+        Assert.assertTrue(message, message.endsWith("0123\n(message truncated to 4 characters)\n"));
+    }
+
+    @Test
+    public void testCapturedBytes() throws Exception {
+        LogFormatter formatter = new LogFormatter(true, MASKED, -1);
+        LogEntry entry = entry("text/plain", "0123");
+        entry.setTruncated(true);
+        String message = formatter.format(entry);
+        Assert.assertTrue(message, message.endsWith("0123\n(message truncated to 4 bytes)\n"));
+    }
+
+    @Test
+    public void testMaskedHeaders() throws Exception {
+        LogFormatter formatter = new LogFormatter(true, MASKED, LogFormatter.MASKED_HEADERS, -1);
+        LogEntry entry = entry("text/plain", "payload");
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        headers.put("authorization", Arrays.asList("Basic Ym9iOnMzY3IzdA=="));
+        headers.put("Accept", Arrays.asList("text/xml"));
+        entry.setHeaders(headers);
+        String message = formatter.format(entry);
+        Assert.assertTrue(message, message.contains("Headers: {authorization=[****], Accept=[text/xml]}"));
+        Assert.assertFalse(message, message.contains("Ym9iOnMzY3IzdA=="));
+        // the entry keeps its headers
+        Assert.assertEquals(Arrays.asList("Basic Ym9iOnMzY3IzdA=="), entry.getHeaders().get("authorization"));
+    }
+
+    @Test
+    public void testInvalidXml() throws Exception {
+        LogFormatter formatter = new LogFormatter(false, MASKED, -1);
+        // a payload cut at the capture limit is written up to the invalid event
+        Assert.assertEquals("<a><b>1</b>", xml(formatter, "<a><b>1</b><c"));
+    }
+
+    private static String xml(LogFormatter formatter, String payload) throws Exception {
+        StringBuilder buffer = new StringBuilder();
+        byte[] bytes = payload.getBytes("UTF-8");
+        formatter.writePayload(buffer, bytes, bytes.length, "UTF-8", "text/xml");
+        return buffer.toString();
+    }
+
+    private static LogEntry entry(String contentType, String payload) throws Exception {
+        LogEntry entry = new LogEntry("1", LoggerFactory.getLogger("test"));
+        entry.setContentType(contentType);
+        if (payload != null) {
+            byte[] bytes = payload.getBytes("UTF-8");
+            entry.setPayload(bytes, bytes.length);
+        }
+        return entry;
+    }
+
+}
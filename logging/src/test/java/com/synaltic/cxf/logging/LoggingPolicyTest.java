@@ -0,0 +1,68 @@
+package com.synaltic.cxf.logging;
+
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoggingPolicyTest {
+
+    @Test
+    public void testAll() {
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(LoggingPolicy.Decision.FULL, LoggingPolicy.ALL.decide(message("http://localhost/a")));
+        }
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        final LoggingPolicy policy = new LoggingPolicy(4, 0, 0, LoggingPolicy.Mode.HEADERS);
+        final AtomicInteger logged = new AtomicInteger();
+        final AtomicInteger full = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        LoggingPolicy.Decision decision = policy.decide(message("http://localhost/a"));
+                        if (decision == LoggingPolicy.Decision.HEADERS) {
+                            logged.incrementAndGet();
+                        } else if (decision == LoggingPolicy.Decision.FULL) {
+                            full.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, full.get());
+        // 1 in 4 of the 40000 exchanges, each thread sampling with its own generator
+        Assert.assertTrue(String.valueOf(logged.get()), logged.get() > 9000 && logged.get() < 11000);
+    }
+
+    @Test
+    public void testRateLimit() {
+        LoggingPolicy policy = new LoggingPolicy(1, 0.001, 2, LoggingPolicy.Mode.FULL);
+        Assert.assertEquals(LoggingPolicy.Decision.FULL, policy.decide(message("http://localhost/a")));
+        Assert.assertEquals(LoggingPolicy.Decision.FULL, policy.decide(message("http://localhost/a")));
+        Assert.assertEquals(LoggingPolicy.Decision.SKIP, policy.decide(message("http://localhost/a")));
+        // a bucket per endpoint
+        Assert.assertEquals(LoggingPolicy.Decision.FULL, policy.decide(message("http://localhost/b")));
+    }
+
+    private static Message message(String address) {
+        Exchange exchange = new ExchangeImpl();
+        Message message = new MessageImpl();
+        exchange.setInMessage(message);
+        message.put(Message.ENDPOINT_ADDRESS, address);
+        return message;
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.synaltic.cxf.logging;
+
+import com.synaltic.cxf.common.AbortedExchange;
+import org.apache.cxf.bus.managers.PhaseManagerImpl;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.StaxOutInterceptor;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.phase.PhaseInterceptorChain;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SynalticLoggingInterceptorTest {
+
+    @Test
+    public void testAbortedExchange() throws Exception {
+        CapturingSink sink = new CapturingSink();
+        SynalticLoggingInterceptor interceptor = new SynalticLoggingInterceptor("test", Phase.RECEIVE);
+        interceptor.setConfiguration("test", sink, new InterceptorsUtil(new Hashtable<String, Object>()));
+
+        Exchange exchange = new ExchangeImpl();
+        Message in = new MessageImpl();
+        exchange.setInMessage(in);
+        in.put(Message.PROTOCOL_HEADERS, Collections.singletonMap("Content-Type", Arrays.asList("text/xml")));
+        in.setContent(InputStream.class, new ByteArrayInputStream("<request/>".getBytes("UTF-8")));
+        interceptor.handleMessage(in);
+        // the payload is not read yet
+        Assert.assertTrue(sink.entries.isEmpty());
+
+        // an interceptor rejects the request: the chain is aborted, the response written on the back channel
+        Message out = new MessageImpl();
+        exchange.setOutMessage(out);
+        out.put(Message.RESPONSE_CODE, 401);
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        out.put(Message.PROTOCOL_HEADERS, headers);
+        headers.put("WWW-Authenticate", Arrays.asList("Basic realm=\"test\""));
+        AbortedExchange.aborted(exchange);
+
+        Assert.assertEquals(2, sink.entries.size());
+        LogEntry request = sink.entries.get(0);
+        Assert.assertFalse(request.isOutbound());
+        Assert.assertEquals("", sink.payload(0));
+        LogEntry response = sink.entries.get(1);
+        Assert.assertTrue(response.isOutbound());
+        Assert.assertEquals(request.getId(), response.getId());
+        Assert.assertEquals(Integer.valueOf(401), response.getResponseCode());
+        Assert.assertEquals(Arrays.asList("Basic realm=\"test\""), response.getHeaders().get("WWW-Authenticate"));
+        Assert.assertNull(response.getPayload());
+
+        // the callbacks run once
+        AbortedExchange.aborted(exchange);
+        Assert.assertEquals(2, sink.entries.size());
+    }
+
+    @Test
+    public void testCompletedExchange() throws Exception {
+        CapturingSink sink = new CapturingSink();
+        SynalticLoggingInterceptor interceptor = new SynalticLoggingInterceptor("test", Phase.RECEIVE);
+        interceptor.setConfiguration("test", sink, new InterceptorsUtil(new Hashtable<String, Object>()));
+
+        Exchange exchange = new ExchangeImpl();
+        Message in = new MessageImpl();
+        exchange.setInMessage(in);
+        in.setContent(InputStream.class, new ByteArrayInputStream("<request/>".getBytes("UTF-8")));
+        interceptor.handleMessage(in);
+        InputStream is = in.getContent(InputStream.class);
+        while (is.read() != -1) {
+            // the service reads the payload
+        }
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertEquals("<request/>", sink.payload(0));
+
+        // a response already logged is not logged again
+        Message out = new MessageImpl();
+        exchange.setOutMessage(out);
+        out.put(Message.RESPONSE_CODE, 401);
+        interceptor.handleMessage(out);
+        Assert.assertEquals(2, sink.entries.size());
+        AbortedExchange.aborted(exchange);
+        Assert.assertEquals(2, sink.entries.size());
+    }
+
+    @Test
+    public void testOutChain() throws Exception {
+        CapturingSink sink = new CapturingSink();
+        SynalticLoggingInterceptor interceptor = new SynalticLoggingInterceptor("test", Phase.PRE_STREAM);
+        interceptor.setConfiguration("test", sink, new InterceptorsUtil(new Hashtable<String, Object>()));
+
+        // the XML writer interceptor is added first, as on a service endpoint
+        PhaseInterceptorChain chain = new PhaseInterceptorChain(new PhaseManagerImpl().getOutPhases());
+        chain.add(new StaxOutInterceptor());
+        chain.add(interceptor);
+        chain.add(new AbstractPhaseInterceptor<Message>(Phase.WRITE) {
+            public void handleMessage(Message message) {
+                XMLStreamWriter writer = message.getContent(XMLStreamWriter.class);
+                try {
+                    writer.writeStartElement("response");
+                    writer.writeCharacters("ok");
+                    writer.writeEndElement();
+                } catch (XMLStreamException e) {
+                    throw new Fault(e);
+                }
+            }
+        });
+
+        Exchange exchange = new ExchangeImpl();
+        Message out = new MessageImpl();
+        exchange.setOutMessage(out);
+        out.put(Message.ENCODING, "UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        out.setContent(OutputStream.class, bytes);
+        out.setInterceptorChain(chain);
+        Assert.assertTrue(chain.doIntercept(out));
+        // the transport closes the stream once the chain completed
+        out.getContent(OutputStream.class).close();
+
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertTrue(sink.entries.get(0).isOutbound());
+        Assert.assertTrue(bytes.toString("UTF-8").endsWith("<response>ok</response>"));
+        // the XML writer writes in the tee
+        Assert.assertEquals(bytes.toString("UTF-8"), sink.payload(0));
+    }
+
+}
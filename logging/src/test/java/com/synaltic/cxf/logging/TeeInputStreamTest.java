@@ -0,0 +1,82 @@
+package com.synaltic.cxf.logging;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+public class TeeInputStreamTest {
+
+    private final CapturingSink sink = new CapturingSink();
+
+    @Test
+    public void testLimit() throws Exception {
+        TeeInputStream tee = tee("0123456789", 4);
+        byte[] buffer = new byte[3];
+        StringBuilder read = new StringBuilder();
+        int n;
+        while ((n = tee.read(buffer, 0, buffer.length)) != -1) {
+            read.append(new String(buffer, 0, n, "UTF-8"));
+        }
+        // the service reads the whole payload, the log only gets the first bytes
+        Assert.assertEquals("0123456789", read.toString());
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertEquals("0123", sink.payload(0));
+        Assert.assertTrue(sink.entries.get(0).isTruncated());
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        TeeInputStream tee = tee("0123456789", -1);
+        while (tee.read() != -1) {
+            // consume
+        }
+        Assert.assertEquals("0123456789", sink.payload(0));
+        Assert.assertFalse(sink.entries.get(0).isTruncated());
+    }
+
+    @Test
+    public void testExactLimit() throws Exception {
+        TeeInputStream tee = tee("0123", 4);
+        while (tee.read() != -1) {
+            // consume
+        }
+        Assert.assertEquals("0123", sink.payload(0));
+        Assert.assertFalse(sink.entries.get(0).isTruncated());
+    }
+
+    @Test
+    public void testCompletedOnce() throws Exception {
+        TeeInputStream tee = tee("0123456789", 4);
+        Assert.assertEquals('0', tee.read());
+        // the exchange goes on without reading the payload: the bytes read so far are logged
+        tee.complete();
+        Assert.assertTrue(tee.isCompleted());
+        Assert.assertEquals('1', tee.read());
+        tee.close();
+        tee.complete();
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertEquals("0", sink.payload(0));
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        TeeInputStream tee = tee("0123456789", 4);
+        // the skipped bytes of the captured prefix are read, then counted
+        Assert.assertEquals(2, tee.skip(2));
+        Assert.assertEquals('2', tee.read());
+        Assert.assertEquals(1, tee.skip(1));
+        Assert.assertEquals(6, tee.skip(6));
+        Assert.assertEquals(-1, tee.read());
+        Assert.assertEquals("0123", sink.payload(0));
+        Assert.assertTrue(sink.entries.get(0).isTruncated());
+    }
+
+    private TeeInputStream tee(String payload, int limit) throws Exception {
+        InputStream in = new ByteArrayInputStream(payload.getBytes("UTF-8"));
+        return new TeeInputStream(in, limit, new LogEntry("1", LoggerFactory.getLogger("test")), sink);
+    }
+
+}
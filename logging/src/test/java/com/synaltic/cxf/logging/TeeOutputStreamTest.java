@@ -0,0 +1,61 @@
+package com.synaltic.cxf.logging;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+
+public class TeeOutputStreamTest {
+
+    private final CapturingSink sink = new CapturingSink();
+
+    @Test
+    public void testLimit() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TeeOutputStream tee = tee(out, 4);
+        tee.write("012".getBytes("UTF-8"));
+        tee.write('3');
+        tee.write("456789".getBytes("UTF-8"), 0, 6);
+        Assert.assertTrue(sink.entries.isEmpty());
+        tee.close();
+        // the client gets the whole payload, the log only the first bytes
+        Assert.assertEquals("0123456789", out.toString("UTF-8"));
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertEquals("0123", sink.payload(0));
+        Assert.assertTrue(sink.entries.get(0).isTruncated());
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TeeOutputStream tee = tee(out, -1);
+        byte[] payload = new byte[10000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + i % 26);
+        }
+        tee.write(payload);
+        tee.close();
+        Assert.assertEquals(payload.length, sink.entries.get(0).getPayloadLength());
+        Assert.assertEquals(new String(payload, "UTF-8"), sink.payload(0));
+        Assert.assertFalse(sink.entries.get(0).isTruncated());
+    }
+
+    @Test
+    public void testCompletedOnce() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TeeOutputStream tee = tee(out, 4);
+        tee.write('0');
+        tee.complete();
+        tee.write('1');
+        tee.close();
+        Assert.assertEquals("01", out.toString("UTF-8"));
+        Assert.assertEquals(1, sink.entries.size());
+        Assert.assertEquals("0", sink.payload(0));
+    }
+
+    private TeeOutputStream tee(ByteArrayOutputStream out, int limit) {
+        return new TeeOutputStream(out, limit, new LogEntry("1", LoggerFactory.getLogger("test")), sink);
+    }
+
+}
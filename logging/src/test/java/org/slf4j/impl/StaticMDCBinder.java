@@ -0,0 +1,64 @@
+package org.slf4j.impl;
+
+import org.slf4j.spi.MDCAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MDC binding for the tests: without SLF4J binding, the MDC is a no-op and the MDC handling can't be checked.
+ * Each thread has its own context (the SLF4J basic adapter shares the parent context with the threads it starts).
+ */
+public class StaticMDCBinder {
+
+    public final static StaticMDCBinder SINGLETON = new StaticMDCBinder();
+
+    private StaticMDCBinder() {
+    }
+
+    public MDCAdapter getMDCA() {
+        return new ThreadLocalMDCAdapter();
+    }
+
+    public String getMDCAdapterClassStr() {
+        return ThreadLocalMDCAdapter.class.getName();
+    }
+
+    private static class ThreadLocalMDCAdapter implements MDCAdapter {
+
+        private final ThreadLocal<Map<String, String>> context = new ThreadLocal<Map<String, String>>() {
+            @Override
+            protected Map<String, String> initialValue() {
+                return new HashMap<String, String>();
+            }
+        };
+
+        public void put(String key, String value) {
+            context.get().put(key, value);
+        }
+
+        public String get(String key) {
+            return context.get().get(key);
+        }
+
+        public void remove(String key) {
+            context.get().remove(key);
+        }
+
+        public void clear() {
+            context.get().clear();
+        }
+
+        @SuppressWarnings("rawtypes")
+        public Map getCopyOfContextMap() {
+            return new HashMap<String, String>(context.get());
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        public void setContextMap(Map contextMap) {
+            context.set(new HashMap<String, String>(contextMap));
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package com.synaltic.cxf.syncope;
 
 import org.apache.cxf.Bus;
 import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.message.Message;
 import org.osgi.framework.*;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
@@ -9,8 +10,10 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 
 public class Activator implements BundleActivator {
 
@@ -20,32 +23,113 @@ public class Activator implements BundleActivator {
 
     private ServiceTracker<Bus, ServiceRegistration> cxfBusesTracker;
     private ServiceRegistration managedServiceRegistration;
-    private Dictionary properties;
+    private volatile InterceptorsUtil util = new InterceptorsUtil(null);
+    private SyncopeAuthenticator authenticator;
+    private final SyncopeMetrics metrics = new SyncopeMetrics();
+    private ServiceRegistration metricsRegistration;
+    private CacheSnapshot snapshot;
+    private final CacheInvalidationService invalidationService = new CacheInvalidationService();
+    private ServiceRegistration invalidationRegistration;
+    private InvalidationEndpoint invalidationEndpoint;
 
-    private void inject(Bus bus, Dictionary properties) throws Exception {
-        InterceptorsUtil util = new InterceptorsUtil(properties);
-        if (util.busDefined(bus.getId())) {
+    private synchronized void inject(Bus bus) throws Exception {
+        if (util.busDefined(bus.getId()) && find(bus) == null) {
 
             LOGGER.debug("Create Syncope interceptor");
             SyncopeInterceptor syncopeInterceptor = new SyncopeInterceptor();
-            syncopeInterceptor.setProperties(properties);
+            syncopeInterceptor.setConfiguration(util, authenticator);
             syncopeInterceptor.setBusId(bus.getId());
+            syncopeInterceptor.setMetrics(metrics.getBusMetrics(bus.getId()));
 
             LOGGER.debug("Injecting Syncope interceptor in bus {}", bus.getId());
             bus.getInInterceptors().add(syncopeInterceptor);
+            updateTokenInterceptor(bus);
+        }
+    }
+
+    /**
+     * Inject the out interceptor sending the session tokens issued by the Syncope interceptor when the tokens are
+     * enabled, remove it else.
+     */
+    private void updateTokenInterceptor(Bus bus) {
+        boolean injected = find(bus.getOutInterceptors(), SyncopeTokenInterceptor.class) != null;
+        if (util.isTokenEnabled() && !injected) {
+            LOGGER.debug("Injecting Syncope token interceptor in bus {}", bus.getId());
+            bus.getOutInterceptors().add(new SyncopeTokenInterceptor());
+        } else if (!util.isTokenEnabled() && injected) {
+            LOGGER.debug("Removing Syncope token interceptor from bus {}", bus.getId());
+            remove(bus.getOutInterceptors(), SyncopeTokenInterceptor.class);
         }
     }
 
     private void remove(Bus bus) {
-        for (Interceptor interceptor : bus.getInInterceptors()) {
-            if (interceptor instanceof SyncopeInterceptor) {
-                LOGGER.debug("Removing old Syncope interceptor");
-                bus.getInInterceptors().remove(interceptor);
+        LOGGER.debug("Removing Syncope interceptor from bus {}", bus.getId());
+        remove(bus.getInInterceptors(), SyncopeInterceptor.class);
+        remove(bus.getOutInterceptors(), SyncopeTokenInterceptor.class);
+    }
+
+    /**
+     * Remove the interceptors of a type, without modifying the list while iterating over it.
+     */
+    private static void remove(List<Interceptor<? extends Message>> interceptors, Class<?> type) {
+        List<Interceptor<? extends Message>> matching = new ArrayList<Interceptor<? extends Message>>();
+        for (Interceptor<? extends Message> interceptor : interceptors) {
+            if (type.isInstance(interceptor)) {
+                matching.add(interceptor);
+            }
+        }
+        if (!matching.isEmpty()) {
+            interceptors.removeAll(matching);
+        }
+    }
+
+    /**
+     * Find the Syncope interceptor injected in a bus.
+     *
+     * @return the interceptor, or null if the bus doesn't have one.
+     */
+    private static SyncopeInterceptor find(Bus bus) {
+        return find(bus.getInInterceptors(), SyncopeInterceptor.class);
+    }
+
+    private static <T> T find(List<Interceptor<? extends Message>> interceptors, Class<T> type) {
+        for (Interceptor<? extends Message> interceptor : interceptors) {
+            if (type.isInstance(interceptor)) {
+                return type.cast(interceptor);
             }
         }
+        return null;
+    }
+
+    /**
+     * Apply a new configuration to a bus: the interceptor already injected swaps to the new configuration, the
+     * interceptor is only injected or removed when the bus starts or stops being defined in the configuration.
+     */
+    private synchronized void update(Bus bus) throws Exception {
+        SyncopeInterceptor interceptor = find(bus);
+        boolean defined = util.busDefined(bus.getId());
+        if (interceptor != null && defined) {
+            interceptor.setConfiguration(util, authenticator);
+            updateTokenInterceptor(bus);
+        } else if (interceptor != null) {
+            remove(bus);
+        } else if (defined) {
+            inject(bus);
+        }
     }
 
     public void start(final BundleContext bundleContext) throws Exception {
+        // read the warm start snapshot, restored in the authentication cache once the configuration is available
+        snapshot = new CacheSnapshot(bundleContext.getDataFile("authentication-cache.snapshot"));
+        snapshot.read();
+
+        LOGGER.debug("Registering Syncope metrics");
+        metrics.register();
+        metricsRegistration = bundleContext.registerService(SyncopeMetrics.class.getName(), metrics, null);
+
+        LOGGER.debug("Registering Syncope cache invalidation service");
+        invalidationRegistration = bundleContext.registerService(CacheInvalidationService.class.getName(), invalidationService, null);
+
         LOGGER.debug("Starting CXF buses cxfBusesTracker");
         cxfBusesTracker = new ServiceTracker<Bus, ServiceRegistration>(bundleContext, Bus.class, null) {
 
@@ -53,7 +137,7 @@ public class Activator implements BundleActivator {
                 Bus bus = bundleContext.getService(reference);
 
                 try {
-                    inject(bus, properties);
+                    inject(bus);
                 } catch (Exception e) {
                     LOGGER.error("Can't inject Syncope interceptor", e);
                 }
@@ -79,6 +163,75 @@ public class Activator implements BundleActivator {
             cxfBusesTracker.close();
         if (managedServiceRegistration != null)
             managedServiceRegistration.unregister();
+        // the interceptors must not outlive the authenticator: an updated bundle injects its own interceptors
+        removeAll(bundleContext);
+        stopInvalidationEndpoint();
+        if (invalidationRegistration != null)
+            invalidationRegistration.unregister();
+        invalidationService.setAuthenticator(null);
+        if (snapshot != null) {
+            snapshot.cancel();
+            snapshot.save(authenticator, util);
+            snapshot.close();
+            snapshot = null;
+        }
+        if (authenticator != null) {
+            authenticator.close();
+            authenticator = null;
+        }
+        if (metricsRegistration != null)
+            metricsRegistration.unregister();
+        metrics.unregister();
+    }
+
+    /**
+     * Remove the interceptors from all the buses.
+     */
+    private synchronized void removeAll(BundleContext bundleContext) {
+        try {
+            ServiceReference[] references = bundleContext.getServiceReferences(Bus.class.getName(), null);
+            if (references != null) {
+                for (ServiceReference reference : references) {
+                    Bus bus = (Bus) bundleContext.getService(reference);
+                    if (bus != null) {
+                        try {
+                            remove(bus);
+                        } finally {
+                            bundleContext.ungetService(reference);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Can't remove Syncope interceptors", e);
+        }
+    }
+
+    private synchronized void updateInvalidationEndpoint(InterceptorsUtil util) {
+        if (invalidationEndpoint != null && invalidationEndpoint.matches(util)) {
+            return;
+        }
+        stopInvalidationEndpoint();
+        if (util.getInvalidationPort() <= 0) {
+            return;
+        }
+        try {
+            InvalidationEndpoint endpoint = new InvalidationEndpoint(util.getInvalidationHost(), util.getInvalidationPort(),
+                    util.getInvalidationKey(), invalidationService);
+            endpoint.start();
+            invalidationEndpoint = endpoint;
+        } catch (Exception e) {
+            LOGGER.error("Can't start the Syncope cache invalidation endpoint", e);
+        } catch (LinkageError e) {
+            LOGGER.error("Can't start the Syncope cache invalidation endpoint, com.sun.net.httpserver is not available", e);
+        }
+    }
+
+    private synchronized void stopInvalidationEndpoint() {
+        if (invalidationEndpoint != null) {
+            invalidationEndpoint.stop();
+            invalidationEndpoint = null;
+        }
     }
 
     private final class ConfigUpdater implements ManagedService {
@@ -90,20 +243,56 @@ public class Activator implements BundleActivator {
         }
 
         public void updated(Dictionary<String, ?> config) throws ConfigurationException {
-            properties = config;
+            // compile the configuration once for all the buses and interceptors
+            InterceptorsUtil util = new InterceptorsUtil(config);
+            SyncopeAuthenticator oldAuthenticator;
+            synchronized (Activator.this) {
+                oldAuthenticator = Activator.this.authenticator;
+            }
+            SyncopeAuthenticator authenticator;
+            if (oldAuthenticator != null && oldAuthenticator.matches(util)) {
+                // only the authorizations changed: keep the cache, the HTTP connections and the circuit state
+                LOGGER.debug("Syncope settings unchanged, keeping the authenticator");
+                authenticator = oldAuthenticator;
+                oldAuthenticator = null;
+            } else {
+                authenticator = new SyncopeAuthenticator(util, metrics);
+                if (snapshot != null) {
+                    snapshot.restore(authenticator, util);
+                }
+            }
+            if (snapshot != null) {
+                snapshot.schedule(authenticator, util);
+            }
+            synchronized (Activator.this) {
+                // the buses added from now on get the new configuration
+                Activator.this.util = util;
+                Activator.this.authenticator = authenticator;
+            }
+            metrics.setAuthenticator(authenticator);
+            invalidationService.setAuthenticator(authenticator);
+            updateInvalidationEndpoint(util);
             try {
                 ServiceReference[] references = bundleContext.getServiceReferences(Bus.class.getName(), null);
-                for (ServiceReference reference : references) {
-                    Bus bus = (Bus) bundleContext.getService(reference);
-
-                    InterceptorsUtil util = new InterceptorsUtil(properties);
-                    remove(bus);
-                    if (util.busDefined(bus.getId())) {
-                        inject(bus, properties);
+                if (references != null) {
+                    for (ServiceReference reference : references) {
+                        Bus bus = (Bus) bundleContext.getService(reference);
+                        if (bus != null) {
+                            try {
+                                update(bus);
+                            } finally {
+                                bundleContext.ungetService(reference);
+                            }
+                        }
                     }
                 }
             } catch (Exception e) {
                 throw new ConfigurationException("", "Can't update configuration", e);
+            } finally {
+                if (oldAuthenticator != null) {
+                    // closed once the requests using it are complete
+                    oldAuthenticator.retire();
+                }
             }
         }
     }
@@ -0,0 +1,385 @@
+package com.synaltic.cxf.syncope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of the roles returned by Syncope for a given user.
+ * Entries expire after a TTL and the least recently used entry is evicted when the cache is full.
+ * Expired entries can be kept for a grace period, used only while Syncope is unavailable.
+ * The cache is keyed on the credential key computed by {@link SyncopeAuthenticator#key(String, String)}: the clear
+ * password is never stored.
+ * <p>
+ * The entries are spread on segments (by key hash), each segment being an access ordered map with its own lock and
+ * an equal share of the maximum size, so the concurrent lookups of different users don't contend on a single lock.
+ * The eviction is least recently used per segment, an approximation of the global LRU order.
+ */
+public class AuthenticationCache {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AuthenticationCache.class);
+
+    private final static int MAX_SEGMENTS = 16;
+
+    private final long ttl;
+    private final long grace;
+    private final SyncopeMetrics metrics;
+    private final Segment[] segments;
+    // incremented by the invalidations, so a lookup started before an invalidation doesn't cache outdated roles
+    private final AtomicLong generation = new AtomicLong();
+
+    public AuthenticationCache(final int maxEntries, long ttl) {
+        this(maxEntries, ttl, 0, null);
+    }
+
+    public AuthenticationCache(final int maxEntries, long ttl, long grace, final SyncopeMetrics metrics) {
+        this.ttl = ttl;
+        this.grace = grace;
+        this.metrics = metrics;
+        // a power of two, each segment holding at least one entry
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 <= maxEntries) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first segments take the remainder, the total being maxEntries
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+        }
+    }
+
+    private Segment segment(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Get the roles cached for a key.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     * @return the cached roles, or null if the key is not cached or expired.
+     */
+    public List<String> get(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (entry.expiration <= now) {
+                LOGGER.debug("Authentication cache entry expired");
+                if (entry.expiration + grace <= now) {
+                    segment.remove(key);
+                    if (metrics != null) {
+                        metrics.cacheEviction();
+                    }
+                }
+                return null;
+            }
+            return entry.roles;
+        }
+    }
+
+    /**
+     * Get the roles cached for a key, even if expired, as long as the grace period is not elapsed.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     * @return the cached roles, or null if the key is not cached or the grace period is elapsed.
+     */
+    public List<String> getStale(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry == null || entry.expiration + grace <= System.currentTimeMillis()) {
+                return null;
+            }
+            return entry.roles;
+        }
+    }
+
+    /**
+     * Cache the roles for a key.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     * @param roles the roles returned by Syncope.
+     */
+    public void put(String key, List<String> roles) {
+        put(key, roles, generation.get());
+    }
+
+    /**
+     * Cache the roles for a key, unless the cache has been invalidated since the given generation.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     * @param roles the roles returned by Syncope.
+     * @param generation the cache generation when the Syncope lookup started, see {@link #generation()}.
+     */
+    public void put(String key, List<String> roles, long generation) {
+        List<String> copy = Collections.unmodifiableList(new ArrayList<String>(roles));
+        Segment segment = segment(key);
+        synchronized (segment) {
+            // checked under the segment lock: an invalidation increments the generation before sweeping the segments
+            if (generation != this.generation.get()) {
+                LOGGER.debug("Authentication cache invalidated during the Syncope lookup, not caching the roles");
+                // an entry of another user survived the invalidation, let it be refreshed again
+                Entry entry = segment.get(key);
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+                return;
+            }
+            long now = System.currentTimeMillis();
+            segment.put(key, new Entry(copy, now, now + ttl));
+        }
+    }
+
+    /**
+     * Mark a valid entry as being refreshed if it is older than the given age.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     * @param age the age (in milliseconds) after which the entry has to be refreshed.
+     * @return true if the caller has to refresh the entry, false if the entry is fresh or already being refreshed.
+     */
+    public boolean markRefresh(String key, long age) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry == null || entry.refreshing) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (now - entry.created < age || entry.expiration <= now) {
+                return false;
+            }
+            entry.refreshing = true;
+            return true;
+        }
+    }
+
+    /**
+     * Cancel the refresh of an entry marked by {@link #markRefresh(String, long)}.
+     *
+     * @param key the cache key, as returned by {@link SyncopeAuthenticator#key(String, String)}.
+     */
+    public void cancelRefresh(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null) {
+                entry.refreshing = false;
+            }
+        }
+    }
+
+    /**
+     * Get the valid entries (including the ones in the grace period), segment per segment from the least to the most
+     * recently used.
+     *
+     * @return the entries.
+     */
+    public List<SnapshotEntry> snapshot() {
+        long now = System.currentTimeMillis();
+        List<SnapshotEntry> snapshot = new ArrayList<SnapshotEntry>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<String, Entry> entry : segment.entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.expiration + grace > now) {
+                        snapshot.add(new SnapshotEntry(entry.getKey(), value.roles, value.created, value.expiration));
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restore an entry from a snapshot, its expiration being bounded by the current TTL.
+     *
+     * @param entry the snapshot entry.
+     */
+    public void restore(SnapshotEntry entry) {
+        long now = System.currentTimeMillis();
+        long expiration = Math.min(entry.expiration, now + ttl);
+        if (expiration + grace > now) {
+            Segment segment = segment(entry.key);
+            synchronized (segment) {
+                segment.put(entry.key, new Entry(Collections.unmodifiableList(new ArrayList<String>(entry.roles)),
+                        Math.min(entry.created, now), expiration));
+            }
+        }
+    }
+
+    /**
+     * @return the current generation of the cache, incremented by each invalidation.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidate all the entries of a user.
+     *
+     * @param username the user name.
+     * @return the number of invalidated entries.
+     */
+    public int invalidateUser(String username) {
+        generation.incrementAndGet();
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<String> keys = segment.keySet().iterator();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    // the key is the username followed by ':' and the credential hash
+                    if (key.length() > username.length() && key.charAt(username.length()) == ':' && key.startsWith(username)
+                            && key.indexOf(':', username.length() + 1) < 0) {
+                        keys.remove();
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Invalidate all the entries having a role.
+     *
+     * @param role the role (case insensitive).
+     * @return the number of invalidated entries.
+     */
+    public int invalidateRole(String role) {
+        generation.incrementAndGet();
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Entry> values = segment.values().iterator();
+                while (values.hasNext()) {
+                    for (String entryRole : values.next().roles) {
+                        if (entryRole.equalsIgnoreCase(role)) {
+                            values.remove();
+                            count++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    public void remove(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public int clear() {
+        generation.incrementAndGet();
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.size();
+                segment.clear();
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cache entry as written in the warm start snapshot.
+     */
+    public final static class SnapshotEntry {
+
+        private final String key;
+        private final List<String> roles;
+        private final long created;
+        private final long expiration;
+
+        public SnapshotEntry(String key, List<String> roles, long created, long expiration) {
+            this.key = key;
+            this.roles = roles;
+            this.created = created;
+            this.expiration = expiration;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<String> getRoles() {
+            return roles;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getExpiration() {
+            return expiration;
+        }
+
+    }
+
+    /**
+     * Access ordered map of a segment, evicting its least recently used entry when full. Guarded by itself.
+     */
+    private final class Segment extends LinkedHashMap<String, Entry> {
+
+        private final int maxEntries;
+
+        private Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                if (metrics != null) {
+                    metrics.cacheEviction();
+                }
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    private final static class Entry {
+
+        private final List<String> roles;
+        private final long created;
+        private final long expiration;
+        private boolean refreshing;
+
+        private Entry(List<String> roles, long created, long expiration) {
+            this.roles = roles;
+            this.created = created;
+            this.expiration = expiration;
+        }
+
+    }
+
+}
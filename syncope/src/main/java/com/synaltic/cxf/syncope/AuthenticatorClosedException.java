@@ -0,0 +1,13 @@
+package com.synaltic.cxf.syncope;
+
+/**
+ * Authentication refused because the authenticator has been retired and closed after a configuration update:
+ * the request has to use the authenticator of the new configuration.
+ */
+public class AuthenticatorClosedException extends IllegalStateException {
+
+    public AuthenticatorClosedException() {
+        super("Syncope authenticator is closed");
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.synaltic.cxf.syncope;
+
+/**
+ * Authentication metrics of the Syncope interceptor on a CXF bus.
+ * The latencies are in microseconds.
+ */
+public class BusMetrics implements BusMetricsMBean {
+
+    private final String busId;
+
+    private final StripedCounter missingCredentials = new StripedCounter();
+    private final StripedCounter rejected = new StripedCounter();
+    private final StripedCounter throttled = new StripedCounter();
+    private final StripedCounter unauthorized = new StripedCounter();
+    private final StripedCounter errors = new StripedCounter();
+    private final StripedCounter successes = new StripedCounter();
+    private final StripedCounter tokenSuccesses = new StripedCounter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public BusMetrics(String busId) {
+        this.busId = busId;
+    }
+
+    /**
+     * Record a request without credentials.
+     */
+    public void missingCredentials() {
+        missingCredentials.increment();
+    }
+
+    /**
+     * Record a request with credentials rejected by Syncope.
+     */
+    public void rejected(long nanos) {
+        rejected.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a request rejected locally because of too many authentication failures.
+     */
+    public void throttled(long nanos) {
+        throttled.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a request with valid credentials but without the roles required by the bus.
+     */
+    public void unauthorized(long nanos) {
+        unauthorized.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a request failing for another reason (Syncope unavailable, configuration issue).
+     */
+    public void error(long nanos) {
+        errors.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record an authenticated and authorized request.
+     */
+    public void success(long nanos) {
+        successes.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a request authorized locally with a session token.
+     */
+    public void tokenSuccess(long nanos) {
+        tokenSuccesses.increment();
+        latency.record(nanos);
+    }
+
+    public String getBusId() {
+        return busId;
+    }
+
+    public long getAttempts() {
+        return getMissingCredentials() + getRejected() + getThrottled() + getUnauthorized() + getErrors() + getSuccesses() + getTokenSuccesses();
+    }
+
+    public long getMissingCredentials() {
+        return missingCredentials.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getUnauthorized() {
+        return unauthorized.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getTokenSuccesses() {
+        return tokenSuccesses.sum();
+    }
+
+    public double getLatencyMean() {
+        return latency.getMean();
+    }
+
+    public long getLatency50thPercentile() {
+        return latency.getPercentile(50);
+    }
+
+    public long getLatency99thPercentile() {
+        return latency.getPercentile(99);
+    }
+
+    public long getLatencyMax() {
+        return latency.getMax();
+    }
+
+    public void reset() {
+        missingCredentials.reset();
+        rejected.reset();
+        throttled.reset();
+        unauthorized.reset();
+        errors.reset();
+        successes.reset();
+        tokenSuccesses.reset();
+        latency.reset();
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.synaltic.cxf.syncope;
+
+/**
+ * JMX view of the Syncope interceptor metrics on a CXF bus.
+ */
+public interface BusMetricsMBean {
+
+    String getBusId();
+
+    long getAttempts();
+
+    long getMissingCredentials();
+
+    long getRejected();
+
+    long getThrottled();
+
+    long getUnauthorized();
+
+    long getErrors();
+
+    long getSuccesses();
+
+    long getTokenSuccesses();
+
+    double getLatencyMean();
+
+    long getLatency50thPercentile();
+
+    long getLatency99thPercentile();
+
+    long getLatencyMax();
+
+    void reset();
+
+}
@@ -0,0 +1,60 @@
+package com.synaltic.cxf.syncope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invalidation of the cached Syncope authentications, registered as an OSGi service and used by the
+ * syncope:cache-invalidate command and the invalidation HTTP endpoint.
+ * The session tokens issued to the invalidated users are revoked too, the clients authenticating again with their
+ * credentials.
+ */
+public class CacheInvalidationService {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheInvalidationService.class);
+
+    private volatile SyncopeAuthenticator authenticator;
+
+    public void setAuthenticator(SyncopeAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Invalidate the cached authentications of a user.
+     *
+     * @param username the user name.
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateUser(String username) {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        int count = authenticator != null ? authenticator.invalidateUser(username) : 0;
+        LOGGER.info("Invalidated {} authentication cache entries of user {}", count, username);
+        return count;
+    }
+
+    /**
+     * Invalidate the cached authentications of the users having a role.
+     *
+     * @param role the role (case insensitive).
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateRole(String role) {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        int count = authenticator != null ? authenticator.invalidateRole(role) : 0;
+        LOGGER.info("Invalidated {} authentication cache entries with role {}", count, role);
+        return count;
+    }
+
+    /**
+     * Invalidate all the cached authentications.
+     *
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateAll() {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        int count = authenticator != null ? authenticator.invalidateAll() : 0;
+        LOGGER.info("Invalidated all the {} authentication cache entries", count);
+        return count;
+    }
+
+}
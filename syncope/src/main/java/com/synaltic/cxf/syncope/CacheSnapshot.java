@@ -0,0 +1,285 @@
+package com.synaltic.cxf.syncope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Warm start snapshot of the authentication cache: the entries (credential keys, roles and expiry) and the salt of
+ * the credential keys are saved when the bundle stops and periodically, and restored when the bundle starts.
+ * <p>
+ * The snapshot is compressed, encrypted (AES-CBC) and authenticated (HMAC-SHA256) with keys derived from the
+ * syncope.cache.snapshot.key secret, so it exposes neither the roles nor the salted hashes. The file is read when
+ * the bundle starts, and decrypted when the configuration (with the secret) is available.
+ */
+public class CacheSnapshot {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    private final static byte[] MAGIC = { 'S', 'C', 'S', '1' };
+    private final static int IV_LENGTH = 16;
+    private final static int MAC_LENGTH = 32;
+    private final static int MIN_KEY_LENGTH = 32;
+
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    private byte[] pending;
+    private ScheduledFuture<?> periodic;
+
+    public CacheSnapshot(File file) {
+        this.file = file;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "syncope-cache-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Read the snapshot file, to restore it with {@link #restore(SyncopeAuthenticator, InterceptorsUtil)}.
+     */
+    public synchronized void read() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, n);
+                }
+                pending = bytes.toByteArray();
+            } finally {
+                in.close();
+            }
+            LOGGER.debug("Read authentication cache snapshot {} ({} bytes)", file, pending.length);
+        } catch (IOException e) {
+            LOGGER.warn("Can't read authentication cache snapshot {}", file, e);
+        }
+    }
+
+    /**
+     * Restore the snapshot read when the bundle started in the authenticator cache (once).
+     *
+     * @param authenticator the authenticator, not used yet by the interceptors.
+     * @param util the configuration.
+     */
+    public synchronized void restore(SyncopeAuthenticator authenticator, InterceptorsUtil util) {
+        byte[] snapshot = pending;
+        pending = null;
+        if (snapshot == null || authenticator.getCache() == null || !util.isCacheSnapshotEnabled()) {
+            return;
+        }
+        try {
+            byte[] plain = decrypt(snapshot, util.getCacheSnapshotKey());
+            if (plain == null) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(plain)));
+            byte[] salt = new byte[in.readUnsignedByte()];
+            in.readFully(salt);
+            int count = in.readInt();
+            List<AuthenticationCache.SnapshotEntry> entries = new ArrayList<AuthenticationCache.SnapshotEntry>(count);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long created = in.readLong();
+                long expiration = in.readLong();
+                int roleCount = in.readUnsignedShort();
+                List<String> roles = new ArrayList<String>(roleCount);
+                for (int j = 0; j < roleCount; j++) {
+                    roles.add(in.readUTF());
+                }
+                entries.add(new AuthenticationCache.SnapshotEntry(key, roles, created, expiration));
+            }
+            authenticator.restore(salt, entries);
+            LOGGER.info("Restored {} authentication cache entries from {}", authenticator.getCache().size(), file);
+        } catch (Exception e) {
+            LOGGER.warn("Can't restore authentication cache snapshot {}", file, e);
+        }
+    }
+
+    /**
+     * Save the authenticator cache in the snapshot file.
+     *
+     * @param authenticator the authenticator.
+     * @param util the configuration.
+     */
+    public synchronized void save(SyncopeAuthenticator authenticator, InterceptorsUtil util) {
+        if (file == null || authenticator == null || authenticator.getCache() == null || !util.isCacheSnapshotEnabled()) {
+            return;
+        }
+        try {
+            String secret = util.getCacheSnapshotKey();
+            if (!validKey(secret)) {
+                return;
+            }
+            List<AuthenticationCache.SnapshotEntry> entries = authenticator.getCache().snapshot();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 128);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+            byte[] salt = authenticator.getSalt();
+            out.writeByte(salt.length);
+            out.write(salt);
+            out.writeInt(entries.size());
+            for (AuthenticationCache.SnapshotEntry entry : entries) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getCreated());
+                out.writeLong(entry.getExpiration());
+                out.writeShort(entry.getRoles().size());
+                for (String role : entry.getRoles()) {
+                    out.writeUTF(role);
+                }
+            }
+            out.close();
+
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create directory " + parent);
+            }
+            // write a temporary file, then replace the snapshot
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                stream.write(encrypt(bytes.toByteArray(), secret));
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Can't rename " + temp + " to " + file);
+                }
+            }
+            LOGGER.debug("Saved {} authentication cache entries in {}", entries.size(), file);
+        } catch (Exception e) {
+            LOGGER.warn("Can't save authentication cache snapshot {}", file, e);
+        }
+    }
+
+    /**
+     * Save the authenticator cache periodically, replacing the previous periodic save.
+     *
+     * @param authenticator the authenticator.
+     * @param util the configuration.
+     */
+    public synchronized void schedule(final SyncopeAuthenticator authenticator, final InterceptorsUtil util) {
+        cancel();
+        if (!util.isCacheSnapshotEnabled() || authenticator.getCache() == null) {
+            return;
+        }
+        long interval = Math.max(1000, util.getCacheSnapshotInterval());
+        periodic = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                save(authenticator, util);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void cancel() {
+        if (periodic != null) {
+            periodic.cancel(false);
+            periodic = null;
+        }
+    }
+
+    /**
+     * Stop the periodic saves.
+     */
+    public void close() {
+        cancel();
+        scheduler.shutdownNow();
+    }
+
+    private static boolean validKey(String secret) {
+        if (secret == null || secret.length() < MIN_KEY_LENGTH) {
+            LOGGER.warn("syncope.cache.snapshot.key must be at least {} characters long, the cache snapshot is disabled", MIN_KEY_LENGTH);
+            return false;
+        }
+        return true;
+    }
+
+    private static byte[] encrypt(byte[] plain, String secret) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey(secret), new IvParameterSpec(iv));
+        byte[] encrypted = cipher.doFinal(plain);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MAGIC.length + IV_LENGTH + encrypted.length + MAC_LENGTH);
+        out.write(MAGIC);
+        out.write(iv);
+        out.write(encrypted);
+        out.write(mac(secret, out.toByteArray()));
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] snapshot, String secret) throws Exception {
+        if (!validKey(secret)) {
+            return null;
+        }
+        if (snapshot.length < MAGIC.length + IV_LENGTH + MAC_LENGTH
+                || !Arrays.equals(MAGIC, Arrays.copyOf(snapshot, MAGIC.length))) {
+            LOGGER.warn("Invalid authentication cache snapshot format");
+            return null;
+        }
+        int signedLength = snapshot.length - MAC_LENGTH;
+        byte[] signed = Arrays.copyOf(snapshot, signedLength);
+        byte[] mac = Arrays.copyOfRange(snapshot, signedLength, snapshot.length);
+        if (!MessageDigest.isEqual(mac, mac(secret, signed))) {
+            LOGGER.warn("Authentication cache snapshot not signed with the current key, ignoring it");
+            return null;
+        }
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey(secret),
+                new IvParameterSpec(snapshot, MAGIC.length, IV_LENGTH));
+        return cipher.doFinal(snapshot, MAGIC.length + IV_LENGTH, signedLength - MAGIC.length - IV_LENGTH);
+    }
+
+    private static SecretKeySpec encryptionKey(String secret) throws Exception {
+        return new SecretKeySpec(Arrays.copyOf(derive("encryption", secret), 16), "AES");
+    }
+
+    private static byte[] mac(String secret, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(derive("mac", secret), "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    private static byte[] derive(String purpose, String secret) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(("syncope-cache-snapshot-" + purpose).getBytes("UTF-8"));
+        digest.update((byte) 0);
+        return digest.digest(secret.getBytes("UTF-8"));
+    }
+
+}
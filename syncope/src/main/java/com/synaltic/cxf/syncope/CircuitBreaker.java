@@ -0,0 +1,160 @@
+package com.synaltic.cxf.syncope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker around the Syncope calls.
+ * <p>
+ * The outcome of the last calls is recorded in a sliding window. When the failure rate or the slow call rate
+ * reaches its threshold, the circuit opens and the calls are rejected without calling Syncope. After the open
+ * duration, the circuit is half open: a limited number of probe calls are allowed, closing the circuit if they
+ * all succeed, opening it again else.
+ */
+public class CircuitBreaker {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureRateThreshold;
+    private final long slowCallThreshold;
+    private final int slowCallRateThreshold;
+    private final int minimumCalls;
+    private final long openDuration;
+    private final int halfOpenCalls;
+
+    // sliding window of the last call outcomes
+    private final boolean[] failures;
+    private final boolean[] slows;
+    private int position;
+    private int calls;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(InterceptorsUtil util) {
+        this.failureRateThreshold = util.getCircuitFailureRateThreshold();
+        this.slowCallThreshold = util.getCircuitSlowCallThreshold();
+        this.slowCallRateThreshold = util.getCircuitSlowCallRateThreshold();
+        this.minimumCalls = util.getCircuitMinimumCalls();
+        this.openDuration = util.getCircuitOpenDuration();
+        this.halfOpenCalls = Math.max(1, util.getCircuitHalfOpenCalls());
+        int windowSize = Math.max(1, util.getCircuitWindowSize());
+        this.failures = new boolean[windowSize];
+        this.slows = new boolean[windowSize];
+    }
+
+    /**
+     * Check if a call to Syncope is allowed.
+     *
+     * @return true if the call is allowed, false if the circuit is open.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                return false;
+            }
+            LOGGER.info("Syncope circuit breaker is half open");
+            state = State.HALF_OPEN;
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    /**
+     * Record a call answered by Syncope (including the rejected credentials).
+     *
+     * @param duration the call duration in milliseconds.
+     */
+    public synchronized void onSuccess(long duration) {
+        boolean slow = duration >= slowCallThreshold;
+        if (state == State.HALF_OPEN) {
+            if (slow) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false, slow);
+        }
+    }
+
+    /**
+     * Record a call failure (Syncope unreachable, timeout, server error).
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true, false);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure, boolean slow) {
+        if (calls == failures.length) {
+            if (failures[position]) {
+                failureCount--;
+            }
+            if (slows[position]) {
+                slowCount--;
+            }
+        } else {
+            calls++;
+        }
+        failures[position] = failure;
+        slows[position] = slow;
+        if (failure) {
+            failureCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+        position = (position + 1) % failures.length;
+
+        if (calls >= minimumCalls
+                && (failureCount * 100 >= failureRateThreshold * calls || slowCount * 100 >= slowCallRateThreshold * calls)) {
+            open();
+        }
+    }
+
+    private void open() {
+        LOGGER.warn("Syncope circuit breaker is open ({} failures, {} slow calls on {} calls)", failureCount, slowCount, calls);
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        resetWindow();
+    }
+
+    private void close() {
+        LOGGER.info("Syncope circuit breaker is closed");
+        state = State.CLOSED;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = false;
+            slows[i] = false;
+        }
+        position = 0;
+        calls = 0;
+        failureCount = 0;
+        slowCount = 0;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.synaltic.cxf.syncope;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token buckets of authentication failures, per key (username or client address).
+ * Each failure takes a token from the key bucket, the bucket being refilled at a constant rate up to its burst
+ * capacity. The key is throttled while its bucket is empty.
+ * The number of tracked keys is bounded: when full, the idle (refilled) buckets are dropped and, if still full,
+ * the new keys are not tracked.
+ */
+public class FailureThrottle {
+
+    private final double burst;
+    private final double ratePerMillis;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * @param burst the number of failures allowed before throttling.
+     * @param rate the number of failures allowed per second once throttled.
+     * @param maxKeys the maximum number of tracked keys.
+     */
+    public FailureThrottle(int burst, double rate, int maxKeys) {
+        this.burst = Math.max(1, burst);
+        this.ratePerMillis = rate / 1000;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Check if a key is throttled.
+     *
+     * @param key the username or client address (can be null).
+     * @return true if the bucket of the key is empty, false else.
+     */
+    public boolean isThrottled(String key) {
+        if (key == null) {
+            return false;
+        }
+        Bucket bucket = buckets.get(key);
+        return bucket != null && bucket.available(System.currentTimeMillis()) < 1;
+    }
+
+    /**
+     * Record an authentication failure for a key.
+     *
+     * @param key the username or client address (can be null).
+     */
+    public void failure(String key) {
+        if (key == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys) {
+                purge(now);
+                if (buckets.size() >= maxKeys) {
+                    return;
+                }
+            }
+            Bucket created = new Bucket(burst, now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        bucket.take(now);
+    }
+
+    /**
+     * Forget the failures of a key (after a successful authentication).
+     *
+     * @param key the username or client address (can be null).
+     */
+    public void reset(String key) {
+        if (key != null) {
+            buckets.remove(key);
+        }
+    }
+
+    private void purge(long now) {
+        Iterator<Map.Entry<String, Bucket>> iterator = buckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().available(now) >= burst) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    private final class Bucket {
+
+        private double tokens;
+        private long updated;
+
+        private Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.updated = now;
+        }
+
+        private synchronized double available(long now) {
+            refill(now);
+            return tokens;
+        }
+
+        private synchronized void take(long now) {
+            refill(now);
+            tokens = Math.max(0, tokens - 1);
+        }
+
+        private void refill(long now) {
+            if (now > updated) {
+                tokens = Math.min(burst, tokens + (now - updated) * ratePerMillis);
+                updated = now;
+            }
+        }
+
+    }
+
+}
@@ -1,26 +1,74 @@
 package com.synaltic.cxf.syncope;
 
+import com.synaltic.cxf.common.BusPatternMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Utils to get the CXF buses defined in the configuration
+ * Utils to get the CXF buses defined in the configuration.
+ * <p>
+ * An instance is an immutable snapshot of the configuration: the bus patterns are compiled once
+ * (see {@link BusPatternMatcher} for the precedence of the patterns) and the roles allowed on a bus
+ * are resolved once per bus ID, so {@link #authorize(String, List)} is a hash lookup.
+ * The properties starting with {@code syncope.} are settings, not bus patterns.
  */
 public class InterceptorsUtil {
 
-    private Dictionary properties;
-
     private final static Logger LOGGER = LoggerFactory.getLogger(InterceptorsUtil.class);
 
+    private final static String SETTINGS_PREFIX = "syncope.";
+
+    // marker for a bus ID not matching any pattern
+    private final static Set<String> UNDEFINED = Collections.unmodifiableSet(new HashSet<String>());
+
+    private final Hashtable<String, Object> properties;
+    private final BusPatternMatcher<Set<String>> buses;
+
     public InterceptorsUtil(Dictionary properties) {
-        this.properties = properties;
+        Map<String, Set<String>> patterns = new LinkedHashMap<String, Set<String>>();
+        if (properties != null) {
+            this.properties = new Hashtable<String, Object>();
+            Enumeration keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                Object value = properties.get(key);
+                this.properties.put(key, value);
+                if (key.startsWith(SETTINGS_PREFIX)) {
+                    continue;
+                }
+                LOGGER.debug("Adding CXF bus {}", key);
+                patterns.put(key, foldRoles(value));
+            }
+        } else {
+            this.properties = null;
+        }
+        this.buses = new BusPatternMatcher<Set<String>>(patterns);
+    }
+
+    private static Set<String> foldRoles(Object value) {
+        Set<String> roles = new HashSet<String>();
+        if (value != null) {
+            for (String role : value.toString().split(",")) {
+                role = role.trim();
+                if (!role.isEmpty()) {
+                    roles.add(role.toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(roles);
     }
 
     /**
@@ -29,53 +77,49 @@ public class InterceptorsUtil {
      * @return the list of bus ID defined
      */
     public List<String> getBuses() throws Exception {
-        ArrayList<String> buses = new ArrayList<String>();
-        if (properties != null) {
-            Enumeration keys = properties.keys();
-            while (keys.hasMoreElements()) {
-                String key = (String) keys.nextElement();
-                LOGGER.debug("Adding CXF bus {}", key);
-                buses.add(key);
-            }
-        }
-        return buses;
+        return new ArrayList<String>(buses.getPatterns());
     }
 
     /**
-     * Get the roles defined for a given bus.
+     * Get the roles defined for a given bus, resolved once per bus ID.
      *
-     * @param busId the CXF bus ID (or prefix string) as defined in the configuration.
-     * @return the list of roles defined for the bus.
+     * @param busId the CXF bus ID.
+     * @return the set of lower case roles defined for the bus, or {@link #UNDEFINED} if the bus is not defined.
      */
-    private String[] getBusRoles(String busId) throws Exception {
-        if (properties != null) {
-            Enumeration keys = properties.keys();
-            while (keys.hasMoreElements()) {
-                String key = (String) keys.nextElement();
-                LOGGER.debug("Checking bus {} on regex {}", busId, key);
-                Pattern pattern = Pattern.compile(key);
-                Matcher matcher = pattern.matcher(busId);
-                if (matcher.matches()) {
-                    String roles = (String) properties.get(key);
-                    LOGGER.debug("Roles found for CXF bus {}: {}", busId, roles);
-                    return roles.split(",");
-                }
-            }
-        }
-        return null;
+    private Set<String> getBusRoles(String busId) {
+        Set<String> roles = buses.match(busId);
+        return roles != null ? roles : UNDEFINED;
     }
 
     /**
      * Get the REST API address of Syncope.
      *
-     * @return the REST API address of Syncope.
+     * @return the REST API address of Syncope (the first one if several addresses are defined).
      */
     public String getSyncopeAddress() throws Exception {
+        return getSyncopeAddresses().get(0);
+    }
+
+    /**
+     * Get the REST API addresses of the Syncope nodes.
+     *
+     * @return the comma separated addresses of the syncope.address property.
+     */
+    public List<String> getSyncopeAddresses() throws Exception {
         if (properties != null) {
             Object address = properties.get("syncope.address");
             if (address != null) {
                 LOGGER.debug("Found syncope.address property: {}", address);
-                return ((String) address);
+                List<String> addresses = new ArrayList<String>();
+                for (String value : address.toString().split(",")) {
+                    value = value.trim();
+                    if (!value.isEmpty()) {
+                        addresses.add(value);
+                    }
+                }
+                if (!addresses.isEmpty()) {
+                    return addresses;
+                }
             }
         }
         LOGGER.error("syncope.address property not found in the configuration");
@@ -92,6 +136,484 @@ public class InterceptorsUtil {
         throw new IllegalStateException("syncope.version property not found in the configuration");
     }
 
+    /**
+     * Check if the authentication cache is enabled.
+     *
+     * @return true if the syncope.cache.enabled property is true, false else.
+     */
+    public boolean isCacheEnabled() {
+        return getBoolean("syncope.cache.enabled", false);
+    }
+
+    /**
+     * Get the maximum number of entries in the authentication cache.
+     *
+     * @return the syncope.cache.size property, 1000 by default.
+     */
+    public int getCacheSize() {
+        return (int) getLong("syncope.cache.size", 1000);
+    }
+
+    /**
+     * Get the time to live (in milliseconds) of the authentication cache entries.
+     *
+     * @return the syncope.cache.ttl property, 60000 by default.
+     */
+    public long getCacheTtl() {
+        return getLong("syncope.cache.ttl", 60000);
+    }
+
+    /**
+     * Get the fraction of the TTL after which a cache entry is revalidated in background when used.
+     *
+     * @return the syncope.cache.refreshAhead property, 0 (no refresh ahead) by default.
+     */
+    public double getCacheRefreshAhead() {
+        return getDouble("syncope.cache.refreshAhead", 0);
+    }
+
+    /**
+     * Get the number of threads revalidating the cache entries in background.
+     *
+     * @return the syncope.cache.refreshThreads property, 2 by default.
+     */
+    public int getCacheRefreshThreads() {
+        return (int) getLong("syncope.cache.refreshThreads", 2);
+    }
+
+    /**
+     * Get the maximum number of cache entries waiting for a background revalidation.
+     *
+     * @return the syncope.cache.refreshQueueSize property, 100 by default.
+     */
+    public int getCacheRefreshQueueSize() {
+        return (int) getLong("syncope.cache.refreshQueueSize", 100);
+    }
+
+    /**
+     * Check if the authentication cache is saved in a snapshot, reloaded when the bundle starts.
+     *
+     * @return true if the syncope.cache.snapshot.enabled property is true, false else.
+     */
+    public boolean isCacheSnapshotEnabled() {
+        return getBoolean("syncope.cache.snapshot.enabled", false);
+    }
+
+    /**
+     * Get the secret encrypting and authenticating the cache snapshot.
+     *
+     * @return the syncope.cache.snapshot.key property, null if not defined.
+     */
+    public String getCacheSnapshotKey() {
+        Object value = properties != null ? properties.get("syncope.cache.snapshot.key") : null;
+        return value != null ? value.toString().trim() : null;
+    }
+
+    /**
+     * Get the interval (in milliseconds) between two cache snapshots.
+     *
+     * @return the syncope.cache.snapshot.interval property, 60000 by default.
+     */
+    public long getCacheSnapshotInterval() {
+        return getLong("syncope.cache.snapshot.interval", 60000);
+    }
+
+    /**
+     * Get the maximum number of pooled connections to Syncope.
+     *
+     * @return the syncope.http.maxConnections property, 200 by default.
+     */
+    public int getHttpMaxConnections() {
+        return (int) getLong("syncope.http.maxConnections", 200);
+    }
+
+    /**
+     * Get the maximum number of pooled connections per Syncope route.
+     *
+     * @return the syncope.http.maxConnectionsPerRoute property, 50 by default.
+     */
+    public int getHttpMaxConnectionsPerRoute() {
+        return (int) getLong("syncope.http.maxConnectionsPerRoute", 50);
+    }
+
+    /**
+     * Get the timeout (in milliseconds) to establish a connection to Syncope.
+     *
+     * @return the syncope.http.connectTimeout property, 5000 by default.
+     */
+    public int getHttpConnectTimeout() {
+        return (int) getLong("syncope.http.connectTimeout", 5000);
+    }
+
+    /**
+     * Get the timeout (in milliseconds) waiting for data from Syncope.
+     *
+     * @return the syncope.http.socketTimeout property, 10000 by default.
+     */
+    public int getHttpSocketTimeout() {
+        return (int) getLong("syncope.http.socketTimeout", 10000);
+    }
+
+    /**
+     * Get the timeout (in milliseconds) to lease a connection from the pool.
+     *
+     * @return the syncope.http.requestTimeout property, 5000 by default.
+     */
+    public int getHttpRequestTimeout() {
+        return (int) getLong("syncope.http.requestTimeout", 5000);
+    }
+
+    /**
+     * Get the time (in milliseconds) an idle connection is kept alive, when Syncope doesn't specify it.
+     *
+     * @return the syncope.http.keepAlive property, 30000 by default.
+     */
+    public long getHttpKeepAlive() {
+        return getLong("syncope.http.keepAlive", 30000);
+    }
+
+    /**
+     * Check if the asynchronous authentication (using CXF continuations) is enabled.
+     *
+     * @return true if the syncope.async.enabled property is true, false else.
+     */
+    public boolean isAsyncEnabled() {
+        return getBoolean("syncope.async.enabled", false);
+    }
+
+    /**
+     * Get the number of threads executing the asynchronous Syncope lookups.
+     *
+     * @return the syncope.async.threads property, 20 by default.
+     */
+    public int getAsyncThreads() {
+        return (int) getLong("syncope.async.threads", 20);
+    }
+
+    /**
+     * Get the maximum number of asynchronous Syncope lookups waiting for a thread.
+     *
+     * @return the syncope.async.queueSize property, 1000 by default.
+     */
+    public int getAsyncQueueSize() {
+        return (int) getLong("syncope.async.queueSize", 1000);
+    }
+
+    /**
+     * Get the time (in milliseconds) a request is suspended waiting for the Syncope lookup.
+     *
+     * @return the syncope.async.timeout property, 30000 by default.
+     */
+    public long getAsyncTimeout() {
+        return getLong("syncope.async.timeout", 30000);
+    }
+
+    /**
+     * Check if the circuit breaker around the Syncope calls is enabled.
+     *
+     * @return true if the syncope.circuit.enabled property is true, false else.
+     */
+    public boolean isCircuitEnabled() {
+        return getBoolean("syncope.circuit.enabled", false);
+    }
+
+    /**
+     * Get the failure rate (in percent) opening the circuit.
+     *
+     * @return the syncope.circuit.failureRateThreshold property, 50 by default.
+     */
+    public int getCircuitFailureRateThreshold() {
+        return (int) getLong("syncope.circuit.failureRateThreshold", 50);
+    }
+
+    /**
+     * Get the duration (in milliseconds) above which a Syncope call is considered slow.
+     *
+     * @return the syncope.circuit.slowCallThreshold property, 2000 by default.
+     */
+    public long getCircuitSlowCallThreshold() {
+        return getLong("syncope.circuit.slowCallThreshold", 2000);
+    }
+
+    /**
+     * Get the slow call rate (in percent) opening the circuit.
+     *
+     * @return the syncope.circuit.slowCallRateThreshold property, 100 by default.
+     */
+    public int getCircuitSlowCallRateThreshold() {
+        return (int) getLong("syncope.circuit.slowCallRateThreshold", 100);
+    }
+
+    /**
+     * Get the number of calls in the sliding window used to compute the rates.
+     *
+     * @return the syncope.circuit.windowSize property, 20 by default.
+     */
+    public int getCircuitWindowSize() {
+        return (int) getLong("syncope.circuit.windowSize", 20);
+    }
+
+    /**
+     * Get the minimum number of calls before computing the rates.
+     *
+     * @return the syncope.circuit.minimumCalls property, 10 by default.
+     */
+    public int getCircuitMinimumCalls() {
+        return (int) getLong("syncope.circuit.minimumCalls", 10);
+    }
+
+    /**
+     * Get the time (in milliseconds) the circuit stays open before probing Syncope.
+     *
+     * @return the syncope.circuit.openDuration property, 30000 by default.
+     */
+    public long getCircuitOpenDuration() {
+        return getLong("syncope.circuit.openDuration", 30000);
+    }
+
+    /**
+     * Get the number of probe calls allowed when the circuit is half open.
+     *
+     * @return the syncope.circuit.halfOpenCalls property, 3 by default.
+     */
+    public int getCircuitHalfOpenCalls() {
+        return (int) getLong("syncope.circuit.halfOpenCalls", 3);
+    }
+
+    /**
+     * Get the latency budget (in milliseconds) of a Syncope call when the circuit breaker is enabled.
+     * The call is aborted when its budget is spent, from the connection lease to the end of the response.
+     *
+     * @return the syncope.circuit.callTimeout property, 3000 by default.
+     */
+    public int getCircuitCallTimeout() {
+        return (int) getLong("syncope.circuit.callTimeout", 3000);
+    }
+
+    /**
+     * Get the grace period (in milliseconds) during which expired cached credentials are accepted
+     * while Syncope is unavailable.
+     *
+     * @return the syncope.circuit.staleGracePeriod property, 0 (fail fast) by default.
+     */
+    public long getCircuitStaleGracePeriod() {
+        return getLong("syncope.circuit.staleGracePeriod", 0);
+    }
+
+    /**
+     * Get the time to live (in milliseconds) of the credentials rejected by Syncope in the negative cache.
+     *
+     * @return the syncope.negativeCache.ttl property, 0 (negative cache disabled) by default.
+     */
+    public long getNegativeCacheTtl() {
+        return getLong("syncope.negativeCache.ttl", 0);
+    }
+
+    /**
+     * Get the maximum number of entries of the negative cache.
+     *
+     * @return the syncope.negativeCache.size property, 10000 by default.
+     */
+    public int getNegativeCacheSize() {
+        return (int) getLong("syncope.negativeCache.size", 10000);
+    }
+
+    /**
+     * Check if the authentication failures are throttled per username and per client address.
+     *
+     * @return true if the syncope.throttle.enabled property is true, false else.
+     */
+    public boolean isThrottleEnabled() {
+        return getBoolean("syncope.throttle.enabled", false);
+    }
+
+    /**
+     * Get the number of authentication failures allowed before throttling a username or a client address.
+     *
+     * @return the syncope.throttle.burst property, 10 by default.
+     */
+    public int getThrottleBurst() {
+        return (int) getLong("syncope.throttle.burst", 10);
+    }
+
+    /**
+     * Get the number of authentication failures per second allowed once a username or a client address is throttled.
+     *
+     * @return the syncope.throttle.rate property, 0.2 by default.
+     */
+    public double getThrottleRate() {
+        return getDouble("syncope.throttle.rate", 0.2);
+    }
+
+    /**
+     * Get the maximum number of usernames and of client addresses tracked by the throttling.
+     *
+     * @return the syncope.throttle.size property, 10000 by default.
+     */
+    public int getThrottleSize() {
+        return (int) getLong("syncope.throttle.size", 10000);
+    }
+
+    /**
+     * Check if a signed session token is issued after a successful Syncope authentication.
+     *
+     * @return true if the syncope.token.enabled property is true, false else.
+     */
+    public boolean isTokenEnabled() {
+        return getBoolean("syncope.token.enabled", false);
+    }
+
+    /**
+     * Get the key signing the session tokens, shared by the nodes accepting the tokens.
+     *
+     * @return the syncope.token.key property, null if not defined.
+     */
+    public String getTokenKey() {
+        Object value = properties != null ? properties.get("syncope.token.key") : null;
+        return value != null ? value.toString().trim() : null;
+    }
+
+    /**
+     * Get the time to live (in milliseconds) of the session tokens.
+     *
+     * @return the syncope.token.ttl property, 300000 by default.
+     */
+    public long getTokenTtl() {
+        return getLong("syncope.token.ttl", 300000);
+    }
+
+    /**
+     * Get the HTTP header carrying the session token.
+     *
+     * @return the syncope.token.header property, X-Syncope-Token by default.
+     */
+    public String getTokenHeader() {
+        Object value = properties != null ? properties.get("syncope.token.header") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : "X-Syncope-Token";
+    }
+
+    /**
+     * Get the name of the cookie carrying the session token.
+     *
+     * @return the syncope.token.cookie property, null (token sent in the header) if not defined.
+     */
+    public String getTokenCookie() {
+        Object value = properties != null ? properties.get("syncope.token.cookie") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : null;
+    }
+
+    /**
+     * Get the host the cache invalidation HTTP endpoint is bound to.
+     *
+     * @return the syncope.invalidation.host property, 127.0.0.1 by default.
+     */
+    public String getInvalidationHost() {
+        Object value = properties != null ? properties.get("syncope.invalidation.host") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : "127.0.0.1";
+    }
+
+    /**
+     * Get the port of the cache invalidation HTTP endpoint.
+     *
+     * @return the syncope.invalidation.port property, 0 (endpoint disabled) by default.
+     */
+    public int getInvalidationPort() {
+        return (int) getLong("syncope.invalidation.port", 0);
+    }
+
+    /**
+     * Get the key expected in the X-Syncope-Invalidation-Key header of the cache invalidation requests.
+     *
+     * @return the syncope.invalidation.key property, null (no key required on the loopback interface) if not defined.
+     */
+    public String getInvalidationKey() {
+        Object value = properties != null ? properties.get("syncope.invalidation.key") : null;
+        return value != null && !value.toString().trim().isEmpty() ? value.toString().trim() : null;
+    }
+
+    /**
+     * Get the strategy used to spread the calls on the Syncope nodes.
+     *
+     * @return the syncope.balancer.strategy property, leastOutstanding (default) or ewma.
+     */
+    public String getBalancerStrategy() {
+        Object value = properties != null ? properties.get("syncope.balancer.strategy") : null;
+        return value != null ? value.toString().trim() : "leastOutstanding";
+    }
+
+    /**
+     * Get the number of consecutive failures ejecting a Syncope node.
+     *
+     * @return the syncope.balancer.ejectAfter property, 3 by default.
+     */
+    public int getBalancerEjectAfter() {
+        return (int) getLong("syncope.balancer.ejectAfter", 3);
+    }
+
+    /**
+     * Get the interval (in milliseconds) of the health probes of the ejected Syncope nodes.
+     *
+     * @return the syncope.balancer.probeInterval property, 5000 by default.
+     */
+    public long getBalancerProbeInterval() {
+        return getLong("syncope.balancer.probeInterval", 5000);
+    }
+
+    protected boolean getBoolean(String key, boolean defaultValue) {
+        if (properties != null) {
+            Object value = properties.get(key);
+            if (value != null) {
+                return Boolean.parseBoolean(value.toString().trim());
+            }
+        }
+        return defaultValue;
+    }
+
+    protected double getDouble(String key, double defaultValue) {
+        if (properties != null) {
+            Object value = properties.get(key);
+            if (value != null) {
+                try {
+                    return Double.parseDouble(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid {} property value: {}, using {}", key, value, defaultValue);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    protected long getLong(String key, long defaultValue) {
+        if (properties != null) {
+            Object value = properties.get(key);
+            if (value != null) {
+                try {
+                    return Long.parseLong(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid {} property value: {}, using {}", key, value, defaultValue);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get the settings of the configuration, the properties starting with {@code syncope.}.
+     *
+     * @return the trimmed setting values, by property name.
+     */
+    public Map<String, String> getSettings() {
+        Map<String, String> settings = new HashMap<String, String>();
+        if (properties != null) {
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                if (property.getKey().startsWith(SETTINGS_PREFIX) && property.getValue() != null) {
+                    settings.put(property.getKey(), property.getValue().toString().trim());
+                }
+            }
+        }
+        return settings;
+    }
+
     /**
      * Check if a bus ID is defined in the configuration
      *
@@ -99,15 +621,7 @@ public class InterceptorsUtil {
      * @return true if the bus is defined in the configuration, false else.
      */
     public boolean busDefined(String id) throws Exception {
-        List<String> buses = this.getBuses();
-        for (String bus : buses) {
-            Pattern pattern = Pattern.compile(bus);
-            Matcher matcher = pattern.matcher(id);
-            if (matcher.matches()) {
-                return true;
-            }
-        }
-        return false;
+        return getBusRoles(id) != UNDEFINED;
     }
 
     /**
@@ -119,21 +633,19 @@ public class InterceptorsUtil {
      */
     public boolean authorize(String busId, List<String> roles) throws Exception {
         LOGGER.debug("Checking authorization for bus {}", busId);
-        String[] configuredRoles = this.getBusRoles(busId);
-        if (configuredRoles != null) {
-            for (String role : roles) {
-                LOGGER.debug("Checking authorization for role {}", role);
-                for (String configuredRole : configuredRoles) {
-                    if (role.equalsIgnoreCase(configuredRole)) {
-                        LOGGER.debug("Roles match ({}/{})", role, configuredRole);
-                        return true;
-                    } else {
-                        LOGGER.debug("Roles not match ({}/{})", role, configuredRole);
-                    }
+        Set<String> configuredRoles = this.getBusRoles(busId);
+        if (!configuredRoles.isEmpty()) {
+            for (int i = 0; i < roles.size(); i++) {
+                String role = roles.get(i);
+                // toLowerCase() doesn't allocate when the role is already lower case
+                if (configuredRoles.contains(role) || configuredRoles.contains(role.toLowerCase(Locale.ENGLISH))) {
+                    LOGGER.debug("Role {} match", role);
+                    return true;
                 }
+                LOGGER.debug("Role {} not match", role);
             }
         }
         return false;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package com.synaltic.cxf.syncope;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Local HTTP endpoint invalidating the cached Syncope authentications, to be called by a Syncope notification task:
+ * POST /syncope/cache/invalidate?user=name, ?role=name or ?all=true.
+ * It is bound on the loopback interface by default and, if a key is configured, the requests must present it in the
+ * X-Syncope-Invalidation-Key header. The key is required when the endpoint is bound to another interface.
+ * The parameters are in the query: the request body is not read, and the requests announcing a body bigger than
+ * {@link #MAX_BODY} bytes are rejected.
+ */
+public class InvalidationEndpoint {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(InvalidationEndpoint.class);
+
+    public final static String PATH = "/syncope/cache/invalidate";
+    private final static String KEY_HEADER = "X-Syncope-Invalidation-Key";
+    final static int MAX_BODY = 1024;
+
+    private final String host;
+    private final int port;
+    private final String key;
+    private final CacheInvalidationService service;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public InvalidationEndpoint(String host, int port, String key, CacheInvalidationService service) {
+        this.host = host;
+        this.port = port;
+        this.key = key;
+        this.service = service;
+    }
+
+    /**
+     * Check if the endpoint is bound as configured.
+     *
+     * @param util the configuration.
+     * @return true if the endpoint host, port and key are the configured ones.
+     */
+    public boolean matches(InterceptorsUtil util) {
+        return host.equals(util.getInvalidationHost()) && port == util.getInvalidationPort()
+                && (key == null ? util.getInvalidationKey() == null : key.equals(util.getInvalidationKey()));
+    }
+
+    /**
+     * Start the endpoint.
+     *
+     * @throws IOException if the endpoint can't be bound.
+     * @throws IllegalStateException if the endpoint is not bound to the loopback interface and no key is configured.
+     */
+    public void start() throws IOException {
+        if (key == null && !InetAddress.getByName(host).isLoopbackAddress()) {
+            throw new IllegalStateException("syncope.invalidation.key is required to bind the invalidation endpoint on " + host);
+        }
+        server = HttpServer.create(new InetSocketAddress(host, port), 16);
+        server.createContext(PATH, new InvalidationHandler());
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "syncope-invalidation-endpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("Syncope cache invalidation endpoint listening on http://{}:{}{}", host, port, PATH);
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int index = parameter.indexOf('=');
+                if (index > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, index), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(index + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private final class InvalidationHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                // the body is never read: the request is rejected before anything is read from an unknown client
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, "POST expected");
+                    return;
+                }
+                if (key != null) {
+                    String presented = exchange.getRequestHeaders().getFirst(KEY_HEADER);
+                    if (presented == null || !MessageDigest.isEqual(key.getBytes("UTF-8"), presented.getBytes("UTF-8"))) {
+                        LOGGER.warn("Cache invalidation request from {} rejected: invalid key", exchange.getRemoteAddress());
+                        send(exchange, 401, "Invalid key");
+                        return;
+                    }
+                }
+                if (getContentLength(exchange) > MAX_BODY) {
+                    send(exchange, 413, "The parameters are expected in the query");
+                    return;
+                }
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                int count;
+                if ("true".equals(parameters.get("all"))) {
+                    count = service.invalidateAll();
+                } else if (parameters.get("user") != null) {
+                    count = service.invalidateUser(parameters.get("user"));
+                } else if (parameters.get("role") != null) {
+                    count = service.invalidateRole(parameters.get("role"));
+                } else {
+                    send(exchange, 400, "One of user, role or all=true is required");
+                    return;
+                }
+                send(exchange, 200, Integer.toString(count));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Cache invalidation failed", e);
+                send(exchange, 500, "Cache invalidation failed");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * @return the announced body length, Long.MAX_VALUE for a chunked body.
+         */
+        private long getContentLength(HttpExchange exchange) {
+            if (exchange.getRequestHeaders().getFirst("Transfer-Encoding") != null) {
+                return Long.MAX_VALUE;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            try {
+                return length != null ? Long.parseLong(length.trim()) : 0;
+            } catch (NumberFormatException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        private void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = (body + "\n").getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.synaltic.cxf.syncope;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with preallocated power of two buckets (in microseconds).
+ * The percentiles are approximated by the upper bound of the bucket.
+ * The buckets are striped like the {@link StripedCounter} cells: each stripe has its own padded row of buckets,
+ * so concurrent threads don't contend on the same cache lines.
+ */
+public class LatencyHistogram {
+
+    // bucket i counts the latencies lower than 2^i microseconds, the last one counts the others
+    private final static int BUCKETS = 32;
+    // a padding cache line between the rows of buckets
+    private final static int ROW = BUCKETS + StripedCounter.PADDING;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.getAndIncrement(StripedCounter.stripe() * ROW + bucket);
+        count.increment();
+        total.add(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean latency in microseconds.
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total.sum() / count;
+    }
+
+    /**
+     * @return the max latency in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get an approximation of a latency percentile.
+     *
+     * @param percentile the percentile (between 0 and 100).
+     * @return the upper bound of the bucket containing the percentile, in microseconds.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = buckets.get(stripe * ROW + i);
+                snapshot[i] += value;
+                count += value;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+}
@@ -0,0 +1,321 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.common.util.Base64UrlUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived session tokens signed with HMAC-SHA256, issued after a successful Syncope authentication.
+ * <p>
+ * A token carries the username, the roles and the expiry: a request presenting a valid token is authorized locally,
+ * without cache lookup or Syncope call, on any node sharing the signing key.
+ * <p>
+ * The tokens of a user, of the users having a role, or all the tokens, can be revoked: the tokens issued before the
+ * revocation (their expiry minus the TTL) are refused, the client authenticating again with its credentials. The
+ * revocations are local to the node, and kept for the TTL, the older tokens being expired anyway.
+ * <p>
+ * Format: base64url(payload).base64url(HMAC-SHA256(payload)), the payload being the binary encoding of the version,
+ * expiry, username and roles.
+ */
+public class SessionTokens {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SessionTokens.class);
+
+    private final static String ALGORITHM = "HmacSHA256";
+    private final static byte VERSION = 1;
+    private final static int MIN_KEY_LENGTH = 32;
+
+    private final SecretKeySpec key;
+    private final long ttl;
+    private final String header;
+    private final String cookie;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+    // revocation time per user name and per (lower case) role
+    private final ConcurrentHashMap<String, Long> revokedUsers = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentHashMap<String, Long> revokedRoles = new ConcurrentHashMap<String, Long>();
+    private volatile long revokedAll;
+
+    private SessionTokens(byte[] key, long ttl, String header, String cookie) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttl = ttl;
+        this.header = header;
+        this.cookie = cookie;
+    }
+
+    /**
+     * Create the session tokens from the configuration.
+     *
+     * @param util the configuration.
+     * @return the session tokens, or null if the tokens are disabled or the signing key is missing or too short.
+     */
+    public static SessionTokens create(InterceptorsUtil util) {
+        if (!util.isTokenEnabled()) {
+            return null;
+        }
+        String key = util.getTokenKey();
+        if (key == null || key.length() < MIN_KEY_LENGTH) {
+            LOGGER.warn("syncope.token.key must be at least {} characters long, session tokens are disabled", MIN_KEY_LENGTH);
+            return null;
+        }
+        try {
+            return new SessionTokens(key.getBytes("UTF-8"), util.getTokenTtl(), util.getTokenHeader(), util.getTokenCookie());
+        } catch (Exception e) {
+            LOGGER.warn("Can't create session tokens", e);
+            return null;
+        }
+    }
+
+    /**
+     * Issue a token.
+     *
+     * @param username the authenticated user name.
+     * @param roles the user roles.
+     * @return the signed token.
+     */
+    public String issue(String username, List<String> roles) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + roles.size() * 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis() + ttl);
+            out.writeUTF(username);
+            out.writeShort(roles.size());
+            for (int i = 0; i < roles.size(); i++) {
+                out.writeUTF(roles.get(i));
+            }
+            out.flush();
+            byte[] payload = bytes.toByteArray();
+            return Base64UrlUtility.encode(payload) + "." + Base64UrlUtility.encode(mac().doFinal(payload));
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't issue session token", e);
+        }
+    }
+
+    /**
+     * Verify a token.
+     *
+     * @param token the token presented by the client.
+     * @return the session carried by the token, or null if the token is malformed, not signed with the key or expired.
+     */
+    public Session verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            byte[] payload = Base64UrlUtility.decode(token.substring(0, dot));
+            byte[] signature = Base64UrlUtility.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, mac().doFinal(payload))) {
+                LOGGER.debug("Invalid session token signature");
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            long expiry = in.readLong();
+            if (expiry <= System.currentTimeMillis()) {
+                LOGGER.debug("Expired session token");
+                return null;
+            }
+            String username = in.readUTF();
+            int count = in.readUnsignedShort();
+            List<String> roles = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                roles.add(in.readUTF());
+            }
+            return new Session(username, Collections.unmodifiableList(roles), expiry - ttl, expiry);
+        } catch (Exception e) {
+            LOGGER.debug("Malformed session token", e);
+            return null;
+        }
+    }
+
+    /**
+     * Revoke the tokens of a user issued until now.
+     *
+     * @param username the user name.
+     */
+    public void revokeUser(String username) {
+        revoke(revokedUsers, username);
+    }
+
+    /**
+     * Revoke the tokens of the users having a role issued until now.
+     *
+     * @param role the role (case insensitive).
+     */
+    public void revokeRole(String role) {
+        revoke(revokedRoles, role.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Revoke all the tokens issued until now.
+     */
+    public void revokeAll() {
+        revokedAll = System.currentTimeMillis();
+        revokedUsers.clear();
+        revokedRoles.clear();
+    }
+
+    private void revoke(ConcurrentHashMap<String, Long> revoked, String name) {
+        long now = System.currentTimeMillis();
+        revoked.put(name, now);
+        // the tokens issued before the TTL are expired, their revocations are not needed anymore
+        prune(revokedUsers, now - ttl);
+        prune(revokedRoles, now - ttl);
+    }
+
+    private static void prune(ConcurrentHashMap<String, Long> revoked, long before) {
+        Iterator<Long> times = revoked.values().iterator();
+        while (times.hasNext()) {
+            if (times.next() < before) {
+                times.remove();
+            }
+        }
+    }
+
+    /**
+     * Check if the token of a session has been revoked.
+     *
+     * @param session the session of a valid token.
+     * @return true if the token has been issued before a revocation of all the tokens, of the user or of one of
+     * its roles.
+     */
+    public boolean isRevoked(Session session) {
+        long issued = session.getIssued();
+        if (issued <= revokedAll) {
+            return true;
+        }
+        if (!revokedUsers.isEmpty()) {
+            Long revoked = revokedUsers.get(session.getUsername());
+            if (revoked != null && issued <= revoked) {
+                return true;
+            }
+        }
+        if (!revokedRoles.isEmpty()) {
+            for (String role : session.getRoles()) {
+                Long revoked = revokedRoles.get(role.toLowerCase(Locale.ENGLISH));
+                if (revoked != null && issued <= revoked) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the token presented in the request headers or cookie.
+     *
+     * @param headers the request protocol headers (case insensitive keys).
+     * @return the token, or null if the request doesn't present a token.
+     */
+    public String getToken(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+        List<String> values = headers.get(header);
+        if (values != null && !values.isEmpty()) {
+            return values.get(0).trim();
+        }
+        if (cookie != null) {
+            values = headers.get("Cookie");
+            if (values != null) {
+                String prefix = cookie + "=";
+                for (String value : values) {
+                    for (String crumb : value.split(";")) {
+                        crumb = crumb.trim();
+                        if (crumb.startsWith(prefix)) {
+                            return crumb.substring(prefix.length());
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a token to the response headers, as a header or as a cookie.
+     *
+     * @param headers the response protocol headers.
+     * @param token the token to send.
+     */
+    public void addToken(Map<String, List<String>> headers, String token) {
+        if (cookie != null) {
+            String value = cookie + "=" + token + "; Path=/; Max-Age=" + (ttl / 1000) + "; HttpOnly";
+            List<String> cookies = headers.get("Set-Cookie");
+            if (cookies == null) {
+                cookies = new ArrayList<String>(1);
+                headers.put("Set-Cookie", cookies);
+            }
+            cookies.add(value);
+        } else {
+            headers.put(header, Collections.singletonList(token));
+        }
+    }
+
+    private Mac mac() throws Exception {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Session carried by a valid token.
+     */
+    public final static class Session {
+
+        private final String username;
+        private final List<String> roles;
+        private final long issued;
+        private final long expiry;
+
+        private Session(String username, List<String> roles, long issued, long expiry) {
+            this.username = username;
+            this.roles = roles;
+            this.issued = issued;
+            this.expiry = expiry;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public List<String> getRoles() {
+            return roles;
+        }
+
+        /**
+         * @return the issue time of the token, its expiry minus the TTL of this node.
+         */
+        public long getIssued() {
+            return issued;
+        }
+
+        public long getExpiry() {
+            return expiry;
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.synaltic.cxf.syncope;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter spreading the updates on several cells (one per cache line) selected by thread,
+ * so concurrent threads don't contend on the same memory location.
+ */
+public class StripedCounter {
+
+    final static int STRIPES;
+    // number of longs in a cache line, to avoid false sharing between the cells
+    final static int PADDING = 8;
+
+    static {
+        int stripes = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.getAndAdd(index(), value);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    private static int index() {
+        return stripe() * PADDING;
+    }
+
+    /**
+     * @return the stripe (between 0 and {@link #STRIPES} excluded) used by the current thread.
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash >>> 16) & (STRIPES - 1);
+    }
+
+}
@@ -0,0 +1,763 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Authenticate users on Syncope, shared by all the Syncope interceptors of the bundle.
+ * It uses the authentication cache (if enabled) and coalesces the concurrent Syncope lookups
+ * for the same credentials: only one lookup is in flight per credential key, the other callers
+ * wait for its result (success or failure).
+ * When refresh ahead is enabled, a cache entry used after a fraction of its TTL is revalidated on Syncope
+ * by a bounded background executor, the callers getting the current roles meanwhile.
+ * The calls are spread on the Syncope nodes by a {@link SyncopeBalancer}, failing over to another node when
+ * a node is unavailable.
+ * When the circuit breaker is enabled and Syncope is unavailable, the authentication fails fast or, if
+ * a grace period is configured, recently verified cached credentials are accepted.
+ * The credentials rejected by Syncope can be kept in a negative cache, and the failures can be throttled per username
+ * and per client address: the requests are then rejected locally, without calling Syncope.
+ * When the asynchronous mode is enabled, the lookups can be executed by a bounded pool of
+ * threads, the caller being notified with a {@link Callback}.
+ * An authenticator replaced after a configuration update is {@link #retire() retired}: it is closed once the calls
+ * in progress are complete, the calls started once it is closed failing with an {@link AuthenticatorClosedException}.
+ */
+public class SyncopeAuthenticator {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SyncopeAuthenticator.class);
+
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    // settings not used by the authenticator: changing them doesn't require a new authenticator
+    private final static String[] UNUSED_SETTINGS = { "syncope.invalidation.", "syncope.cache.snapshot." };
+
+    private final InterceptorsUtil util;
+    private final SyncopeClient client;
+    private final SyncopeBalancer balancer;
+    private final SyncopeMetrics metrics;
+    private final AuthenticationCache cache;
+    private final AuthenticationCache negativeCache;
+    private final FailureThrottle userThrottle;
+    private final FailureThrottle addressThrottle;
+    private final CircuitBreaker circuitBreaker;
+    private final SessionTokens tokens;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor refreshExecutor;
+    private final long refreshAge;
+    private volatile byte[] salt;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+    // the calls using the Syncope client, plus one for the owner until the authenticator is retired
+    private final AtomicInteger users = new AtomicInteger(1);
+    private final AtomicBoolean retired = new AtomicBoolean();
+
+    public SyncopeAuthenticator(InterceptorsUtil util) {
+        this(util, new SyncopeMetrics());
+    }
+
+    public SyncopeAuthenticator(InterceptorsUtil util, SyncopeMetrics metrics) {
+        this.util = util;
+        this.metrics = metrics;
+        this.client = new SyncopeClient(util, metrics);
+        SyncopeBalancer balancer = null;
+        try {
+            balancer = new SyncopeBalancer(util, client);
+        } catch (Exception e) {
+            // the lookups fail until the configuration defines the Syncope address
+            LOGGER.debug("Can't create Syncope balancer", e);
+        }
+        this.balancer = balancer;
+        if (util.isCacheEnabled()) {
+            LOGGER.debug("Create authentication cache (size {}, ttl {}ms)", util.getCacheSize(), util.getCacheTtl());
+            long grace = util.isCircuitEnabled() ? util.getCircuitStaleGracePeriod() : 0;
+            this.cache = new AuthenticationCache(util.getCacheSize(), util.getCacheTtl(), grace, metrics);
+        } else {
+            this.cache = null;
+        }
+        if (util.getNegativeCacheTtl() > 0) {
+            LOGGER.debug("Create negative authentication cache (size {}, ttl {}ms)", util.getNegativeCacheSize(), util.getNegativeCacheTtl());
+            this.negativeCache = new AuthenticationCache(util.getNegativeCacheSize(), util.getNegativeCacheTtl());
+        } else {
+            this.negativeCache = null;
+        }
+        if (util.isThrottleEnabled()) {
+            LOGGER.debug("Throttle authentication failures (burst {}, rate {}/s)", util.getThrottleBurst(), util.getThrottleRate());
+            this.userThrottle = new FailureThrottle(util.getThrottleBurst(), util.getThrottleRate(), util.getThrottleSize());
+            this.addressThrottle = new FailureThrottle(util.getThrottleBurst(), util.getThrottleRate(), util.getThrottleSize());
+        } else {
+            this.userThrottle = null;
+            this.addressThrottle = null;
+        }
+        this.circuitBreaker = util.isCircuitEnabled() ? new CircuitBreaker(util) : null;
+        this.tokens = SessionTokens.create(util);
+        double refreshAhead = util.getCacheRefreshAhead();
+        if (cache != null && refreshAhead > 0 && refreshAhead < 1) {
+            LOGGER.debug("Create authentication cache refresh executor ({} threads)", util.getCacheRefreshThreads());
+            this.refreshAge = (long) (util.getCacheTtl() * refreshAhead);
+            this.refreshExecutor = new ThreadPoolExecutor(util.getCacheRefreshThreads(), util.getCacheRefreshThreads(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(util.getCacheRefreshQueueSize()), new LookupThreadFactory("syncope-refresh-"));
+            this.refreshExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            this.refreshAge = 0;
+            this.refreshExecutor = null;
+        }
+        if (util.isAsyncEnabled()) {
+            LOGGER.debug("Create Syncope lookup executor ({} threads)", util.getAsyncThreads());
+            this.executor = new ThreadPoolExecutor(util.getAsyncThreads(), util.getAsyncThreads(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(util.getAsyncQueueSize()), new LookupThreadFactory("syncope-lookup-"));
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        this.salt = salt;
+    }
+
+    /**
+     * Notified when an asynchronous authentication completes.
+     */
+    public interface Callback {
+
+        void onSuccess(List<String> roles);
+
+        void onFailure(Fault fault);
+
+    }
+
+    /**
+     * Authenticate the user and get the user roles, from the cache or from Syncope.
+     *
+     * @param username the user name.
+     * @param password the user password.
+     * @return the list of user roles.
+     * @throws Fault if the user can't be authenticated.
+     */
+    public List<String> authenticate(String username, String password) throws Fault {
+        return authenticate(username, password, (String) null);
+    }
+
+    /**
+     * Authenticate the user and get the user roles, from the cache or from Syncope.
+     *
+     * @param username the user name.
+     * @param password the user password.
+     * @param clientAddress the client address, used to throttle the failures (can be null).
+     * @return the list of user roles.
+     * @throws Fault if the user can't be authenticated (caused by a {@link ThrottledException} if the user or the
+     *               client is throttled).
+     * @throws AuthenticatorClosedException if the authenticator has been retired and closed.
+     */
+    public List<String> authenticate(String username, String password, String clientAddress) throws Fault {
+        String key = key(username, password);
+        List<String> roles = getCachedRoles(key, username, password);
+        if (roles != null) {
+            return roles;
+        }
+        checkFailures(key, username, clientAddress);
+        acquire();
+        try {
+            Flight flight = new Flight();
+            Flight current = inFlight.putIfAbsent(key, flight);
+            if (current == null) {
+                run(key, username, password, clientAddress, flight);
+                current = flight;
+            } else {
+                LOGGER.debug("Waiting for the in-flight Syncope lookup of user {}", username);
+            }
+            return current.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Authenticate the user without blocking the caller thread when the asynchronous mode is enabled.
+     *
+     * @param username the user name.
+     * @param password the user password.
+     * @param clientAddress the client address, used to throttle the failures (can be null).
+     * @param callback the callback notified when the roles are not immediately available.
+     * @return the list of user roles if immediately available (cache hit), null if the callback will be notified.
+     * @throws Fault if the user can't be authenticated (caused by a {@link ThrottledException} if the user or the
+     *               client is throttled).
+     * @throws AuthenticatorClosedException if the authenticator has been retired and closed.
+     */
+    public List<String> authenticate(final String username, final String password, final String clientAddress,
+                                     Callback callback) throws Fault {
+        if (executor == null) {
+            return authenticate(username, password, clientAddress);
+        }
+        final String key = key(username, password);
+        List<String> roles = getCachedRoles(key, username, password);
+        if (roles != null) {
+            return roles;
+        }
+        checkFailures(key, username, clientAddress);
+        acquire();
+        // released by the lookup task if the lookup is executed in background
+        boolean release = true;
+        try {
+            final Flight flight = new Flight();
+            Flight current = inFlight.putIfAbsent(key, flight);
+            if (current == null) {
+                current = flight;
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                SyncopeAuthenticator.this.run(key, username, password, clientAddress, flight);
+                            } finally {
+                                release();
+                            }
+                        }
+                    });
+                    release = false;
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug("Syncope lookup executor is full, looking up user {} in the caller thread", username);
+                    run(key, username, password, clientAddress, flight);
+                }
+            }
+            if (current.addCallback(callback)) {
+                return null;
+            }
+            // the lookup is already complete
+            return current.get();
+        } finally {
+            if (release) {
+                release();
+            }
+        }
+    }
+
+    private List<String> getCachedRoles(String key, String username, String password) {
+        if (cache == null) {
+            return null;
+        }
+        List<String> roles = cache.get(key);
+        LOGGER.debug("Authentication cache {} for user {}", roles != null ? "hit" : "miss", username);
+        if (roles != null) {
+            metrics.cacheHit();
+        } else {
+            metrics.cacheMiss();
+        }
+        if (roles != null && refreshExecutor != null && cache.markRefresh(key, refreshAge)) {
+            refresh(key, username, password);
+        }
+        return roles;
+    }
+
+    /**
+     * Revalidate a cache entry on Syncope in background.
+     * The credentials are only held by the refresh task, they are never stored in the cache.
+     */
+    private void refresh(final String key, final String username, final String password) {
+        if (!tryAcquire()) {
+            // retired, the new authenticator has its own cache
+            return;
+        }
+        final Flight flight = new Flight();
+        if (inFlight.putIfAbsent(key, flight) != null) {
+            // a lookup is already in flight, it will update the cache
+            cache.cancelRefresh(key);
+            release();
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                public void run() {
+                    LOGGER.debug("Refreshing authentication cache entry of user {}", username);
+                    try {
+                        SyncopeAuthenticator.this.run(key, username, password, null, flight);
+                    } finally {
+                        release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Authentication cache refresh executor is full, skipping refresh of user {}", username);
+            inFlight.remove(key, flight);
+            cache.cancelRefresh(key);
+            release();
+        }
+    }
+
+    /**
+     * Reject locally the throttled users and clients, and the credentials in the negative cache.
+     */
+    private void checkFailures(String key, String username, String clientAddress) throws Fault {
+        if (userThrottle != null && (userThrottle.isThrottled(username) || addressThrottle.isThrottled(clientAddress))) {
+            LOGGER.debug("Too many authentication failures for user {} or client {}", username, clientAddress);
+            metrics.throttled();
+            throw new Fault(new ThrottledException("Too many authentication failures"));
+        }
+        if (negativeCache != null && negativeCache.get(key) != null) {
+            LOGGER.debug("Negative authentication cache hit for user {}", username);
+            metrics.negativeCacheHit();
+            failure(username, clientAddress);
+            throw new Fault(new SecurityException("Can't authenticate user"));
+        }
+    }
+
+    private void failure(String username, String clientAddress) {
+        if (userThrottle != null) {
+            userThrottle.failure(username);
+            addressThrottle.failure(clientAddress);
+        }
+    }
+
+    private void run(String key, String username, String password, String clientAddress, Flight flight) {
+        long generation = cache != null ? cache.generation() : 0;
+        try {
+            List<String> roles = lookup(username, password);
+            if (cache != null) {
+                cache.put(key, roles, generation);
+            }
+            if (userThrottle != null) {
+                userThrottle.reset(username);
+            }
+            flight.complete(roles, null);
+        } catch (Fault f) {
+            if (isRejection(f)) {
+                if (negativeCache != null) {
+                    negativeCache.put(key, Collections.<String>emptyList());
+                }
+                failure(username, clientAddress);
+            }
+            List<String> staleRoles = null;
+            if (cache != null) {
+                if (isRejection(f)) {
+                    // the credentials are not valid anymore
+                    cache.remove(key);
+                } else {
+                    staleRoles = cache.getStale(key);
+                    // the entry kept its roles, it has to be refreshed again
+                    cache.cancelRefresh(key);
+                }
+            }
+            if (staleRoles != null) {
+                LOGGER.warn("Syncope is unavailable, using the cached roles of user {}", username);
+                flight.complete(staleRoles, null);
+            } else {
+                flight.complete(null, f);
+            }
+        } catch (RuntimeException e) {
+            if (cache != null) {
+                cache.cancelRefresh(key);
+            }
+            flight.complete(null, new Fault(e));
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Call Syncope to get the user roles.
+     */
+    protected List<String> lookup(String username, String password) throws Fault {
+        if (balancer == null) {
+            LOGGER.error("Can't get Syncope address");
+            throw new Fault(new IllegalStateException("syncope.address property not found in the configuration"));
+        }
+
+        String version;
+        try {
+            version = util.getSyncopeVersion();
+        } catch (Exception e) {
+            LOGGER.error("Can't get Syncope version", e);
+            throw new Fault(e);
+        }
+
+        if (circuitBreaker == null) {
+            return call(username, password, version);
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            throw new Fault(new IOException("Syncope circuit breaker is open"));
+        }
+        long start = System.currentTimeMillis();
+        try {
+            List<String> roles = call(username, password, version);
+            circuitBreaker.onSuccess(System.currentTimeMillis() - start);
+            return roles;
+        } catch (Fault f) {
+            if (isRejection(f)) {
+                // Syncope answered, it's a valid call for the circuit breaker
+                circuitBreaker.onSuccess(System.currentTimeMillis() - start);
+            } else {
+                circuitBreaker.onFailure();
+            }
+            throw f;
+        } catch (RuntimeException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Call a Syncope node selected by the balancer, failing over to the other nodes while they are unavailable.
+     */
+    private List<String> call(String username, String password, String version) throws Fault {
+        Set<SyncopeBalancer.Node> tried = null;
+        while (true) {
+            SyncopeBalancer.Node node = balancer.select(tried);
+            long start = System.nanoTime();
+            try {
+                List<String> roles = client.getRoles(username, password, node.getAddress(), version);
+                balancer.release(node, System.nanoTime() - start, true);
+                return roles;
+            } catch (Fault f) {
+                boolean rejection = isRejection(f);
+                balancer.release(node, System.nanoTime() - start, rejection);
+                if (rejection) {
+                    throw f;
+                }
+                if (tried == null) {
+                    tried = new HashSet<SyncopeBalancer.Node>();
+                }
+                tried.add(node);
+                if (tried.size() >= balancer.getNodes().size()) {
+                    throw f;
+                }
+                LOGGER.warn("Syncope node {} is unavailable, failing over to another node", node.getAddress());
+            } catch (RuntimeException e) {
+                balancer.release(node, System.nanoTime() - start, false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Check if a fault means that Syncope rejected the credentials (versus Syncope is unavailable).
+     */
+    private static boolean isRejection(Fault fault) {
+        return fault.getCause() instanceof SecurityException;
+    }
+
+    /**
+     * Compute the key identifying the given credentials.
+     *
+     * @param username the user name.
+     * @param password the clear password.
+     * @return the username followed by the salted SHA-256 hash of the password.
+     */
+    public String key(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(username.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(password.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(username.length() + 1 + hash.length * 2);
+            builder.append(username).append(':');
+            for (byte b : hash) {
+                builder.append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't hash credentials", e);
+        }
+    }
+
+    /**
+     * Invalidate the cached authentications of a user, including its rejected credentials and failures, and revoke
+     * its session tokens.
+     *
+     * @param username the user name.
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateUser(String username) {
+        if (tokens != null) {
+            tokens.revokeUser(username);
+        }
+        int count = 0;
+        if (cache != null) {
+            count += cache.invalidateUser(username);
+        }
+        if (negativeCache != null) {
+            count += negativeCache.invalidateUser(username);
+        }
+        if (userThrottle != null) {
+            userThrottle.reset(username);
+        }
+        return count;
+    }
+
+    /**
+     * Invalidate the cached authentications of all the users having a role, and revoke their session tokens.
+     *
+     * @param role the role (case insensitive).
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateRole(String role) {
+        if (tokens != null) {
+            tokens.revokeRole(role);
+        }
+        return cache != null ? cache.invalidateRole(role) : 0;
+    }
+
+    /**
+     * Invalidate all the cached authentications, including the rejected credentials, and revoke all the session
+     * tokens.
+     *
+     * @return the number of invalidated cache entries.
+     */
+    public int invalidateAll() {
+        if (tokens != null) {
+            tokens.revokeAll();
+        }
+        int count = 0;
+        if (cache != null) {
+            count += cache.clear();
+        }
+        if (negativeCache != null) {
+            count += negativeCache.clear();
+        }
+        return count;
+    }
+
+    /**
+     * @return the salt of the credential keys, saved with the cache snapshot.
+     */
+    byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * Restore the cache entries of a snapshot, with the salt of their keys.
+     * It must be called before the authenticator is used.
+     */
+    void restore(byte[] salt, List<AuthenticationCache.SnapshotEntry> entries) {
+        if (cache == null) {
+            return;
+        }
+        this.salt = salt.clone();
+        cache.clear();
+        for (AuthenticationCache.SnapshotEntry entry : entries) {
+            cache.restore(entry);
+        }
+    }
+
+    public AuthenticationCache getCache() {
+        return cache;
+    }
+
+    public PoolStats getPoolStats() {
+        return client.getPoolStats();
+    }
+
+    /**
+     * @return the session tokens, null if disabled.
+     */
+    public SessionTokens getTokens() {
+        return tokens;
+    }
+
+    public SyncopeBalancer getBalancer() {
+        return balancer;
+    }
+
+    /**
+     * Check if the authenticator can be kept with a new configuration: the settings it uses (Syncope nodes, HTTP
+     * client, cache, throttling, circuit breaker, tokens...) are the same, only the bus authorizations changed.
+     *
+     * @param util the new configuration.
+     * @return true if the authenticator uses the same settings.
+     */
+    public boolean matches(InterceptorsUtil util) {
+        return settings(this.util).equals(settings(util));
+    }
+
+    private static Map<String, String> settings(InterceptorsUtil util) {
+        Map<String, String> settings = util.getSettings();
+        Iterator<String> names = settings.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            for (String unused : UNUSED_SETTINGS) {
+                if (name.startsWith(unused)) {
+                    names.remove();
+                    break;
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Take a reference on the authenticator for a call using the Syncope client.
+     *
+     * @throws AuthenticatorClosedException if the authenticator has been retired and closed.
+     */
+    private void acquire() throws AuthenticatorClosedException {
+        if (!tryAcquire()) {
+            throw new AuthenticatorClosedException();
+        }
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int count = users.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (users.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        if (users.decrementAndGet() == 0) {
+            LOGGER.debug("Closing retired Syncope authenticator");
+            close();
+        }
+    }
+
+    /**
+     * Retire the authenticator replaced by a new one: it is closed once the calls in progress are complete.
+     */
+    public void retire() {
+        if (retired.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    /**
+     * @return true if the authenticator is closed, the authentications failing with an
+     * {@link AuthenticatorClosedException}.
+     */
+    public boolean isClosed() {
+        return users.get() <= 0;
+    }
+
+    /**
+     * Close the Syncope client and stop the lookup executor. The calls started from now on fail with an
+     * {@link AuthenticatorClosedException}.
+     */
+    public void close() {
+        // the calls in progress don't close it again when released
+        users.set(0);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdown();
+        }
+        if (balancer != null) {
+            balancer.close();
+        }
+        client.close();
+        if (cache != null) {
+            cache.clear();
+        }
+        if (negativeCache != null) {
+            negativeCache.clear();
+        }
+    }
+
+    /**
+     * A Syncope lookup shared by all the callers authenticating with the same credentials.
+     */
+    private final static class Flight {
+
+        private boolean done;
+        private List<String> roles;
+        private Fault fault;
+        private List<Callback> callbacks;
+
+        private void complete(List<String> roles, Fault fault) {
+            List<Callback> toNotify;
+            synchronized (this) {
+                this.roles = roles;
+                this.fault = fault;
+                this.done = true;
+                toNotify = callbacks;
+                callbacks = null;
+                notifyAll();
+            }
+            if (toNotify != null) {
+                for (Callback callback : toNotify) {
+                    try {
+                        if (fault == null) {
+                            callback.onSuccess(roles);
+                        } else {
+                            callback.onFailure(fault);
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Authentication callback failed", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if the callback has been registered, false if the lookup is already complete.
+         */
+        private synchronized boolean addCallback(Callback callback) {
+            if (done) {
+                return false;
+            }
+            if (callbacks == null) {
+                callbacks = new ArrayList<Callback>(1);
+            }
+            callbacks.add(callback);
+            return true;
+        }
+
+        private synchronized List<String> get() throws Fault {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (fault != null) {
+                throw fault;
+            }
+            return roles;
+        }
+
+    }
+
+    private final static class LookupThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private LookupThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
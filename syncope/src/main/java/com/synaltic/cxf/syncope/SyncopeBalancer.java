@@ -0,0 +1,200 @@
+package com.synaltic.cxf.syncope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spread the Syncope calls on the Syncope nodes defined in the syncope.address property.
+ * <p>
+ * The node is selected among the healthy ones, either with the least outstanding calls, or with the lowest
+ * EWMA latency weighted by the outstanding calls (the ties are broken in round robin).
+ * A node is ejected after consecutive failures (unavailable or server error, not the rejected credentials),
+ * and re-admitted when a background health probe gets an answer from it. When all the nodes are ejected,
+ * they are all tried anyway.
+ */
+public class SyncopeBalancer {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SyncopeBalancer.class);
+
+    // weight of the last call latency in the EWMA
+    private final static double EWMA_ALPHA = 0.3;
+
+    private final List<Node> nodes;
+    private final boolean ewma;
+    private final int ejectAfter;
+    private final AtomicInteger next = new AtomicInteger();
+    private final SyncopeClient client;
+    private ScheduledExecutorService prober;
+
+    public SyncopeBalancer(InterceptorsUtil util, SyncopeClient client) throws Exception {
+        List<Node> nodes = new ArrayList<Node>();
+        for (String address : util.getSyncopeAddresses()) {
+            nodes.add(new Node(address));
+        }
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.ewma = "ewma".equalsIgnoreCase(util.getBalancerStrategy());
+        this.ejectAfter = Math.max(1, util.getBalancerEjectAfter());
+        this.client = client;
+        if (nodes.size() > 1) {
+            LOGGER.debug("Balancing Syncope calls on {} nodes ({})", nodes.size(), ewma ? "ewma" : "least outstanding");
+            long interval = Math.max(100, util.getBalancerProbeInterval());
+            prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "syncope-health-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            prober.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    probe();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Select the node for a call. The call must be completed with {@link #release(Node, long, boolean)}.
+     *
+     * @param excluded the nodes already tried for this call (can be null).
+     * @return the selected node, null if all the nodes have been tried.
+     */
+    public Node select(Set<Node> excluded) {
+        Node selected = select(excluded, true);
+        if (selected == null) {
+            // all the nodes are ejected, try them anyway
+            selected = select(excluded, false);
+        }
+        if (selected != null) {
+            selected.outstanding.incrementAndGet();
+        }
+        return selected;
+    }
+
+    private Node select(Set<Node> excluded, boolean healthyOnly) {
+        int size = nodes.size();
+        int offset = size == 1 ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        Node selected = null;
+        double selectedScore = 0;
+        for (int i = 0; i < size; i++) {
+            Node node = nodes.get((offset + i) % size);
+            if ((healthyOnly && !node.healthy) || (excluded != null && excluded.contains(node))) {
+                continue;
+            }
+            double score = ewma ? (node.getEwma() + 1) * (node.outstanding.get() + 1) : node.outstanding.get();
+            if (selected == null || score < selectedScore) {
+                selected = node;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Complete a call on a node.
+     *
+     * @param node the node selected for the call.
+     * @param nanos the call duration in nanoseconds.
+     * @param success true if the node answered, false if it's unavailable.
+     */
+    public void release(Node node, long nanos, boolean success) {
+        node.outstanding.decrementAndGet();
+        if (success) {
+            node.failures.set(0);
+            node.updateEwma(TimeUnit.NANOSECONDS.toMicros(nanos));
+        } else if (node.failures.incrementAndGet() >= ejectAfter && nodes.size() > 1 && node.healthy) {
+            LOGGER.warn("Syncope node {} failed {} times in a row, ejecting it", node.address, ejectAfter);
+            node.healthy = false;
+        }
+    }
+
+    private void probe() {
+        for (Node node : nodes) {
+            if (!node.healthy && client.probe(node.address)) {
+                LOGGER.info("Syncope node {} is available again, re-admitting it", node.address);
+                node.failures.set(0);
+                node.healthy = true;
+            }
+        }
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public int getHealthyNodes() {
+        int healthy = 0;
+        for (Node node : nodes) {
+            if (node.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Stop the health probes.
+     */
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    /**
+     * A Syncope node.
+     */
+    public final static class Node {
+
+        private final String address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        // EWMA latency in microseconds, stored as double bits
+        private final AtomicLong ewma = new AtomicLong(Double.doubleToLongBits(0));
+        private volatile boolean healthy = true;
+
+        private Node(String address) {
+            this.address = address;
+        }
+
+        private void updateEwma(long micros) {
+            while (true) {
+                long bits = ewma.get();
+                double current = Double.longBitsToDouble(bits);
+                double updated = current == 0 ? micros : current + EWMA_ALPHA * (micros - current);
+                if (ewma.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public double getEwma() {
+            return Double.longBitsToDouble(ewma.get());
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.synaltic.cxf.syncope;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.cxf.common.util.Base64Utility;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client to the Syncope REST API, shared by all the Syncope interceptors of the bundle.
+ * The connections are pooled and kept alive between requests.
+ * When the circuit breaker is enabled, a call is aborted once its latency budget is spent, whatever the
+ * connection phase (lease, connect or a response trickling under the socket timeout).
+ */
+public class SyncopeClient {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SyncopeClient.class);
+
+    private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final SyncopeMetrics metrics;
+    private final ScheduledThreadPoolExecutor deadlines;
+    private final int callTimeout;
+
+    public SyncopeClient(InterceptorsUtil util) {
+        this(util, new SyncopeMetrics());
+    }
+
+    public SyncopeClient(InterceptorsUtil util, SyncopeMetrics metrics) {
+        this.metrics = metrics;
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(util.getHttpMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(util.getHttpMaxConnectionsPerRoute());
+
+        int connectTimeout = util.getHttpConnectTimeout();
+        int socketTimeout = util.getHttpSocketTimeout();
+        int requestTimeout = util.getHttpRequestTimeout();
+        if (util.isCircuitEnabled()) {
+            // each timeout alone is bounded by the latency budget, the whole call by the deadline task
+            callTimeout = util.getCircuitCallTimeout();
+            connectTimeout = Math.min(connectTimeout, callTimeout);
+            socketTimeout = Math.min(socketTimeout, callTimeout);
+            requestTimeout = Math.min(requestTimeout, callTimeout);
+            deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "syncope-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // most calls complete in time, don't keep their cancelled deadlines queued
+            deadlines.setRemoveOnCancelPolicy(true);
+        } else {
+            callTimeout = 0;
+            deadlines = null;
+        }
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(requestTimeout)
+                .build();
+
+        final long keepAlive = util.getHttpKeepAlive();
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // use the Keep-Alive header sent by Syncope if any
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAlive;
+            }
+        };
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .build();
+    }
+
+    /**
+     * Authenticate the user on Syncope and retrieve the user roles.
+     *
+     * @param username the user name.
+     * @param password the user password.
+     * @param address the Syncope REST API address.
+     * @param version the Syncope version.
+     * @return the list of user roles.
+     * @throws Fault if the user can't be authenticated on Syncope (caused by a {@link SecurityException} if the
+     *                credentials are rejected by Syncope).
+     */
+    public List<String> getRoles(String username, String password, String address, String version) throws Fault {
+        HttpGet get = new HttpGet(address + "/users/self");
+        // send the credentials preemptively to avoid the challenge round trip
+        try {
+            get.setHeader("Authorization", "Basic " + Base64Utility.encode((username + ":" + password).getBytes("UTF-8")));
+        } catch (Exception e) {
+            throw new Fault(e);
+        }
+        if (version.equals("2.x") || version.equals("2")) {
+            get.setHeader("Content-Type", "application/json");
+        } else {
+            get.setHeader("Content-Type", "application/xml");
+        }
+
+        List<String> roles;
+        CloseableHttpResponse response = null;
+        ScheduledFuture<?> deadline = null;
+        if (deadlines != null) {
+            final HttpGet call = get;
+            deadline = deadlines.schedule(new Runnable() {
+                public void run() {
+                    call.abort();
+                }
+            }, callTimeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+            long start = System.nanoTime();
+            response = httpClient.execute(get);
+            long received = System.nanoTime();
+            metrics.syncopeCall(received - start);
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                throw new Fault(new IOException("Syncope is unavailable (HTTP " + status + ")"));
+            }
+            if (status != HttpStatus.SC_OK) {
+                throw new Fault(new SecurityException("Can't authenticate user"));
+            }
+            HttpEntity entity = response.getEntity();
+            InputStream content = entity != null ? entity.getContent() : null;
+            if (version.equals("2.x") || version.equals("2")) {
+                roles = extractingRolesSyncope2(content);
+            } else {
+                roles = extractingRolesSyncope1(content);
+            }
+            metrics.parse(System.nanoTime() - received);
+        } catch (Fault f) {
+            throw f;
+        } catch (Exception e) {
+            if (get.isAborted()) {
+                throw new Fault(new IOException("Syncope call exceeded its latency budget of " + callTimeout + "ms", e));
+            }
+            throw new Fault(e);
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (response != null) {
+                try {
+                    // consume the rest of the entity to give the connection back to the pool
+                    EntityUtils.consume(response.getEntity());
+                    response.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Can't release Syncope connection", e);
+                }
+            }
+        }
+        return roles;
+    }
+
+    /**
+     * Extract the user roles from the XML provided by Syncope 1.x.
+     * The response is streamed and the parsing stops at the end of the memberships element.
+     *
+     * @param response the HTTP response stream from Syncope.
+     * @return the list of user roles.
+     * @throws Exception in case of extraction failure.
+     */
+    protected List<String> extractingRolesSyncope1(InputStream response) throws Exception {
+        List<String> roles = new ArrayList<String>();
+        if (response == null) {
+            return roles;
+        }
+        XMLStreamReader reader = StaxUtils.createXMLStreamReader(response);
+        try {
+            boolean memberships = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("memberships".equals(reader.getLocalName())) {
+                        memberships = true;
+                    } else if (memberships && "roleName".equals(reader.getLocalName())) {
+                        roles.add(reader.getElementText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && memberships && "memberships".equals(reader.getLocalName())) {
+                    break;
+                }
+            }
+        } finally {
+            StaxUtils.close(reader);
+        }
+        return roles;
+    }
+
+    /**
+     * Extract the user roles from the JSON provided by Syncope 2.x.
+     * The response is streamed and the parsing stops once the roles field is read.
+     *
+     * @param response the HTTP response stream from Syncope.
+     * @return the list of user roles.
+     * @throws Exception in case of extraction failure.
+     */
+    protected List<String> extractingRolesSyncope2(InputStream response) throws Exception {
+        List<String> roles = new ArrayList<String>();
+        if (response == null) {
+            return roles;
+        }
+        JsonParser parser = JSON_FACTORY.createParser(response);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return roles;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("roles".equals(field)) {
+                    if (token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            String role = parser.getValueAsString();
+                            if (role != null) {
+                                roles.add(role);
+                            }
+                        }
+                    }
+                    break;
+                }
+                parser.skipChildren();
+            }
+        } finally {
+            parser.close();
+        }
+        return roles;
+    }
+
+    /**
+     * Check if a Syncope node is available: any HTTP answer other than a server error (including the 401 of the
+     * unauthenticated /users/self call) means the node is up.
+     *
+     * @param address the Syncope REST API address.
+     * @return true if the node answered, false else.
+     */
+    public boolean probe(String address) {
+        HttpGet get = new HttpGet(address + "/users/self");
+        CloseableHttpResponse response = null;
+        try {
+            response = httpClient.execute(get);
+            return response.getStatusLine().getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        } catch (Exception e) {
+            LOGGER.debug("Syncope node {} health probe failed", address, e);
+            return false;
+        } finally {
+            if (response != null) {
+                try {
+                    EntityUtils.consume(response.getEntity());
+                    response.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Can't release Syncope connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the statistics of the HTTP connection pool.
+     *
+     * @return the total statistics of the pool.
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Close the HTTP client and the pooled connections.
+     */
+    public void close() {
+        if (deadlines != null) {
+            deadlines.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close Syncope HTTP client", e);
+        }
+        connectionManager.shutdown();
+    }
+
+}
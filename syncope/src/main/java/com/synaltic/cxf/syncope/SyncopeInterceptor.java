@@ -1,8 +1,11 @@
 package com.synaltic.cxf.syncope;
 
+import com.synaltic.cxf.common.AbortedExchange;
 import org.apache.cxf.common.security.SimpleGroup;
+import org.apache.cxf.common.security.SimplePrincipal;
 import org.apache.cxf.configuration.security.AuthorizationPolicy;
-import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.continuations.Continuation;
+import org.apache.cxf.continuations.ContinuationProvider;
 import org.apache.cxf.helpers.DOMUtils;
 import org.apache.cxf.interceptor.Fault;
 import org.apache.cxf.interceptor.security.DefaultSecurityContext;
@@ -13,41 +16,47 @@ import org.apache.cxf.phase.AbstractPhaseInterceptor;
 import org.apache.cxf.phase.Phase;
 import org.apache.cxf.security.SecurityContext;
 import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.http.AbstractHTTPDestination;
 import org.apache.cxf.transport.http.Headers;
-import org.apache.cxf.ws.addressing.EndpointReferenceType;
-import org.apache.felix.utils.json.JSONParser;
-import org.apache.http.HttpStatus;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.apache.wss4j.common.principal.WSUsernameTokenPrincipalImpl;
 import org.apache.wss4j.dom.WSConstants;
-import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.message.token.UsernameToken;
-import org.apache.wss4j.dom.validate.Credential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
 import javax.security.auth.Subject;
+import javax.servlet.http.HttpServletRequest;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.security.Principal;
 import java.util.*;
 
 /**
- * This interceptor just get a base authorization, and create a UsernameToken delegated to the Syncope interceptor
+ * This interceptor just get a base authorization, authenticates it on Syncope and checks the user roles against the
+ * roles allowed on the bus.
+ * The credentials go straight from the {@link AuthorizationPolicy} to the principal and roles (no DOM or WSS4J
+ * object), and the rejections are answered with precomputed error responses.
+ * When the session tokens are enabled, a signed token is issued after a successful authentication, and the requests
+ * presenting a valid token are authorized locally.
+ * The configuration and the authenticator are swapped together, as an immutable snapshot, when the configuration is
+ * updated: the interceptor stays in the chain and each request sees a consistent configuration.
  */
 public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
 
     private final Logger LOGGER = LoggerFactory.getLogger(SyncopeInterceptor.class);
 
-    private Dictionary properties;
+    private final static String SUSPENDED_AT = SyncopeInterceptor.class.getName() + ".suspendedAt";
+
+    private final static int TOO_MANY_REQUESTS = 429;
+
+    private final static ErrorResponse UNAUTHORIZED = new ErrorResponse(HttpURLConnection.HTTP_UNAUTHORIZED,
+            Collections.singletonMap("WWW-Authenticate", Collections.singletonList("Basic realm=realm")));
+
+    private volatile Configuration configuration = new Configuration(null, null);
     private String busId;
+    private BusMetrics metrics;
+    // the closed authenticator is only logged once, not on every request
+    private volatile boolean closedLogged;
 
     public SyncopeInterceptor() {
         this(Phase.READ);
@@ -58,26 +67,38 @@ public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
     }
 
     public void sendErrorResponse(Message message, int errorCode) {
+        ErrorResponse template;
+        if (errorCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            template = UNAUTHORIZED;
+        } else if (errorCode == TOO_MANY_REQUESTS) {
+            template = configuration.tooManyRequests;
+        } else {
+            template = new ErrorResponse(errorCode, Collections.<String, List<String>>emptyMap());
+        }
+        sendErrorResponse(message, template);
+    }
 
-        // no authentication provided, send error response
+    /**
+     * Send an error response built from a template, without body: the out message is not a copy of the in message
+     * and doesn't go through the binding.
+     */
+    private void sendErrorResponse(Message message, ErrorResponse template) {
         Exchange exchange = message.getExchange();
         Message outMessage = exchange.getOutMessage();
         if (outMessage == null) {
-            Endpoint endpoint = exchange.get(Endpoint.class);
             outMessage = new MessageImpl();
-            outMessage.putAll(message);
-            outMessage.remove(Message.PROTOCOL_HEADERS);
             outMessage.setExchange(exchange);
-            outMessage = endpoint.getBinding().createMessage(outMessage);
             exchange.setOutMessage(outMessage);
         }
-        outMessage.put(Message.RESPONSE_CODE, errorCode);
-        Map<String, List<String>> responseHeaders = Headers.getSetProtocolHeaders(outMessage);
-        responseHeaders.put("WWW-Authenticate", Arrays.asList(new String[] {"Basic realm=realm"}));
+        outMessage.put(Message.RESPONSE_CODE, template.code);
+        Map<String, List<String>> headers = Headers.getSetProtocolHeaders(outMessage);
+        for (Map.Entry<String, List<String>> header : template.headers.entrySet()) {
+            // the template values are shared, the message gets its own values that the next interceptors can change
+            headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+        }
         message.getInterceptorChain().abort();
 
         try {
-            EndpointReferenceType target = exchange.get(EndpointReferenceType.class);
             if (exchange.getDestination() == null) {
                 LOGGER.debug("Exchange destination is null");
                 return;
@@ -90,10 +111,24 @@ public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
             os.close();
         } catch (Exception e) {
             LOGGER.error("Can't prepare response", e);
+        } finally {
+            // the out chain is not invoked, the interceptors waiting for the end of the exchange are told here
+            AbortedExchange.aborted(exchange);
         }
     }
 
     public void handleMessage(Message message) throws Fault {
+        long start = System.nanoTime();
+        // the same configuration snapshot for the whole request
+        Configuration configuration = this.configuration;
+        InterceptorsUtil util = configuration.util;
+        SyncopeAuthenticator authenticator = configuration.authenticator;
+        if (authenticator != null && authenticator.isClosed() && this.configuration == configuration) {
+            throw closed(start);
+        }
+        if (authorizeToken(message, util, authenticator, start)) {
+            return;
+        }
         AuthorizationPolicy policy = message.get(AuthorizationPolicy.class);
 
         if (policy == null || policy.getUserName() == null || policy.getPassword() == null) {
@@ -101,100 +136,231 @@ public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
             LOGGER.debug("Policy: {}", policy);
             LOGGER.debug("Username: {}", policy != null ? policy.getUserName() : null);
             LOGGER.debug("Password: {}", policy != null ? policy.getPassword() : null);
+            if (metrics != null) {
+                metrics.missingCredentials();
+            }
             sendErrorResponse(message, HttpURLConnection.HTTP_UNAUTHORIZED);
             return;
         }
 
+        boolean authenticated = false;
         try {
-            LOGGER.info("Get authorization policy, converting to username token");
+            LOGGER.debug("Get authorization policy");
+            String username = policy.getUserName();
+            String password = policy.getPassword();
 
-            UsernameToken token = convertPolicyToToken(policy);
-            Credential credential = new Credential();
-            credential.setUsernametoken(token);
+            if (util == null) {
+                throw new Fault(new IllegalStateException("Syncope configuration is not available"));
+            }
 
-            RequestData data = new RequestData();
-            data.setMsgContext(message);
+            if (username.isEmpty()) {
+                throw new Fault(new SecurityException("Empty username is not allowed"));
+            }
+            if (password.isEmpty()) {
+                throw new Fault(new SecurityException("Empty password is not allowed"));
+            }
+
+            if (authenticator == null) {
+                throw new Fault(new IllegalStateException("Syncope authenticator is not available"));
+            }
 
-            // Create a Principal/SecurityContext
-            Principal p = null;
-            if (credential != null && credential.getPrincipal() != null) {
-                p = credential.getPrincipal();
+            List<String> roles;
+            Continuation continuation = getContinuation(message, util);
+            if (continuation != null) {
+                synchronized (continuation) {
+                    if (continuation.isNew()) {
+                        roles = authenticator.authenticate(username, password, getClientAddress(message),
+                                new ContinuationCallback(continuation));
+                        if (roles == null) {
+                            // suspend the exchange, the interceptor is invoked again when resumed
+                            LOGGER.debug("Suspending the exchange waiting for Syncope");
+                            message.put(SUSPENDED_AT, start);
+                            continuation.suspend(util.getAsyncTimeout());
+                            return;
+                        }
+                    } else {
+                        Long suspendedAt = (Long) message.remove(SUSPENDED_AT);
+                        if (suspendedAt != null) {
+                            start = suspendedAt;
+                        }
+                        roles = getAsyncResult(continuation);
+                    }
+                }
             } else {
-                p = new WSUsernameTokenPrincipalImpl(policy.getUserName(), false);
-                ((WSUsernameTokenPrincipalImpl)p).setPassword(policy.getPassword());
+                roles = authenticator.authenticate(username, password, getClientAddress(message));
             }
 
-            // create the util and retrieve Syncope address
-            InterceptorsUtil util = new InterceptorsUtil(properties);
-            String address;
-            try {
-                address = util.getSyncopeAddress();
-            } catch (Exception e) {
-                LOGGER.error("Can't get Syncope address", e);
-                throw new Fault(e);
+            authenticated = true;
+
+            if (!util.authorize(busId, roles)) {
+                throw new Fault(new SecurityException("Unauthorized"));
             }
 
-            String version;
-            try {
-                version = util.getSyncopeVersion();
-            } catch (Exception e) {
-                LOGGER.error("Can't get Syncope version", e);
-                throw new Fault(e);
+            setSecurityContext(message, username, roles);
+
+            SessionTokens tokens = authenticator.getTokens();
+            if (tokens != null) {
+                // sent in the response by the SyncopeTokenInterceptor
+                message.getExchange().put(SessionTokens.class, tokens);
+                message.getExchange().put(SyncopeTokenInterceptor.TOKEN, tokens.issue(username, roles));
             }
 
-            if (token.getName() == null || token.getName().isEmpty()) {
-                throw new Fault(new SecurityException("Empty username is not allowed"));
+            if (metrics != null) {
+                metrics.success(System.nanoTime() - start);
             }
-            if (token.getPassword() == null || token.getPassword().isEmpty()) {
-                throw new Fault(new SecurityException("Empty password is not allowed"));
+        } catch (Exception ex) {
+            if (ex instanceof AuthenticatorClosedException) {
+                if (this.configuration != configuration) {
+                    // the configuration has been updated since the request started
+                    LOGGER.debug("Syncope authenticator retired, authenticating with the new configuration");
+                    handleMessage(message);
+                    return;
+                }
+                throw closed(start);
             }
-
-            DefaultHttpClient client = new DefaultHttpClient();
-            Credentials creds = new UsernamePasswordCredentials(token.getName(), token.getPassword());
-            client.getCredentialsProvider().setCredentials(AuthScope.ANY, creds);
-            HttpGet get = new HttpGet(address + "/users/self");
-            if (version.equals("2.x") || version.equals("2")) {
-                get.setHeader("Content-Type", "application/json");
+            boolean throttled = ex.getCause() instanceof ThrottledException;
+            if (throttled) {
+                LOGGER.debug("Authentication throttled", ex);
             } else {
-                get.setHeader("Content-Type", "application/xml");
+                LOGGER.warn("Authentication failed", ex);
             }
-
-            List<String> roles;
-            try {
-                CloseableHttpResponse response = client.execute(get);
-                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-                    throw new Fault(new SecurityException("Can't authenticate user"));
-                }
-                String responseString = EntityUtils.toString(response.getEntity());
-                if (version.equals("2.x") || version.equals("2")) {
-                    roles = extractingRolesSyncope2(responseString);
+            if (metrics != null) {
+                long duration = System.nanoTime() - start;
+                if (authenticated) {
+                    metrics.unauthorized(duration);
+                } else if (throttled) {
+                    metrics.throttled(duration);
+                } else if (ex.getCause() instanceof SecurityException) {
+                    metrics.rejected(duration);
                 } else {
-                    roles = extractingRolesSyncope1(responseString);
+                    metrics.error(duration);
                 }
-            } catch (Exception e) {
-                throw new Fault(e);
             }
+            sendErrorResponse(message, throttled ? configuration.tooManyRequests : UNAUTHORIZED);
+        }
+    }
 
-            if (!util.authorize(busId, roles)) {
-                throw new Fault(new SecurityException("Unauthorized"));
-            }
+    /**
+     * Fail a request received by an interceptor whose authenticator has been closed without a new configuration:
+     * the syncope bundle has been stopped or updated, and the interceptor left in the bus.
+     */
+    private Fault closed(long start) {
+        if (!closedLogged) {
+            closedLogged = true;
+            LOGGER.error("Syncope authenticator of bus {} is closed, the syncope bundle has been stopped or updated:"
+                    + " the requests fail until the interceptor is removed from the bus", busId);
+        }
+        if (metrics != null) {
+            metrics.error(System.nanoTime() - start);
+        }
+        return new Fault(new IllegalStateException("Syncope interceptor is stopped"));
+    }
 
-            Subject subject = new Subject();
-            subject.getPrincipals().add(p);
-            for (String role : roles) {
-                subject.getPrincipals().add(new SimpleGroup(role, token.getName()));
+    /**
+     * Authorize the request locally if it presents a valid session token.
+     *
+     * @return true if the request has been handled (authorized or rejected), false to authenticate it on Syncope.
+     */
+    private boolean authorizeToken(Message message, InterceptorsUtil util, SyncopeAuthenticator authenticator, long start) {
+        SessionTokens tokens = authenticator != null ? authenticator.getTokens() : null;
+        if (tokens == null || util == null) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        String token = tokens.getToken((Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS));
+        if (token == null) {
+            return false;
+        }
+        SessionTokens.Session session = tokens.verify(token);
+        if (session == null) {
+            // invalid or expired token, fall back on the credentials
+            return false;
+        }
+        if (tokens.isRevoked(session)) {
+            // issued before the invalidation of the user or of one of its roles
+            LOGGER.debug("Session token of user {} revoked", session.getUsername());
+            return false;
+        }
+        try {
+            if (!util.authorize(busId, session.getRoles())) {
+                LOGGER.warn("Session token of user {} not authorized on bus {}", session.getUsername(), busId);
+                if (metrics != null) {
+                    metrics.unauthorized(System.nanoTime() - start);
+                }
+                sendErrorResponse(message, HttpURLConnection.HTTP_UNAUTHORIZED);
+                return true;
             }
-            subject.setReadOnly();
+        } catch (Exception e) {
+            throw new Fault(e);
+        }
+        setSecurityContext(message, session.getUsername(), session.getRoles());
+        if (metrics != null) {
+            metrics.tokenSuccess(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /**
+     * Put the principal and the subject (with the roles, without the password) in the message DefaultSecurityContext.
+     */
+    private static void setSecurityContext(Message message, String username, List<String> roles) {
+        Principal p = new SimplePrincipal(username);
+        Subject subject = new Subject();
+        subject.getPrincipals().add(p);
+        for (int i = 0; i < roles.size(); i++) {
+            subject.getPrincipals().add(new SimpleGroup(roles.get(i), username));
+        }
+        subject.setReadOnly();
+        message.put(DefaultSecurityContext.class, new DefaultSecurityContext(p, subject));
+    }
 
-            // put principal and subject (with the roles) in message DefaultSecurityContext
-            message.put(DefaultSecurityContext.class, new DefaultSecurityContext(p, subject));
+    /**
+     * Get the address of the client, used to throttle the authentication failures.
+     */
+    private static String getClientAddress(Message message) {
+        Object request = message.get(AbstractHTTPDestination.HTTP_REQUEST);
+        if (request instanceof HttpServletRequest) {
+            return ((HttpServletRequest) request).getRemoteAddr();
+        }
+        return null;
+    }
 
-        } catch (Exception ex) {
-            LOGGER.warn("Authentication failed", ex);
-            sendErrorResponse(message, HttpURLConnection.HTTP_UNAUTHORIZED);
+    /**
+     * Get the continuation of the exchange if the asynchronous mode is enabled and supported by the transport.
+     */
+    private Continuation getContinuation(Message message, InterceptorsUtil util) {
+        if (!util.isAsyncEnabled()) {
+            return null;
         }
+        ContinuationProvider provider = message.get(ContinuationProvider.class);
+        if (provider == null) {
+            LOGGER.debug("No continuation available, using synchronous authentication");
+            return null;
+        }
+        return provider.getContinuation();
     }
 
+    /**
+     * Get the result of the asynchronous authentication when the exchange is resumed.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> getAsyncResult(Continuation continuation) throws Fault {
+        Object result = continuation.getObject();
+        continuation.setObject(null);
+        if (result instanceof Fault) {
+            throw (Fault) result;
+        }
+        if (result instanceof List) {
+            return (List<String>) result;
+        }
+        throw new Fault(new SecurityException("Syncope authentication timed out"));
+    }
+
+    /**
+     * @deprecated the credentials are not converted to a UsernameToken anymore, the authentication uses the
+     *             {@link AuthorizationPolicy} directly.
+     */
+    @Deprecated
     protected UsernameToken convertPolicyToToken(AuthorizationPolicy policy)
             throws Exception {
 
@@ -219,56 +385,71 @@ public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
     }
 
     /**
-     * Extract the user roles from the XML provided by Syncope 1.x.
-     *
-     * @param response the HTTP response from Syncope.
-     * @return the list of user roles.
-     * @throws Exception in case of extraction failure.
+     * Precomputed error response: status code and immutable protocol headers.
      */
-    protected List<String> extractingRolesSyncope1(String response) throws Exception {
-        List<String> roles = new ArrayList<String>();
-        if (response != null && !response.isEmpty()) {
-            // extract the <memberships> element if it exists
-            int index = response.indexOf("<memberships>");
-            if (index != -1) {
-                response = response.substring(index + "<memberships>".length());
-                index = response.indexOf("</memberships>");
-                response = response.substring(0, index);
-
-                // looking for the roleName elements
-                index = response.indexOf("<roleName>");
-                while (index != -1) {
-                    response = response.substring(index + "<roleName>".length());
-                    int end = response.indexOf("</roleName>");
-                    if (end == -1) {
-                        index = -1;
-                    }
-                    String role = response.substring(0, end);
-                    roles.add(role);
-                    response = response.substring(end + "</roleName>".length());
-                    index = response.indexOf("<roleName>");
-                }
-            }
+    private final static class ErrorResponse {
 
+        private final int code;
+        private final Map<String, List<String>> headers;
+
+        private ErrorResponse(int code, Map<String, List<String>> headers) {
+            this.code = code;
+            this.headers = headers;
         }
-        return roles;
+
     }
 
     /**
-     * Extract the user roles from the JSON provided by Syncope 2.x.
-     *
-     * @param response the HTTP response from Syncope.
-     * @return the list of user roles.
-     * @throws Exception in case of extractiong failure.
+     * Immutable snapshot of the configuration used by the interceptor: the compiled configuration, the authenticator
+     * built from it and the 429 response template, the Retry-After header being the delay (in seconds) before a
+     * throttled client gets a new authentication attempt.
      */
-    @SuppressWarnings("unchecked")
-    protected List<String> extractingRolesSyncope2(String response) throws Exception {
-        List<String> roles = new ArrayList<String>();
-        if (response != null && !response.isEmpty()) {
-            JSONParser parser = new JSONParser(response);
-            return (List<String>) parser.getParsed().get("roles");
+    private final static class Configuration {
+
+        private final InterceptorsUtil util;
+        private final SyncopeAuthenticator authenticator;
+        private final ErrorResponse tooManyRequests;
+
+        private Configuration(InterceptorsUtil util, SyncopeAuthenticator authenticator) {
+            this.util = util;
+            this.authenticator = authenticator;
+            double rate = util != null ? util.getThrottleRate() : 0;
+            String retryAfter = Long.toString(rate > 0 ? Math.max(1, (long) Math.ceil(1 / rate)) : 1);
+            this.tooManyRequests = new ErrorResponse(TOO_MANY_REQUESTS,
+                    Collections.singletonMap("Retry-After", Collections.singletonList(retryAfter)));
         }
-        return roles;
+
+    }
+
+    /**
+     * Resume the suspended exchange with the result of the Syncope lookup.
+     */
+    private final static class ContinuationCallback implements SyncopeAuthenticator.Callback {
+
+        private final Continuation continuation;
+
+        private ContinuationCallback(Continuation continuation) {
+            this.continuation = continuation;
+        }
+
+        public void onSuccess(List<String> roles) {
+            resume(roles);
+        }
+
+        public void onFailure(Fault fault) {
+            resume(fault);
+        }
+
+        private void resume(Object result) {
+            synchronized (continuation) {
+                // the exchange may have already been resumed by the timeout
+                if (continuation.isPending()) {
+                    continuation.setObject(result);
+                    continuation.resume();
+                }
+            }
+        }
+
     }
 
     public void setBusId(String busId) {
@@ -276,7 +457,30 @@ public class SyncopeInterceptor extends AbstractPhaseInterceptor<Message> {
     }
 
     public void setProperties(Dictionary properties) {
-        this.properties = properties;
+        setUtil(new InterceptorsUtil(properties));
+    }
+
+    public synchronized void setUtil(InterceptorsUtil util) {
+        this.configuration = new Configuration(util, configuration.authenticator);
+    }
+
+    public synchronized void setAuthenticator(SyncopeAuthenticator authenticator) {
+        this.configuration = new Configuration(configuration.util, authenticator);
+    }
+
+    /**
+     * Atomically swap the configuration and the authenticator, the requests in progress completing with the
+     * previous ones.
+     *
+     * @param util the compiled configuration.
+     * @param authenticator the authenticator built from the configuration.
+     */
+    public void setConfiguration(InterceptorsUtil util, SyncopeAuthenticator authenticator) {
+        this.configuration = new Configuration(util, authenticator);
+    }
+
+    public void setMetrics(BusMetrics metrics) {
+        this.metrics = metrics;
     }
 
 }
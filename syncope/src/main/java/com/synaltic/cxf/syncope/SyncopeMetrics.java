@@ -0,0 +1,263 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics of the Syncope bundle: Syncope calls, authentication cache, failures rejected locally, HTTP pool,
+ * Syncope nodes and per bus authentication metrics.
+ * The recording is lock-free (striped counters and preallocated histograms), the latencies are in microseconds.
+ * The metrics are exposed as JMX MBeans and as an OSGi service.
+ */
+public class SyncopeMetrics implements SyncopeMetricsMBean {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SyncopeMetrics.class);
+
+    private final static String DOMAIN = "com.synaltic.cxf.syncope";
+
+    private final LatencyHistogram syncopeLatency = new LatencyHistogram();
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    private final StripedCounter cacheHits = new StripedCounter();
+    private final StripedCounter cacheMisses = new StripedCounter();
+    private final StripedCounter cacheEvictions = new StripedCounter();
+    private final StripedCounter negativeCacheHits = new StripedCounter();
+    private final StripedCounter throttled = new StripedCounter();
+    private final ConcurrentHashMap<String, BusMetrics> buses = new ConcurrentHashMap<String, BusMetrics>();
+
+    private volatile SyncopeAuthenticator authenticator;
+    private MBeanServer mbeanServer;
+
+    /**
+     * Get (and register in JMX if needed) the metrics of a bus.
+     *
+     * @param busId the CXF bus ID.
+     * @return the bus metrics.
+     */
+    public BusMetrics getBusMetrics(String busId) {
+        BusMetrics metrics = buses.get(busId);
+        if (metrics == null) {
+            BusMetrics created = new BusMetrics(busId);
+            metrics = buses.putIfAbsent(busId, created);
+            if (metrics == null) {
+                metrics = created;
+                registerMBean(created, busObjectName(busId));
+            }
+        }
+        return metrics;
+    }
+
+    public Collection<BusMetrics> getBusMetrics() {
+        return Collections.unmodifiableCollection(buses.values());
+    }
+
+    public void syncopeCall(long nanos) {
+        syncopeLatency.record(nanos);
+    }
+
+    public void parse(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void cacheEviction() {
+        cacheEvictions.increment();
+    }
+
+    public void negativeCacheHit() {
+        negativeCacheHits.increment();
+    }
+
+    public void throttled() {
+        throttled.increment();
+    }
+
+    public void setAuthenticator(SyncopeAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Register the MBeans in the platform MBean server.
+     */
+    public synchronized void register() {
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        registerMBean(this, objectName("type=Metrics"));
+        for (BusMetrics metrics : buses.values()) {
+            registerMBean(metrics, busObjectName(metrics.getBusId()));
+        }
+    }
+
+    /**
+     * Unregister the MBeans from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (mbeanServer == null) {
+            return;
+        }
+        unregisterMBean(objectName("type=Metrics"));
+        for (String busId : buses.keySet()) {
+            unregisterMBean(busObjectName(busId));
+        }
+        mbeanServer = null;
+    }
+
+    private synchronized void registerMBean(Object mbean, ObjectName name) {
+        if (mbeanServer == null || name == null) {
+            return;
+        }
+        try {
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(mbean, name);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Can't register MBean {}", name, e);
+        }
+    }
+
+    private void unregisterMBean(ObjectName name) {
+        try {
+            if (name != null && mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Can't unregister MBean {}", name, e);
+        }
+    }
+
+    private static ObjectName busObjectName(String busId) {
+        return objectName("type=BusMetrics,bus=" + ObjectName.quote(busId));
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (Exception e) {
+            LOGGER.warn("Invalid MBean name {}", properties, e);
+            return null;
+        }
+    }
+
+    public long getSyncopeCalls() {
+        return syncopeLatency.getCount();
+    }
+
+    public double getSyncopeLatencyMean() {
+        return syncopeLatency.getMean();
+    }
+
+    public long getSyncopeLatency50thPercentile() {
+        return syncopeLatency.getPercentile(50);
+    }
+
+    public long getSyncopeLatency99thPercentile() {
+        return syncopeLatency.getPercentile(99);
+    }
+
+    public long getSyncopeLatencyMax() {
+        return syncopeLatency.getMax();
+    }
+
+    public double getParseTimeMean() {
+        return parseTime.getMean();
+    }
+
+    public long getParseTime99thPercentile() {
+        return parseTime.getPercentile(99);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions.sum();
+    }
+
+    public long getNegativeCacheHits() {
+        return negativeCacheHits.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public int getCacheSize() {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        if (authenticator == null || authenticator.getCache() == null) {
+            return 0;
+        }
+        return authenticator.getCache().size();
+    }
+
+    public int getPoolLeased() {
+        PoolStats stats = getPoolStats();
+        return stats != null ? stats.getLeased() : 0;
+    }
+
+    public int getPoolAvailable() {
+        PoolStats stats = getPoolStats();
+        return stats != null ? stats.getAvailable() : 0;
+    }
+
+    public int getPoolPending() {
+        PoolStats stats = getPoolStats();
+        return stats != null ? stats.getPending() : 0;
+    }
+
+    public int getPoolMax() {
+        PoolStats stats = getPoolStats();
+        return stats != null ? stats.getMax() : 0;
+    }
+
+    public int getSyncopeNodes() {
+        SyncopeBalancer balancer = getBalancer();
+        return balancer != null ? balancer.getNodes().size() : 0;
+    }
+
+    public int getSyncopeHealthyNodes() {
+        SyncopeBalancer balancer = getBalancer();
+        return balancer != null ? balancer.getHealthyNodes() : 0;
+    }
+
+    private SyncopeBalancer getBalancer() {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        return authenticator != null ? authenticator.getBalancer() : null;
+    }
+
+    private PoolStats getPoolStats() {
+        SyncopeAuthenticator authenticator = this.authenticator;
+        return authenticator != null ? authenticator.getPoolStats() : null;
+    }
+
+    public void reset() {
+        syncopeLatency.reset();
+        parseTime.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheEvictions.reset();
+        negativeCacheHits.reset();
+        throttled.reset();
+        for (BusMetrics metrics : buses.values()) {
+            metrics.reset();
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.synaltic.cxf.syncope;
+
+/**
+ * JMX view of the Syncope calls, authentication cache, HTTP pool and Syncope nodes metrics.
+ */
+public interface SyncopeMetricsMBean {
+
+    long getSyncopeCalls();
+
+    double getSyncopeLatencyMean();
+
+    long getSyncopeLatency50thPercentile();
+
+    long getSyncopeLatency99thPercentile();
+
+    long getSyncopeLatencyMax();
+
+    double getParseTimeMean();
+
+    long getParseTime99thPercentile();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    int getCacheSize();
+
+    long getNegativeCacheHits();
+
+    long getThrottled();
+
+    int getPoolLeased();
+
+    int getPoolAvailable();
+
+    int getPoolPending();
+
+    int getPoolMax();
+
+    int getSyncopeNodes();
+
+    int getSyncopeHealthyNodes();
+
+    void reset();
+
+}
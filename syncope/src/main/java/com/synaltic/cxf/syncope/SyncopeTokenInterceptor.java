@@ -0,0 +1,34 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.http.Headers;
+
+/**
+ * Out interceptor sending the session token issued by the {@link SyncopeInterceptor} in the response
+ * (header or cookie).
+ */
+public class SyncopeTokenInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    public final static String TOKEN = SyncopeTokenInterceptor.class.getName() + ".token";
+
+    public SyncopeTokenInterceptor() {
+        super(Phase.PRE_STREAM);
+    }
+
+    public void handleMessage(Message message) throws Fault {
+        Exchange exchange = message.getExchange();
+        if (exchange == null) {
+            return;
+        }
+        String token = (String) exchange.get(TOKEN);
+        SessionTokens tokens = exchange.get(SessionTokens.class);
+        if (token != null && tokens != null) {
+            tokens.addToken(Headers.getSetProtocolHeaders(message), token);
+        }
+    }
+
+}
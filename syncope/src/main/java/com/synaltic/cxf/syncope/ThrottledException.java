@@ -0,0 +1,12 @@
+package com.synaltic.cxf.syncope;
+
+/**
+ * Authentication refused without calling Syncope because of too many recent failures for the user or the client.
+ */
+public class ThrottledException extends SecurityException {
+
+    public ThrottledException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.synaltic.cxf.syncope.command;
+
+import com.synaltic.cxf.syncope.CacheInvalidationService;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+/**
+ * Invalidate the cached Syncope authentications of a user, of the users having a role, or all of them.
+ */
+@Command(scope = "syncope", name = "cache-invalidate", description = "Invalidate the cached Syncope authentications")
+@Service
+public class CacheInvalidateCommand implements Action {
+
+    @Option(name = "-u", aliases = "--user", description = "Invalidate the authentications of this user")
+    String user;
+
+    @Option(name = "-r", aliases = "--role", description = "Invalidate the authentications of the users having this role")
+    String role;
+
+    @Option(name = "-a", aliases = "--all", description = "Invalidate all the authentications")
+    boolean all;
+
+    @Reference
+    CacheInvalidationService service;
+
+    public Object execute() throws Exception {
+        int count;
+        if (all) {
+            count = service.invalidateAll();
+        } else if (user != null) {
+            count = service.invalidateUser(user);
+        } else if (role != null) {
+            count = service.invalidateRole(role);
+        } else {
+            System.err.println("One of --user, --role or --all is required");
+            return null;
+        }
+        System.out.println(count + " cache entries invalidated");
+        return null;
+    }
+
+}
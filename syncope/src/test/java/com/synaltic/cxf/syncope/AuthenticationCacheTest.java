@@ -0,0 +1,78 @@
+package com.synaltic.cxf.syncope;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AuthenticationCacheTest {
+
+    @Test
+    public void testSizeBound() {
+        AuthenticationCache cache = new AuthenticationCache(100, 60000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("user" + i + ":hash", Collections.singletonList("role"));
+        }
+        Assert.assertEquals(100, cache.size());
+        // the last entry put is the most recently used of its segment
+        Assert.assertEquals(Collections.singletonList("role"), cache.get("user999:hash"));
+    }
+
+    @Test
+    public void testSmallCache() {
+        AuthenticationCache cache = new AuthenticationCache(3, 60000);
+        for (int i = 0; i < 10; i++) {
+            cache.put("user" + i + ":hash", Collections.singletonList("role"));
+        }
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache(10, 50, 1000, null);
+        cache.put("user:hash", Collections.singletonList("role"));
+        Assert.assertNotNull(cache.get("user:hash"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("user:hash"));
+        // still available in the grace period
+        Assert.assertEquals(Collections.singletonList("role"), cache.getStale("user:hash"));
+    }
+
+    @Test
+    public void testPutAfterInvalidation() {
+        AuthenticationCache cache = new AuthenticationCache(10, 60000);
+        long generation = cache.generation();
+        cache.invalidateUser("user");
+        cache.put("user:hash", Collections.singletonList("role"), generation);
+        Assert.assertNull(cache.get("user:hash"));
+        cache.put("user:hash", Collections.singletonList("role"), cache.generation());
+        Assert.assertNotNull(cache.get("user:hash"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        AuthenticationCache cache = new AuthenticationCache(100, 60000);
+        cache.put("user:hash1", Arrays.asList("admin", "user"));
+        cache.put("user:hash2", Collections.singletonList("user"));
+        cache.put("user2:hash", Collections.singletonList("admin"));
+        cache.put("other:hash", Collections.singletonList("guest"));
+        Assert.assertEquals(2, cache.invalidateUser("user"));
+        Assert.assertNotNull(cache.get("user2:hash"));
+        Assert.assertEquals(1, cache.invalidateRole("ADMIN"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.clear());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRefreshMark() {
+        AuthenticationCache cache = new AuthenticationCache(10, 60000);
+        cache.put("user:hash", Collections.singletonList("role"));
+        Assert.assertTrue(cache.markRefresh("user:hash", 0));
+        Assert.assertFalse(cache.markRefresh("user:hash", 0));
+        cache.cancelRefresh("user:hash");
+        Assert.assertTrue(cache.markRefresh("user:hash", 0));
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.synaltic.cxf.syncope;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+public class CacheSnapshotTest {
+
+    private final static String KEY = "0123456789abcdef0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestore() throws Exception {
+        File file = save(KEY);
+        Assert.assertTrue(file.isFile());
+
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = restore(file, KEY);
+        try {
+            Assert.assertEquals(1, authenticator.getCache().size());
+            // the restored salt gives the same credential key
+            Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "secret"));
+            Assert.assertEquals(0, authenticator.lookups.get());
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testRestoredOnce() throws Exception {
+        File file = save(KEY);
+        Hashtable<String, Object> properties = properties(KEY);
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        CacheSnapshot snapshot = new CacheSnapshot(file);
+        try {
+            snapshot.read();
+            snapshot.restore(authenticator, new InterceptorsUtil(properties));
+            Assert.assertEquals(1, authenticator.getCache().size());
+            authenticator.getCache().clear();
+            // a configuration update doesn't restore the snapshot again
+            snapshot.restore(authenticator, new InterceptorsUtil(properties));
+            Assert.assertEquals(0, authenticator.getCache().size());
+        } finally {
+            snapshot.close();
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testEncrypted() throws Exception {
+        File file = save(KEY);
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        String content = new String(bytes, "ISO-8859-1");
+        Assert.assertTrue(content.startsWith("SCS1"));
+        Assert.assertFalse(content.contains("alice"));
+        Assert.assertFalse(content.contains("admin"));
+    }
+
+    @Test
+    public void testWrongKey() throws Exception {
+        File file = save(KEY);
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = restore(file, "fedcba9876543210fedcba9876543210");
+        try {
+            Assert.assertEquals(0, authenticator.getCache().size());
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testTampered() throws Exception {
+        File file = save(KEY);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(30);
+            int b = out.read();
+            out.seek(30);
+            out.write(b ^ 0x01);
+        } finally {
+            out.close();
+        }
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = restore(file, KEY);
+        try {
+            Assert.assertEquals(0, authenticator.getCache().size());
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testShortKey() throws Exception {
+        File file = save("short");
+        Assert.assertFalse(file.exists());
+    }
+
+    private File save(String key) throws Exception {
+        File file = new File(folder.getRoot(), "authentication-cache.snapshot");
+        Hashtable<String, Object> properties = properties(key);
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        CacheSnapshot snapshot = new CacheSnapshot(file);
+        try {
+            authenticator.authenticate("alice", "secret");
+            snapshot.save(authenticator, new InterceptorsUtil(properties));
+        } finally {
+            snapshot.close();
+            authenticator.close();
+        }
+        return file;
+    }
+
+    private static SyncopeAuthenticatorTest.StubAuthenticator restore(File file, String key) {
+        Hashtable<String, Object> properties = properties(key);
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        CacheSnapshot snapshot = new CacheSnapshot(file);
+        try {
+            snapshot.read();
+            snapshot.restore(authenticator, new InterceptorsUtil(properties));
+        } finally {
+            snapshot.close();
+        }
+        return authenticator;
+    }
+
+    private static Hashtable<String, Object> properties(String key) {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.cache.enabled", "true");
+        properties.put("syncope.cache.snapshot.enabled", "true");
+        properties.put("syncope.cache.snapshot.key", key);
+        return properties;
+    }
+
+}
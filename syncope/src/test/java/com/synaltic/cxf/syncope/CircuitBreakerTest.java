@@ -0,0 +1,181 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.interceptor.Fault;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testFailureRate() {
+        CircuitBreaker breaker = breaker(60000);
+        // fewer calls than minimumCalls: the circuit stays closed
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+        // 3 failures on 4 calls
+        breaker.onSuccess(10);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testSlowCallRate() {
+        CircuitBreaker breaker = breaker(60000);
+        breaker.onSuccess(10);
+        breaker.onSuccess(200);
+        breaker.onSuccess(10);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // 2 slow calls on 4 calls
+        breaker.onSuccess(100);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        CircuitBreaker breaker = breaker(60000);
+        breaker.onFailure();
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(10);
+        }
+        // the failure left the window of 10 calls
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // 5 failures on 10 calls
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpen() throws Exception {
+        CircuitBreaker breaker = breaker(50);
+        open(breaker);
+        Assert.assertFalse(breaker.allowRequest());
+        Thread.sleep(100);
+        // 2 probe calls allowed once the open duration is elapsed
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.allowRequest());
+        breaker.onSuccess(10);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(10);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // the window is reset
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenFailure() throws Exception {
+        CircuitBreaker breaker = breaker(50);
+        open(breaker);
+        Thread.sleep(100);
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+
+        Thread.sleep(100);
+        Assert.assertTrue(breaker.allowRequest());
+        // a slow probe opens the circuit again
+        breaker.onSuccess(100);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testStaleGracePeriod() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.cache.enabled", "true");
+        properties.put("syncope.cache.ttl", "50");
+        properties.put("syncope.circuit.enabled", "true");
+        properties.put("syncope.circuit.staleGracePeriod", "60000");
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        try {
+            Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "secret"));
+            Thread.sleep(100);
+            // Syncope unavailable: the expired entry is used during the grace period
+            authenticator.fault = new Fault(new IOException("Syncope circuit breaker is open"));
+            Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "secret"));
+            Assert.assertEquals(2, authenticator.lookups.get());
+            // not for other credentials
+            try {
+                authenticator.authenticate("alice", "other");
+                Assert.fail("The credentials are not cached");
+            } catch (Fault f) {
+                Assert.assertTrue(f.getCause() instanceof IOException);
+            }
+            // rejected by Syncope: the entry is removed
+            authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+            try {
+                authenticator.authenticate("alice", "secret");
+                Assert.fail("The credentials are rejected");
+            } catch (Fault f) {
+                Assert.assertTrue(f.getCause() instanceof SecurityException);
+            }
+            authenticator.fault = new Fault(new IOException("Syncope circuit breaker is open"));
+            try {
+                authenticator.authenticate("alice", "secret");
+                Assert.fail("The rejected credentials are not cached anymore");
+            } catch (Fault f) {
+                Assert.assertTrue(f.getCause() instanceof IOException);
+            }
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.cache.enabled", "true");
+        properties.put("syncope.cache.ttl", "50");
+        properties.put("syncope.circuit.enabled", "true");
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        try {
+            authenticator.authenticate("alice", "secret");
+            Thread.sleep(100);
+            // no grace period: the expired entry is not used
+            authenticator.fault = new Fault(new IOException("Syncope circuit breaker is open"));
+            try {
+                authenticator.authenticate("alice", "secret");
+                Assert.fail("Syncope is unavailable");
+            } catch (Fault f) {
+                Assert.assertTrue(f.getCause() instanceof IOException);
+            }
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker breaker(long openDuration) {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.circuit.windowSize", "10");
+        properties.put("syncope.circuit.minimumCalls", "4");
+        properties.put("syncope.circuit.failureRateThreshold", "50");
+        properties.put("syncope.circuit.slowCallThreshold", "100");
+        properties.put("syncope.circuit.slowCallRateThreshold", "50");
+        properties.put("syncope.circuit.openDuration", Long.toString(openDuration));
+        properties.put("syncope.circuit.halfOpenCalls", "2");
+        return new CircuitBreaker(new InterceptorsUtil(properties));
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.synaltic.cxf.syncope;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FailureThrottleTest {
+
+    @Test
+    public void testBurst() {
+        FailureThrottle throttle = new FailureThrottle(3, 0, 10);
+        for (int i = 0; i < 2; i++) {
+            throttle.failure("alice");
+            Assert.assertFalse(throttle.isThrottled("alice"));
+        }
+        throttle.failure("alice");
+        Assert.assertTrue(throttle.isThrottled("alice"));
+        Assert.assertFalse(throttle.isThrottled("bob"));
+
+        throttle.reset("alice");
+        Assert.assertFalse(throttle.isThrottled("alice"));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        // a token every 50ms
+        FailureThrottle throttle = new FailureThrottle(1, 20, 10);
+        throttle.failure("alice");
+        Assert.assertTrue(throttle.isThrottled("alice"));
+        Thread.sleep(100);
+        Assert.assertFalse(throttle.isThrottled("alice"));
+        throttle.failure("alice");
+        Assert.assertTrue(throttle.isThrottled("alice"));
+    }
+
+    @Test
+    public void testNullKey() {
+        FailureThrottle throttle = new FailureThrottle(1, 0, 10);
+        throttle.failure(null);
+        Assert.assertFalse(throttle.isThrottled(null));
+        Assert.assertEquals(0, throttle.size());
+    }
+
+    @Test
+    public void testMaxKeys() throws Exception {
+        FailureThrottle throttle = new FailureThrottle(1, 0, 2);
+        throttle.failure("alice");
+        throttle.failure("bob");
+        // full of throttled keys: the new key is not tracked
+        throttle.failure("carol");
+        Assert.assertEquals(2, throttle.size());
+        Assert.assertFalse(throttle.isThrottled("carol"));
+
+        // the idle buckets are dropped to track new keys
+        throttle = new FailureThrottle(2, 100, 2);
+        throttle.failure("alice");
+        throttle.failure("bob");
+        Thread.sleep(50);
+        throttle.failure("carol");
+        throttle.failure("carol");
+        Assert.assertEquals(1, throttle.size());
+        Assert.assertTrue(throttle.isThrottled("carol"));
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.synaltic.cxf.syncope;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Hashtable;
+
+public class InvalidationEndpointTest {
+
+    private final static String KEY = "invalidation-key";
+
+    private SyncopeAuthenticatorTest.StubAuthenticator authenticator;
+    private CacheInvalidationService service;
+    private InvalidationEndpoint endpoint;
+    private int port;
+
+    @Before
+    public void start() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.cache.enabled", "true");
+        authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        authenticator.authenticate("alice", "secret");
+        service = new CacheInvalidationService();
+        service.setAuthenticator(authenticator);
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+    }
+
+    @After
+    public void stop() {
+        if (endpoint != null) {
+            endpoint.stop();
+        }
+        authenticator.close();
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        endpoint = new InvalidationEndpoint("127.0.0.1", port, KEY, service);
+        endpoint.start();
+        Assert.assertEquals(405, call("GET", "user=alice", KEY, 0));
+        Assert.assertEquals(401, call("POST", "user=alice", null, 0));
+        Assert.assertEquals(401, call("POST", "user=alice", "wrong", 0));
+        Assert.assertEquals(1, authenticator.getCache().size());
+        Assert.assertEquals(400, call("POST", "", KEY, 0));
+        Assert.assertEquals(200, call("POST", "user=alice", KEY, 0));
+        Assert.assertEquals(0, authenticator.getCache().size());
+    }
+
+    @Test
+    public void testBody() throws Exception {
+        endpoint = new InvalidationEndpoint("127.0.0.1", port, KEY, service);
+        endpoint.start();
+        Assert.assertEquals(413, call("POST", "all=true", KEY, InvalidationEndpoint.MAX_BODY + 1));
+        Assert.assertEquals(1, authenticator.getCache().size());
+        Assert.assertEquals(200, call("POST", "all=true", KEY, 16));
+        Assert.assertEquals(0, authenticator.getCache().size());
+    }
+
+    @Test
+    public void testLoopbackWithoutKey() throws Exception {
+        endpoint = new InvalidationEndpoint("127.0.0.1", port, null, service);
+        endpoint.start();
+        Assert.assertEquals(200, call("POST", "role=admin", null, 0));
+        Assert.assertEquals(0, authenticator.getCache().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testKeyRequired() throws Exception {
+        endpoint = new InvalidationEndpoint("0.0.0.0", port, null, service);
+        endpoint.start();
+    }
+
+    private int call(String method, String query, String key, int bodyLength) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + port + InvalidationEndpoint.PATH + "?" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (key != null) {
+                connection.setRequestProperty("X-Syncope-Invalidation-Key", key);
+            }
+            if (bodyLength > 0) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(bodyLength);
+                OutputStream out = connection.getOutputStream();
+                out.write(new byte[bodyLength]);
+                out.close();
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
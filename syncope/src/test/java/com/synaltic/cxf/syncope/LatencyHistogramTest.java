@@ -0,0 +1,43 @@
+package com.synaltic.cxf.syncope;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 900; i++) {
+                        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        histogram.record(TimeUnit.MICROSECONDS.toNanos(5000));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(8000, histogram.getCount());
+        Assert.assertEquals(5000, histogram.getMax());
+        Assert.assertEquals(590, histogram.getMean(), 0.001);
+        // 100us is in the [64, 128[ bucket, 5000us in the last used one, bounded by the max
+        Assert.assertEquals(128, histogram.getPercentile(50));
+        Assert.assertEquals(128, histogram.getPercentile(90));
+        Assert.assertEquals(5000, histogram.getPercentile(99));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+    }
+
+}
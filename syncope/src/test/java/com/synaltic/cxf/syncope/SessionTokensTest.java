@@ -0,0 +1,203 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.common.util.Base64UrlUtility;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.http.Headers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SessionTokensTest {
+
+    private final static String KEY = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void testRoundTrip() {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        long before = System.currentTimeMillis();
+        String token = tokens.issue("alice", Arrays.asList("admin", "user"));
+        SessionTokens.Session session = tokens.verify(token);
+        Assert.assertNotNull(session);
+        Assert.assertEquals("alice", session.getUsername());
+        Assert.assertEquals(Arrays.asList("admin", "user"), session.getRoles());
+        Assert.assertTrue(session.getExpiry() >= before + 300000);
+        Assert.assertTrue(session.getExpiry() <= System.currentTimeMillis() + 300000);
+        // another node sharing the key accepts the token
+        Assert.assertNotNull(tokens(KEY, 300000, null).verify(token));
+    }
+
+    @Test
+    public void testTampered() throws Exception {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        String token = tokens.issue("alice", Arrays.asList("user"));
+        int dot = token.indexOf('.');
+        byte[] payload = Base64UrlUtility.decode(token.substring(0, dot));
+        // the same payload with another role: "user" becomes "usee"
+        payload[payload.length - 1] = 'e';
+        Assert.assertNull(tokens.verify(Base64UrlUtility.encode(payload) + token.substring(dot)));
+        byte[] signature = Base64UrlUtility.decode(token.substring(dot + 1));
+        signature[0] ^= 0x01;
+        Assert.assertNull(tokens.verify(token.substring(0, dot + 1) + Base64UrlUtility.encode(signature)));
+        Assert.assertNull(tokens.verify(token.substring(0, dot)));
+        Assert.assertNull(tokens.verify(token.substring(0, dot) + "."));
+        Assert.assertNull(tokens.verify("." + token.substring(dot + 1)));
+        Assert.assertNull(tokens.verify("not a token"));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        SessionTokens tokens = tokens(KEY, 1, null);
+        String token = tokens.issue("alice", Arrays.asList("user"));
+        Thread.sleep(10);
+        Assert.assertNull(tokens.verify(token));
+        // signed with the key, but already expired
+        Assert.assertNull(tokens.verify(sign(KEY, payload(1, System.currentTimeMillis() - 1000, "alice"))));
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        long expiry = System.currentTimeMillis() + 300000;
+        Assert.assertNotNull(tokens.verify(sign(KEY, payload(1, expiry, "alice"))));
+        Assert.assertNull(tokens.verify(sign(KEY, payload(2, expiry, "alice"))));
+    }
+
+    @Test
+    public void testKeyMismatch() throws Exception {
+        String token = tokens("fedcba9876543210fedcba9876543210", 300000, null).issue("alice", Arrays.asList("user"));
+        Assert.assertNull(tokens(KEY, 300000, null).verify(token));
+    }
+
+    @Test
+    public void testRevoke() throws Exception {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        String alice = tokens.issue("alice", Arrays.asList("user"));
+        String bob = tokens.issue("bob", Arrays.asList("Admin"));
+        String carol = tokens.issue("carol", Arrays.asList("user"));
+        Thread.sleep(2);
+        tokens.revokeUser("alice");
+        Assert.assertTrue(tokens.isRevoked(tokens.verify(alice)));
+        Assert.assertFalse(tokens.isRevoked(tokens.verify(bob)));
+        tokens.revokeRole("admin");
+        Assert.assertTrue(tokens.isRevoked(tokens.verify(bob)));
+        Assert.assertFalse(tokens.isRevoked(tokens.verify(carol)));
+        Thread.sleep(2);
+        // the tokens issued after the revocation are accepted
+        Assert.assertFalse(tokens.isRevoked(tokens.verify(tokens.issue("alice", Arrays.asList("user")))));
+        Assert.assertFalse(tokens.isRevoked(tokens.verify(tokens.issue("bob", Arrays.asList("admin")))));
+        tokens.revokeAll();
+        Assert.assertTrue(tokens.isRevoked(tokens.verify(carol)));
+    }
+
+    @Test
+    public void testCreate() {
+        Assert.assertNull(SessionTokens.create(new InterceptorsUtil(new Hashtable<String, Object>())));
+        // the key is too short
+        Assert.assertNull(tokens("0123456789", 300000, null));
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.token.enabled", "true");
+        Assert.assertNull(SessionTokens.create(new InterceptorsUtil(properties)));
+    }
+
+    @Test
+    public void testHeader() {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        Map<String, List<String>> headers = headers();
+        Assert.assertNull(tokens.getToken(headers));
+        Assert.assertNull(tokens.getToken(null));
+        headers.put("x-syncope-token", Arrays.asList(" token "));
+        Assert.assertEquals("token", tokens.getToken(headers));
+        // no cookie configured
+        headers = headers();
+        headers.put("Cookie", Arrays.asList("X-Syncope-Token=token"));
+        Assert.assertNull(tokens.getToken(headers));
+
+        headers = headers();
+        tokens.addToken(headers, "token");
+        Assert.assertEquals(Arrays.asList("token"), headers.get("X-Syncope-Token"));
+    }
+
+    @Test
+    public void testCookie() {
+        SessionTokens tokens = tokens(KEY, 300000, "SYNCOPE");
+        Map<String, List<String>> headers = headers();
+        headers.put("Cookie", Arrays.asList("a=1", "b=2; SYNCOPE=token; c=3"));
+        Assert.assertEquals("token", tokens.getToken(headers));
+        headers.put("Cookie", Arrays.asList("XSYNCOPE=other; SYNCOPE2=other"));
+        Assert.assertNull(tokens.getToken(headers));
+        // the header wins over the cookie
+        headers.put("Cookie", Arrays.asList("SYNCOPE=cookie"));
+        headers.put("X-Syncope-Token", Arrays.asList("header"));
+        Assert.assertEquals("header", tokens.getToken(headers));
+
+        headers = headers();
+        headers.put("Set-Cookie", new ArrayList<String>(Arrays.asList("other=1")));
+        tokens.addToken(headers, "token");
+        Assert.assertEquals(Arrays.asList("other=1", "SYNCOPE=token; Path=/; Max-Age=300; HttpOnly"), headers.get("Set-Cookie"));
+        Assert.assertNull(headers.get("X-Syncope-Token"));
+    }
+
+    @Test
+    public void testInterceptor() {
+        SessionTokens tokens = tokens(KEY, 300000, null);
+        SyncopeTokenInterceptor interceptor = new SyncopeTokenInterceptor();
+        Exchange exchange = new ExchangeImpl();
+        Message message = new MessageImpl();
+        exchange.setOutMessage(message);
+        // no token issued for the exchange
+        interceptor.handleMessage(message);
+        Assert.assertNull(Headers.getSetProtocolHeaders(message).get("X-Syncope-Token"));
+
+        exchange.put(SessionTokens.class, tokens);
+        exchange.put(SyncopeTokenInterceptor.TOKEN, "token");
+        interceptor.handleMessage(message);
+        Assert.assertEquals(Arrays.asList("token"), Headers.getSetProtocolHeaders(message).get("X-Syncope-Token"));
+    }
+
+    static SessionTokens tokens(String key, long ttl, String cookie) {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.token.enabled", "true");
+        properties.put("syncope.token.key", key);
+        properties.put("syncope.token.ttl", Long.toString(ttl));
+        if (cookie != null) {
+            properties.put("syncope.token.cookie", cookie);
+        }
+        return SessionTokens.create(new InterceptorsUtil(properties));
+    }
+
+    private static Map<String, List<String>> headers() {
+        return new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    private static byte[] payload(int version, long expiry, String username) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(version);
+        out.writeLong(expiry);
+        out.writeUTF(username);
+        out.writeShort(1);
+        out.writeUTF("user");
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String sign(String key, byte[] payload) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getBytes("UTF-8"), "HmacSHA256"));
+        return Base64UrlUtility.encode(payload) + "." + Base64UrlUtility.encode(mac.doFinal(payload));
+    }
+
+}
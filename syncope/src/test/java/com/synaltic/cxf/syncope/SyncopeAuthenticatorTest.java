@@ -0,0 +1,330 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.interceptor.Fault;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SyncopeAuthenticatorTest {
+
+    private StubAuthenticator authenticator;
+
+    @After
+    public void close() {
+        if (authenticator != null) {
+            authenticator.close();
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        authenticator = new StubAuthenticator(new Hashtable<String, Object>());
+        authenticator.release = new CountDownLatch(1);
+        List<Caller> callers = start(8, "alice", "secret");
+        awaitWaiting(callers);
+        authenticator.release.countDown();
+        for (Caller caller : callers) {
+            caller.join(5000);
+            Assert.assertNull(caller.fault);
+            Assert.assertEquals(Arrays.asList("admin"), caller.roles);
+        }
+        Assert.assertEquals(1, authenticator.lookups.get());
+
+        // the flight is over, the next call looks up again
+        authenticator.release = null;
+        Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "secret"));
+        Assert.assertEquals(2, authenticator.lookups.get());
+    }
+
+    @Test
+    public void testCoalescedFailure() throws Exception {
+        authenticator = new StubAuthenticator(new Hashtable<String, Object>());
+        authenticator.release = new CountDownLatch(1);
+        authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+        List<Caller> callers = start(4, "alice", "wrong");
+        awaitWaiting(callers);
+        authenticator.release.countDown();
+        for (Caller caller : callers) {
+            caller.join(5000);
+            Assert.assertSame(authenticator.fault, caller.fault);
+        }
+        Assert.assertEquals(1, authenticator.lookups.get());
+    }
+
+    @Test
+    public void testDistinctCredentials() throws Exception {
+        authenticator = new StubAuthenticator(new Hashtable<String, Object>());
+        authenticator.release = new CountDownLatch(1);
+        List<Caller> callers = start(2, "alice", "secret");
+        callers.addAll(start(2, "alice", "other"));
+        awaitWaiting(callers);
+        authenticator.release.countDown();
+        for (Caller caller : callers) {
+            caller.join(5000);
+            Assert.assertNull(caller.fault);
+        }
+        Assert.assertEquals(2, authenticator.lookups.get());
+    }
+
+    @Test
+    public void testFailedRefresh() throws Exception {
+        authenticator = new StubAuthenticator(refreshProperties());
+        Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "secret"));
+        Thread.sleep(150);
+        authenticator.fault = new Fault(new IOException("Syncope is unavailable"));
+        // each failed refresh releases the entry for the next one
+        awaitRefreshes(3, "alice", "secret");
+    }
+
+    @Test
+    public void testRefreshDuringInvalidation() throws Exception {
+        authenticator = new StubAuthenticator(refreshProperties());
+        authenticator.authenticate("alice", "secret");
+        Thread.sleep(150);
+        authenticator.release = new CountDownLatch(1);
+        authenticator.authenticate("alice", "secret");
+        while (authenticator.lookups.get() < 2) {
+            Thread.sleep(1);
+        }
+        // the refreshed roles are not cached, but alice's entry is still there and still refreshable
+        authenticator.invalidateUser("bob");
+        authenticator.release.countDown();
+        authenticator.release = null;
+        awaitRefreshes(3, "alice", "secret");
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.negativeCache.ttl", "10000");
+        authenticator = new StubAuthenticator(properties);
+        authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+        assertRejected("alice", "wrong", SecurityException.class);
+        // answered locally
+        assertRejected("alice", "wrong", SecurityException.class);
+        Assert.assertEquals(1, authenticator.lookups.get());
+
+        // an unavailable Syncope is not cached
+        authenticator.fault = new Fault(new IOException("Syncope is unavailable"));
+        assertRejected("alice", "other", IOException.class);
+        assertRejected("alice", "other", IOException.class);
+        Assert.assertEquals(3, authenticator.lookups.get());
+
+        authenticator.fault = null;
+        Assert.assertEquals(1, authenticator.invalidateUser("alice"));
+        Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate("alice", "wrong"));
+        Assert.assertEquals(4, authenticator.lookups.get());
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.throttle.enabled", "true");
+        properties.put("syncope.throttle.burst", "2");
+        properties.put("syncope.throttle.rate", "0");
+        authenticator = new StubAuthenticator(properties);
+        authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+        assertRejected("alice", "wrong1", SecurityException.class);
+        assertRejected("alice", "wrong2", SecurityException.class);
+        authenticator.fault = null;
+        // throttled per user, even with the right password
+        assertRejected("alice", "secret", ThrottledException.class);
+        Assert.assertEquals(2, authenticator.lookups.get());
+        // and per client address
+        authenticator.authenticate("bob", "secret", "10.0.0.1");
+        authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                authenticator.authenticate("user" + i, "wrong", "10.0.0.2");
+                Assert.fail();
+            } catch (Fault f) {
+                Assert.assertTrue(f.getCause() instanceof SecurityException);
+            }
+        }
+        try {
+            authenticator.authenticate("carol", "secret", "10.0.0.2");
+            Assert.fail();
+        } catch (Fault f) {
+            Assert.assertTrue(f.getCause() instanceof ThrottledException);
+        }
+
+        // a successful authentication resets the user failures
+        authenticator.invalidateUser("alice");
+        authenticator.fault = null;
+        authenticator.authenticate("alice", "secret");
+        authenticator.fault = new Fault(new SecurityException("Can't authenticate user"));
+        assertRejected("alice", "wrong3", SecurityException.class);
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        Hashtable<String, Object> properties = refreshProperties();
+        properties.put("bus1", "admin");
+        authenticator = new StubAuthenticator(properties);
+
+        Hashtable<String, Object> updated = refreshProperties();
+        updated.put("bus1", "admin,user");
+        updated.put("bus2", "admin");
+        updated.put("syncope.invalidation.port", "9999");
+        Assert.assertTrue(authenticator.matches(new InterceptorsUtil(updated)));
+        updated.put("syncope.cache.ttl", "20000");
+        Assert.assertFalse(authenticator.matches(new InterceptorsUtil(updated)));
+        updated.put("syncope.cache.ttl", " 10000 ");
+        updated.put("syncope.address", "http://localhost:9080/syncope/rest");
+        Assert.assertFalse(authenticator.matches(new InterceptorsUtil(updated)));
+    }
+
+    @Test
+    public void testRetire() throws Exception {
+        authenticator = new StubAuthenticator(new Hashtable<String, Object>());
+        authenticator.release = new CountDownLatch(1);
+        List<Caller> callers = start(2, "alice", "secret");
+        awaitWaiting(callers);
+        // the lookup in progress completes with the retired authenticator
+        authenticator.retire();
+        authenticator.release.countDown();
+        for (Caller caller : callers) {
+            caller.join(5000);
+            Assert.assertNull(caller.fault);
+            Assert.assertEquals(Arrays.asList("admin"), caller.roles);
+        }
+        try {
+            authenticator.authenticate("alice", "secret");
+            Assert.fail("The retired authenticator should be closed");
+        } catch (AuthenticatorClosedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        authenticator = new StubAuthenticator(new Hashtable<String, Object>());
+        Assert.assertFalse(authenticator.isClosed());
+        authenticator.close();
+        Assert.assertTrue(authenticator.isClosed());
+        try {
+            authenticator.authenticate("alice", "secret");
+            Assert.fail("The closed authenticator should refuse the calls");
+        } catch (AuthenticatorClosedException e) {
+            // expected
+        }
+        Assert.assertEquals(0, authenticator.lookups.get());
+    }
+
+    private void assertRejected(String username, String password, Class<? extends Exception> cause) {
+        try {
+            authenticator.authenticate(username, password);
+            Assert.fail("User " + username + " should have been rejected");
+        } catch (Fault f) {
+            Assert.assertTrue(cause.isInstance(f.getCause()));
+        }
+    }
+
+    private static Hashtable<String, Object> refreshProperties() {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.cache.enabled", "true");
+        properties.put("syncope.cache.ttl", "10000");
+        properties.put("syncope.cache.refreshAhead", "0.01");
+        return properties;
+    }
+
+    /**
+     * Use the cached entry until the given number of lookups (including the refreshes) is reached.
+     */
+    private void awaitRefreshes(int lookups, String username, String password) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (authenticator.lookups.get() < lookups) {
+            Assert.assertTrue("Entry not refreshed", System.currentTimeMillis() < deadline);
+            Assert.assertEquals(Arrays.asList("admin"), authenticator.authenticate(username, password));
+            Thread.sleep(5);
+        }
+    }
+
+    private List<Caller> start(int count, String username, String password) {
+        List<Caller> callers = new ArrayList<Caller>();
+        for (int i = 0; i < count; i++) {
+            Caller caller = new Caller(username, password);
+            caller.start();
+            callers.add(caller);
+        }
+        return callers;
+    }
+
+    /**
+     * Wait until all the callers are blocked, in the lookup or waiting for the in-flight lookup.
+     */
+    private static void awaitWaiting(List<Caller> callers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Caller caller : callers) {
+            while (caller.getState() != Thread.State.WAITING && caller.getState() != Thread.State.TIMED_WAITING) {
+                Assert.assertTrue("Caller not blocked", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private class Caller extends Thread {
+
+        private final String username;
+        private final String password;
+        private volatile List<String> roles;
+        private volatile Fault fault;
+
+        private Caller(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public void run() {
+            try {
+                roles = authenticator.authenticate(username, password);
+            } catch (Fault f) {
+                fault = f;
+            }
+        }
+
+    }
+
+    /**
+     * An authenticator answering the lookups locally, optionally blocked until released.
+     */
+    static class StubAuthenticator extends SyncopeAuthenticator {
+
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile CountDownLatch release;
+        volatile Fault fault;
+
+        StubAuthenticator(Hashtable<String, Object> properties) {
+            super(new InterceptorsUtil(properties));
+        }
+
+        @Override
+        protected List<String> lookup(String username, String password) throws Fault {
+            lookups.incrementAndGet();
+            CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fault != null) {
+                throw fault;
+            }
+            return Arrays.asList("admin");
+        }
+
+    }
+
+}
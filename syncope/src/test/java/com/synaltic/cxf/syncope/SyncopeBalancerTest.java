@@ -0,0 +1,220 @@
+package com.synaltic.cxf.syncope;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SyncopeBalancerTest {
+
+    private HttpServer first;
+    private HttpServer second;
+    private final AtomicInteger firstStatus = new AtomicInteger(200);
+    private final AtomicInteger secondStatus = new AtomicInteger(200);
+    private SyncopeClient client;
+    private SyncopeBalancer balancer;
+
+    @Before
+    public void start() throws Exception {
+        first = stub(firstStatus);
+        second = stub(secondStatus);
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (balancer != null) {
+            balancer.close();
+        }
+        if (client != null) {
+            client.close();
+        }
+        first.stop(0);
+        second.stop(0);
+    }
+
+    /**
+     * A Syncope node stub answering the health probes with the given status.
+     */
+    private static HttpServer stub(final AtomicInteger status) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/syncope/rest", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String address(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/syncope/rest";
+    }
+
+    private SyncopeBalancer balancer(String strategy, int ejectAfter, long probeInterval) throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.address", address(first) + ", " + address(second));
+        properties.put("syncope.balancer.strategy", strategy);
+        properties.put("syncope.balancer.ejectAfter", Integer.toString(ejectAfter));
+        properties.put("syncope.balancer.probeInterval", Long.toString(probeInterval));
+        InterceptorsUtil util = new InterceptorsUtil(properties);
+        client = new SyncopeClient(util);
+        balancer = new SyncopeBalancer(util, client);
+        return balancer;
+    }
+
+    /**
+     * Run a call on the given node (selected by excluding the other nodes).
+     */
+    private void call(SyncopeBalancer.Node node, long millis, boolean success) {
+        HashSet<SyncopeBalancer.Node> others = new HashSet<SyncopeBalancer.Node>(balancer.getNodes());
+        others.remove(node);
+        Assert.assertSame(node, balancer.select(others));
+        balancer.release(node, TimeUnit.MILLISECONDS.toNanos(millis), success);
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        SyncopeBalancer balancer = balancer("leastOutstanding", 3, 60000);
+        Assert.assertEquals(2, balancer.getNodes().size());
+        Assert.assertEquals(address(first), balancer.getNodes().get(0).getAddress());
+
+        SyncopeBalancer.Node busy = balancer.select(null);
+        Assert.assertEquals(1, busy.getOutstanding());
+        // the other node has no outstanding call
+        for (int i = 0; i < 10; i++) {
+            SyncopeBalancer.Node node = balancer.select(null);
+            Assert.assertNotSame(busy, node);
+            balancer.release(node, 0, true);
+        }
+        balancer.release(busy, 0, true);
+        Assert.assertEquals(0, busy.getOutstanding());
+
+        // no outstanding call at all, the ties are broken in round robin
+        SyncopeBalancer.Node a = balancer.select(null);
+        balancer.release(a, 0, true);
+        SyncopeBalancer.Node b = balancer.select(null);
+        balancer.release(b, 0, true);
+        Assert.assertNotSame(a, b);
+    }
+
+    @Test
+    public void testEwma() throws Exception {
+        SyncopeBalancer balancer = balancer("ewma", 3, 60000);
+        SyncopeBalancer.Node slow = balancer.getNodes().get(0);
+        SyncopeBalancer.Node fast = balancer.getNodes().get(1);
+        call(slow, 200, true);
+        call(fast, 2, true);
+        Assert.assertEquals(200000, slow.getEwma(), 0.1);
+        Assert.assertEquals(2000, fast.getEwma(), 0.1);
+
+        for (int i = 0; i < 10; i++) {
+            SyncopeBalancer.Node node = balancer.select(null);
+            Assert.assertSame(fast, node);
+            balancer.release(node, TimeUnit.MILLISECONDS.toNanos(2), true);
+        }
+
+        // the EWMA follows the last latencies
+        call(fast, 1000, true);
+        Assert.assertEquals(2000 + 0.3 * (1000000 - 2000), fast.getEwma(), 0.1);
+        Assert.assertSame(slow, balancer.select(null));
+    }
+
+    @Test
+    public void testEjection() throws Exception {
+        SyncopeBalancer balancer = balancer("leastOutstanding", 3, 60000);
+        SyncopeBalancer.Node failing = balancer.getNodes().get(0);
+        SyncopeBalancer.Node healthy = balancer.getNodes().get(1);
+
+        call(failing, 0, false);
+        call(failing, 0, false);
+        // a success resets the consecutive failures
+        call(failing, 0, true);
+        call(failing, 0, false);
+        call(failing, 0, false);
+        Assert.assertTrue(failing.isHealthy());
+        Assert.assertEquals(2, balancer.getHealthyNodes());
+
+        call(failing, 0, false);
+        Assert.assertFalse(failing.isHealthy());
+        Assert.assertEquals(1, balancer.getHealthyNodes());
+        for (int i = 0; i < 10; i++) {
+            SyncopeBalancer.Node node = balancer.select(null);
+            Assert.assertSame(healthy, node);
+            balancer.release(node, 0, true);
+        }
+        // the ejected node is still selected when the healthy one has already been tried for a call
+        call(failing, 0, true);
+        Assert.assertEquals(0, failing.getOutstanding());
+        Assert.assertEquals(0, healthy.getOutstanding());
+    }
+
+    @Test
+    public void testReadmission() throws Exception {
+        SyncopeBalancer balancer = balancer("leastOutstanding", 1, 100);
+        SyncopeBalancer.Node node = balancer.getNodes().get(0);
+        firstStatus.set(503);
+        call(node, 0, false);
+        Assert.assertFalse(node.isHealthy());
+
+        // the probes get a server error, the node stays ejected
+        Thread.sleep(500);
+        Assert.assertFalse(node.isHealthy());
+
+        firstStatus.set(401);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!node.isHealthy() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(node.isHealthy());
+        Assert.assertEquals(2, balancer.getHealthyNodes());
+        // a single failure ejects it again
+        call(node, 0, false);
+        Assert.assertFalse(node.isHealthy());
+    }
+
+    @Test
+    public void testAllEjected() throws Exception {
+        SyncopeBalancer balancer = balancer("leastOutstanding", 1, 60000);
+        SyncopeBalancer.Node a = balancer.getNodes().get(0);
+        SyncopeBalancer.Node b = balancer.getNodes().get(1);
+        call(a, 0, false);
+        call(b, 0, false);
+        Assert.assertEquals(0, balancer.getHealthyNodes());
+
+        // all the nodes are ejected, they are tried anyway
+        SyncopeBalancer.Node node = balancer.select(null);
+        Assert.assertNotNull(node);
+        SyncopeBalancer.Node other = balancer.select(new HashSet<SyncopeBalancer.Node>(Arrays.asList(node)));
+        Assert.assertNotNull(other);
+        Assert.assertNotSame(node, other);
+        Assert.assertNull(balancer.select(new HashSet<SyncopeBalancer.Node>(Arrays.asList(a, b))));
+    }
+
+    @Test
+    public void testSingleNode() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.address", address(first));
+        properties.put("syncope.balancer.ejectAfter", "1");
+        InterceptorsUtil util = new InterceptorsUtil(properties);
+        client = new SyncopeClient(util);
+        balancer = new SyncopeBalancer(util, client);
+        SyncopeBalancer.Node node = balancer.select(null);
+        call(node, 0, false);
+        // a single node is never ejected
+        Assert.assertTrue(node.isHealthy());
+        Assert.assertSame(node, balancer.select(null));
+    }
+
+}
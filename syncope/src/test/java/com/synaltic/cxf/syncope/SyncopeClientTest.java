@@ -0,0 +1,92 @@
+package com.synaltic.cxf.syncope;
+
+import org.apache.cxf.interceptor.Fault;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Hashtable;
+
+public class SyncopeClientTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+
+    @Before
+    public void start() throws Exception {
+        server = new ServerSocket(0);
+        serverThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        trickle(server.accept());
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.close();
+        serverThread.join(5000);
+    }
+
+    /**
+     * Answer with a response body sent one byte every 100ms, each read completing under the socket timeout.
+     */
+    private static void trickle(Socket socket) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                // skip the request headers
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 1000\r\n\r\n{".getBytes("ISO-8859-1"));
+            out.flush();
+            for (int i = 0; i < 999; i++) {
+                Thread.sleep(100);
+                out.write(' ');
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client aborted the call
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testCallDeadline() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.circuit.enabled", "true");
+        properties.put("syncope.circuit.callTimeout", "500");
+        SyncopeClient client = new SyncopeClient(new InterceptorsUtil(properties));
+        long start = System.currentTimeMillis();
+        try {
+            client.getRoles("alice", "secret", "http://localhost:" + server.getLocalPort() + "/syncope/rest", "2.x");
+            Assert.fail("The trickling call should have been aborted");
+        } catch (Fault f) {
+            Assert.assertTrue(f.getCause() instanceof IOException);
+        } finally {
+            client.close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("Call took " + elapsed + "ms", elapsed < 2000);
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.synaltic.cxf.syncope;
+
+import com.synaltic.cxf.common.AbortedExchange;
+import org.apache.cxf.configuration.security.AuthorizationPolicy;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.InterceptorChain;
+import org.apache.cxf.interceptor.security.DefaultSecurityContext;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.http.Headers;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SyncopeInterceptorTest {
+
+    @Test
+    public void testErrorResponseHeaders() {
+        SyncopeInterceptor interceptor = new SyncopeInterceptor();
+        interceptor.setUtil(new InterceptorsUtil(new Hashtable<String, Object>()));
+
+        Message message = sendErrorResponse(interceptor, 401);
+        Map<String, List<String>> headers = Headers.getSetProtocolHeaders(message.getExchange().getOutMessage());
+        // the headers of the template can be changed by the next interceptors
+        headers.get("WWW-Authenticate").add("Bearer realm=realm");
+        Assert.assertEquals(Arrays.asList("Basic realm=realm", "Bearer realm=realm"), headers.get("WWW-Authenticate"));
+        // without changing the template
+        headers = Headers.getSetProtocolHeaders(sendErrorResponse(interceptor, 401).getExchange().getOutMessage());
+        Assert.assertEquals(Arrays.asList("Basic realm=realm"), headers.get("WWW-Authenticate"));
+
+        headers = Headers.getSetProtocolHeaders(sendErrorResponse(interceptor, 429).getExchange().getOutMessage());
+        headers.get("Retry-After").set(0, "10");
+        headers = Headers.getSetProtocolHeaders(sendErrorResponse(interceptor, 429).getExchange().getOutMessage());
+        Assert.assertEquals(Arrays.asList("5"), headers.get("Retry-After"));
+        Assert.assertEquals(429, sendErrorResponse(interceptor, 429).getExchange().getOutMessage().get(Message.RESPONSE_CODE));
+    }
+
+    @Test
+    public void testAbortedExchangeCallbacks() {
+        SyncopeInterceptor interceptor = new SyncopeInterceptor();
+        interceptor.setUtil(new InterceptorsUtil(new Hashtable<String, Object>()));
+
+        final AtomicInteger calls = new AtomicInteger();
+        Exchange exchange = new ExchangeImpl();
+        AbortedExchange.onAbort(exchange, new Runnable() {
+            public void run() {
+                calls.incrementAndGet();
+            }
+        });
+        sendErrorResponse(interceptor, exchange, 401);
+        // the interceptors waiting for the end of the exchange are told the chain is aborted
+        Assert.assertEquals(1, calls.get());
+        sendErrorResponse(interceptor, exchange, 401);
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testClosedAuthenticator() {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        SyncopeInterceptor interceptor = new SyncopeInterceptor();
+        interceptor.setConfiguration(new InterceptorsUtil(properties), authenticator);
+        // the bundle is stopped, the interceptor left in the bus
+        authenticator.close();
+
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        message.setExchange(exchange);
+        exchange.setInMessage(message);
+        message.setInterceptorChain(EasyMock.createNiceMock(InterceptorChain.class));
+        AuthorizationPolicy policy = new AuthorizationPolicy();
+        policy.setUserName("alice");
+        policy.setPassword("secret");
+        message.put(AuthorizationPolicy.class, policy);
+        try {
+            interceptor.handleMessage(message);
+            Assert.fail("The request should fail");
+        } catch (Fault f) {
+            // not rejected as an authentication failure
+            Assert.assertTrue(f.getCause() instanceof IllegalStateException);
+            Assert.assertEquals("Syncope interceptor is stopped", f.getCause().getMessage());
+        }
+        Assert.assertNull(exchange.getOutMessage());
+        Assert.assertEquals(0, authenticator.lookups.get());
+    }
+
+    @Test
+    public void testRevokedToken() {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("syncope.token.enabled", "true");
+        properties.put("syncope.token.key", "0123456789abcdef0123456789abcdef");
+        properties.put("bus", "admin");
+        SyncopeAuthenticatorTest.StubAuthenticator authenticator = new SyncopeAuthenticatorTest.StubAuthenticator(properties);
+        try {
+            SyncopeInterceptor interceptor = new SyncopeInterceptor();
+            interceptor.setConfiguration(new InterceptorsUtil(properties), authenticator);
+            interceptor.setBusId("bus");
+            String token = authenticator.getTokens().issue("alice", Arrays.asList("admin"));
+
+            // authorized with the token, without Syncope lookup
+            Message message = tokenMessage(token);
+            interceptor.handleMessage(message);
+            Assert.assertNotNull(message.get(DefaultSecurityContext.class));
+            Assert.assertEquals(0, authenticator.lookups.get());
+
+            authenticator.invalidateUser("alice");
+            // the revoked token is refused, without credentials the request is rejected
+            message = tokenMessage(token);
+            interceptor.handleMessage(message);
+            Assert.assertNull(message.get(DefaultSecurityContext.class));
+            Assert.assertEquals(401, message.getExchange().getOutMessage().get(Message.RESPONSE_CODE));
+        } finally {
+            authenticator.close();
+        }
+    }
+
+    private static Message tokenMessage(String token) {
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        message.setExchange(exchange);
+        exchange.setInMessage(message);
+        message.setInterceptorChain(EasyMock.createNiceMock(InterceptorChain.class));
+        Headers.getSetProtocolHeaders(message).put("X-Syncope-Token", Arrays.asList(token));
+        return message;
+    }
+
+    private static Message sendErrorResponse(SyncopeInterceptor interceptor, int code) {
+        return sendErrorResponse(interceptor, new ExchangeImpl(), code);
+    }
+
+    private static Message sendErrorResponse(SyncopeInterceptor interceptor, Exchange exchange, int code) {
+        Message message = new MessageImpl();
+        message.setExchange(exchange);
+        exchange.setInMessage(message);
+        message.setInterceptorChain(EasyMock.createNiceMock(InterceptorChain.class));
+        interceptor.sendErrorResponse(message, code);
+        return message;
+    }
+
+}